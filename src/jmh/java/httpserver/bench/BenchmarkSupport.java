@@ -0,0 +1,36 @@
+package httpserver.bench;
+
+import httpserver.RoomRegistry;
+import httpserver.TimingWheel;
+import httpserver.model.ChatMessage;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 基准测试共用的数据和环境准备
+ */
+final class BenchmarkSupport {
+    private BenchmarkSupport() {
+    }
+
+    /**
+     * 不带消息日志的房间登记表，只测内存中的发布和读取路径；用完后与时间轮一起关闭
+     */
+    static RoomRegistry memoryRooms(TimingWheel timingWheel) {
+        return new RoomRegistry(1, 1, null, timingWheel, TimeUnit.MINUTES.toMillis(1), 0);
+    }
+
+    static TimingWheel timingWheel() {
+        return new TimingWheel("Bench-TimingWheel", 100, TimeUnit.MILLISECONDS, 512);
+    }
+
+    static ChatMessage message(int i) {
+        ChatMessage message = new ChatMessage();
+        message.setType("user");
+        message.setUsername("用户" + (i % 20));
+        message.setUserId("3f2c8a5e-8d1b-4c7a-9e4f-0b6d2a1c9e" + (10 + i % 90));
+        message.setContent("第" + i + "条消息：今天的会议改到下午三点，请大家准时参加");
+        message.setTimestamp(1_700_000_000_000L + i * 1000L);
+        return message;
+    }
+}
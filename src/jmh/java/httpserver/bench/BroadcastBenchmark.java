@@ -0,0 +1,60 @@
+package httpserver.bench;
+
+import httpserver.ChatRoom;
+import httpserver.RoomRegistry;
+import httpserver.TimingWheel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 多线程同时调用ChatRoom.broadcastMessage：写入历史环形缓冲区、唤醒长轮询、向事件流扇出
+ * 没有订阅者时衡量的是发布路径本身的竞争开销；房间不带消息日志，INFO日志不输出，避免测的是磁盘和终端速度
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dchat.log.level=WARN")
+public class BroadcastBenchmark {
+    private TimingWheel timingWheel;
+    private RoomRegistry rooms;
+    private ChatRoom room;
+
+    @Setup
+    public void setup() {
+        timingWheel = BenchmarkSupport.timingWheel();
+        rooms = BenchmarkSupport.memoryRooms(timingWheel);
+        room = rooms.open(RoomRegistry.DEFAULT_ROOM_ID);
+    }
+
+    @TearDown
+    public void tearDown() {
+        rooms.shutdown();
+        timingWheel.shutdown();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void broadcastSingleThread() {
+        room.broadcastMessage(BenchmarkSupport.message(0));
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void broadcastContended() {
+        room.broadcastMessage(BenchmarkSupport.message(0));
+    }
+}
@@ -0,0 +1,67 @@
+package httpserver.bench;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import httpserver.ChatRoom;
+import httpserver.RoomRegistry;
+import httpserver.ServerConfig;
+import httpserver.TimingWheel;
+import httpserver.model.ChatMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 消息历史的读取与Jackson序列化，即GET /api/messages的主要开销
+ * 历史在准备阶段写满（默认100条）到一个不带消息日志的房间，比较全量历史与增量读取
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dchat.log.level=WARN")
+public class HistoryBenchmark {
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private TimingWheel timingWheel;
+    private RoomRegistry rooms;
+    private ChatRoom room;
+    private long recentSeq;
+
+    @Setup
+    public void fillHistory() {
+        timingWheel = BenchmarkSupport.timingWheel();
+        rooms = BenchmarkSupport.memoryRooms(timingWheel);
+        room = rooms.open(RoomRegistry.DEFAULT_ROOM_ID);
+        for (int i = 0; i < ServerConfig.HISTORY_CAPACITY; i++) {
+            room.broadcastMessage(BenchmarkSupport.message(i));
+        }
+        java.util.List<ChatMessage> history = room.getMessageHistory();
+        recentSeq = history.get(Math.max(0, history.size() - 10)).getSeq();
+    }
+
+    @TearDown
+    public void tearDown() {
+        rooms.shutdown();
+        timingWheel.shutdown();
+    }
+
+    @Benchmark
+    public byte[] serializeFullHistory() throws Exception {
+        return objectMapper.writeValueAsBytes(room.getMessageHistory());
+    }
+
+    @Benchmark
+    public byte[] serializeRecentMessages() throws Exception {
+        return objectMapper.writeValueAsBytes(room.getMessagesSince(recentSeq));
+    }
+}
@@ -0,0 +1,88 @@
+package httpserver.bench;
+
+import httpserver.HttpMessageParser;
+import httpserver.HttpParseException;
+import httpserver.model.Request;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * HttpMessageParser.parse：浏览器发出的轮询GET、带JSON请求体的POST，以及一次到达的流水线请求
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserBenchmark {
+    private static final String BROWSER_HEADERS =
+        "Host: localhost:8999\r\n"
+        + "Connection: keep-alive\r\n"
+        + "User-Agent: Mozilla/5.0 (X11; Linux x86_64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/120.0 Safari/537.36\r\n"
+        + "Accept: */*\r\n"
+        + "Referer: http://localhost:8999/\r\n"
+        + "Accept-Encoding: gzip, deflate, br\r\n"
+        + "Accept-Language: zh-CN,zh;q=0.9,en;q=0.8\r\n";
+
+    private HttpMessageParser parser;
+    private ByteBuffer getRequest;
+    private ByteBuffer postRequest;
+    private ByteBuffer pipelined;
+
+    @Setup
+    public void setup() {
+        parser = new HttpMessageParser();
+        String get = "GET /api/messages?since=42 HTTP/1.1\r\n" + BROWSER_HEADERS + "\r\n";
+        String body = "{\"userId\":\"3f2c8a5e-8d1b-4c7a-9e4f-0b6d2a1c9e77\",\"username\":\"小明\",\"content\":\"大家好，今天的会议改到下午三点\"}";
+        byte[] bodyBytes = body.getBytes(StandardCharsets.UTF_8);
+        String post = "POST /api/send HTTP/1.1\r\n" + BROWSER_HEADERS
+            + "Content-Type: application/json\r\n"
+            + "Content-Length: " + bodyBytes.length + "\r\n\r\n" + body;
+        getRequest = direct(get);
+        postRequest = direct(post);
+        pipelined = direct(get + post + get);
+    }
+
+    private static ByteBuffer direct(String request) {
+        byte[] bytes = request.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+        buffer.put(bytes).flip();
+        return buffer;
+    }
+
+    @Benchmark
+    public Request parseGet() throws HttpParseException {
+        getRequest.rewind();
+        return parser.parse(getRequest);
+    }
+
+    @Benchmark
+    public Request parsePost() throws HttpParseException {
+        postRequest.rewind();
+        return parser.parse(postRequest);
+    }
+
+    @Benchmark
+    public Request parsePipelined() throws HttpParseException {
+        pipelined.rewind();
+        Request last = null;
+        Request request;
+        while ((request = parser.parse(pipelined)) != null) {
+            last = request;
+        }
+        return last;
+    }
+}
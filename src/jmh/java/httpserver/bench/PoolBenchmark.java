@@ -0,0 +1,94 @@
+package httpserver.bench;
+
+import httpserver.pool.HttpResponseBuilder;
+import httpserver.pool.MemoryPool;
+import httpserver.pool.PoolManager;
+import httpserver.pool.PoolPolicy;
+import httpserver.pool.PooledByteBuffer;
+import httpserver.pool.PooledStringBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MemoryPool的acquire/release与直接new的对比
+ * 线程数用JMH的-t参数指定，分别以 -t 1 和 -t N 运行观察竞争下的表现；
+ * 每组pooledX/newX做同样的最少量使用，保证对象不会被逃逸分析消除
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PoolBenchmark {
+    private final PoolManager poolManager = PoolManager.getInstance();
+    // 独立的池，不受服务器其他池配置影响，只衡量MemoryPool本身
+    private final MemoryPool<PooledStringBuilder> stringBuilderPool =
+        new MemoryPool<>("Bench-StringBuilder", PooledStringBuilder::new, PoolPolicy.fixed(1024));
+
+    @Benchmark
+    public int pooledStringBuilder() {
+        PooledStringBuilder sb = stringBuilderPool.acquire();
+        try {
+            return sb.append("用户 ").append(42).append(" 加入了聊天室").length();
+        } finally {
+            stringBuilderPool.release(sb);
+        }
+    }
+
+    @Benchmark
+    public int newStringBuilder() {
+        StringBuilder sb = new StringBuilder(256);
+        return sb.append("用户 ").append(42).append(" 加入了聊天室").length();
+    }
+
+    @Benchmark
+    public int pooledDirectBuffer() {
+        PooledByteBuffer buffer = poolManager.getByteBuffer();
+        try {
+            buffer.put((byte) 1);
+            return buffer.remaining();
+        } finally {
+            poolManager.releaseByteBuffer(buffer);
+        }
+    }
+
+    @Benchmark
+    public int newDirectBuffer() {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(8192);
+        buffer.put((byte) 1);
+        return buffer.remaining();
+    }
+
+    @Benchmark
+    public int newHeapBuffer() {
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
+        buffer.put((byte) 1);
+        return buffer.remaining();
+    }
+
+    @Benchmark
+    public int pooledResponseBuilder() {
+        HttpResponseBuilder builder = poolManager.getHttpResponseBuilder();
+        try {
+            return builder.setStatus(204).hashCode();
+        } finally {
+            poolManager.releaseHttpResponseBuilder(builder);
+        }
+    }
+
+    @Benchmark
+    public int newResponseBuilder() {
+        return new HttpResponseBuilder().setStatus(204).hashCode();
+    }
+}
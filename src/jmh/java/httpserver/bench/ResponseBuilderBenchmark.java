@@ -0,0 +1,86 @@
+package httpserver.bench;
+
+import httpserver.pool.HttpResponseBuilder;
+import httpserver.pool.PoolManager;
+import httpserver.pool.PooledByteBuffer;
+import httpserver.pool.ResponseSink;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * HttpResponseBuilder的build*Response：编码为完整字节数组（toBytes），
+ * 以及服务器实际使用的路径——响应头编码进池化缓冲区后交给ResponseSink
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResponseBuilderBenchmark {
+    private static final byte[] MESSAGES_JSON = ("[{\"type\":\"user\",\"username\":\"小明\",\"content\":\"大家好\","
+        + "\"timestamp\":1700000000000,\"userId\":\"3f2c8a5e-8d1b-4c7a-9e4f-0b6d2a1c9e77\",\"seq\":42}]")
+        .getBytes(StandardCharsets.UTF_8);
+
+    private final PoolManager poolManager = PoolManager.getInstance();
+    private Blackhole blackhole;
+
+    // 只消费数据并归还响应头缓冲区，不做网络I/O
+    private final ResponseSink sink = new ResponseSink() {
+        @Override
+        public void write(PooledByteBuffer head, ByteBuffer body) {
+            blackhole.consume(head.remaining() + body.remaining());
+            poolManager.releaseByteBuffer(head);
+        }
+    };
+
+    @Benchmark
+    public byte[] jsonToBytes() {
+        HttpResponseBuilder builder = poolManager.getHttpResponseBuilder();
+        try {
+            return builder.setKeepAlive(15, 99).buildJsonResponse(MESSAGES_JSON).toBytes();
+        } finally {
+            poolManager.releaseHttpResponseBuilder(builder);
+        }
+    }
+
+    @Benchmark
+    public void jsonWriteTo(Blackhole blackhole) throws Exception {
+        this.blackhole = blackhole;
+        HttpResponseBuilder builder = poolManager.getHttpResponseBuilder();
+        try {
+            builder.setKeepAlive(15, 99).buildJsonResponse(MESSAGES_JSON).writeTo(sink);
+        } finally {
+            poolManager.releaseHttpResponseBuilder(builder);
+        }
+    }
+
+    @Benchmark
+    public void errorWriteTo(Blackhole blackhole) throws Exception {
+        this.blackhole = blackhole;
+        HttpResponseBuilder builder = poolManager.getHttpResponseBuilder();
+        try {
+            builder.buildErrorResponse(409, "用户名已存在，请选择其他用户名").writeTo(sink);
+        } finally {
+            poolManager.releaseHttpResponseBuilder(builder);
+        }
+    }
+
+    @Benchmark
+    public void unpooledJsonWriteTo(Blackhole blackhole) throws Exception {
+        this.blackhole = blackhole;
+        new HttpResponseBuilder().setKeepAlive(15, 99).buildJsonResponse(MESSAGES_JSON).writeTo(sink);
+    }
+}
@@ -0,0 +1,177 @@
+package httpserver;
+
+import httpserver.model.Request;
+import httpserver.pool.HttpResponseBuilder;
+import httpserver.pool.PoolManager;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 准入控制器，限制排队和处理中的请求总数，过载时显式拒绝而不是静默丢弃
+ * 高优先级请求（发送消息等用户操作）可使用额外的预留容量，过载时优先于轮询请求被接纳
+ */
+public class AdmissionController {
+    public enum Priority { HIGH, LOW }
+
+    private final ExecutorService executor;
+    // 低优先级请求可占用的最大在途数（排队+处理中）
+    private final int capacity;
+    // 仅供高优先级请求使用的额外容量
+    private final int highPriorityReserve;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    // 用于同优先级内保持先来先服务
+    private final AtomicLong sequence = new AtomicLong();
+    private final LongAdder admitted = new LongAdder();
+    private final LongAdder shedHigh = new LongAdder();
+    private final LongAdder shedLow = new LongAdder();
+    // 预先构建好的503响应，拒绝时无需再次分配
+    private final byte[] overloadResponse;
+
+    public AdmissionController(ExecutorService executor, int capacity, int highPriorityReserve, int retryAfterSeconds) {
+        this.executor = executor;
+        this.capacity = capacity;
+        this.highPriorityReserve = highPriorityReserve;
+        this.overloadResponse = buildOverloadResponse(retryAfterSeconds);
+    }
+
+    /**
+     * 根据请求判断优先级：POST为用户主动操作（发送、加入、离开），GET为轮询
+     */
+    public static Priority classify(Request request) {
+        return "POST".equals(request.getMethod()) ? Priority.HIGH : Priority.LOW;
+    }
+
+    /**
+     * 尝试提交任务，超出容量时返回false，由调用方负责向客户端返回503
+     */
+    public boolean tryExecute(Runnable task, Priority priority) {
+        int limit = priority == Priority.HIGH ? capacity + highPriorityReserve : capacity;
+        while (true) {
+            int current = inFlight.get();
+            if (current >= limit) {
+                recordShed(priority);
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                break;
+            }
+        }
+        try {
+            executor.execute(new PrioritizedTask(task, priority, sequence.getAndIncrement()));
+            admitted.increment();
+            return true;
+        } catch (RejectedExecutionException e) {
+            inFlight.decrementAndGet();
+            recordShed(priority);
+            return false;
+        }
+    }
+
+    /**
+     * 提交服务器内部的后续任务（写出长轮询响应、移除空闲用户等），不受容量限制、不会被拒绝：
+     * 这些任务对应已接纳的请求或已到期的定时器，丢弃会使客户端一直等待。执行器已关闭时在当前线程执行
+     */
+    public void execute(Runnable task, Priority priority) {
+        inFlight.incrementAndGet();
+        try {
+            executor.execute(new PrioritizedTask(task, priority, sequence.getAndIncrement()));
+        } catch (RejectedExecutionException e) {
+            inFlight.decrementAndGet();
+            task.run();
+        }
+    }
+
+    private void recordShed(Priority priority) {
+        if (priority == Priority.HIGH) {
+            shedHigh.increment();
+        } else {
+            shedLow.increment();
+        }
+    }
+
+    /**
+     * 由接收线程直接向socket写出503并关闭，不占用处理线程
+     */
+    public void rejectSocket(Socket socket) {
+        try (Socket clientSocket = socket) {
+            clientSocket.getOutputStream().write(overloadResponse);
+            clientSocket.shutdownOutput();
+            // 丢弃已到达的请求字节，避免关闭时发送RST导致客户端收不到503
+            InputStream input = clientSocket.getInputStream();
+            int available = input.available();
+            if (available > 0) {
+                input.skip(available);
+            }
+        } catch (IOException e) {
+            // 客户端已断开，无需处理
+        }
+    }
+
+    public byte[] getOverloadResponse() {
+        return overloadResponse;
+    }
+
+    private static byte[] buildOverloadResponse(int retryAfterSeconds) {
+        PoolManager poolManager = PoolManager.getInstance();
+        HttpResponseBuilder responseBuilder = poolManager.getHttpResponseBuilder();
+        try {
+            return responseBuilder.addHeader("Retry-After", String.valueOf(retryAfterSeconds))
+                                  .buildErrorResponse(503, "服务器繁忙，请稍后重试")
+                                  .toBytes();
+        } finally {
+            poolManager.releaseHttpResponseBuilder(responseBuilder);
+        }
+    }
+
+    public int getInFlight() { return inFlight.get(); }
+    public int getCapacity() { return capacity; }
+    public int getHighPriorityReserve() { return highPriorityReserve; }
+    public long getAdmittedCount() { return admitted.sum(); }
+    public long getShedHighCount() { return shedHigh.sum(); }
+    public long getShedLowCount() { return shedLow.sum(); }
+
+    @Override
+    public String toString() {
+        return String.format(
+            "Admission: 在途=%d/%d(+%d预留), 已接纳=%d, 拒绝(高优先级)=%d, 拒绝(低优先级)=%d",
+            getInFlight(), capacity, highPriorityReserve, getAdmittedCount(), getShedHighCount(), getShedLowCount()
+        );
+    }
+
+    /**
+     * 带优先级的任务，配合PriorityBlockingQueue使用；执行结束后释放在途名额
+     */
+    private final class PrioritizedTask implements Runnable, Comparable<PrioritizedTask> {
+        private final Runnable task;
+        private final Priority priority;
+        private final long seq;
+
+        PrioritizedTask(Runnable task, Priority priority, long seq) {
+            this.task = task;
+            this.priority = priority;
+            this.seq = seq;
+        }
+
+        @Override
+        public void run() {
+            try {
+                task.run();
+            } finally {
+                inFlight.decrementAndGet();
+            }
+        }
+
+        @Override
+        public int compareTo(PrioritizedTask other) {
+            int byPriority = priority.compareTo(other.priority);
+            return byPriority != 0 ? byPriority : Long.compare(seq, other.seq);
+        }
+    }
+}
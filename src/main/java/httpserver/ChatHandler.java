@@ -3,196 +3,629 @@ package httpserver;
 import httpserver.model.Request;
 import httpserver.model.ChatMessage;
 import httpserver.model.ChatUser;
+import httpserver.model.HttpHeaders;
+import httpserver.log.Logger;
+import httpserver.metrics.ServerMetrics;
+import httpserver.nio.NioConnection;
 import httpserver.pool.PoolManager;
 import httpserver.pool.HttpResponseBuilder;
+import httpserver.pool.PooledByteBuffer;
+import httpserver.pool.ResponseSink;
+import httpserver.websocket.WebSocketFrames;
+import httpserver.websocket.WebSocketSession;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 import java.io.IOException;
-import java.io.OutputStream;
-import java.io.PrintWriter;
+import java.io.InputStream;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Locale;
 import java.util.UUID;
+import java.util.function.Consumer;
 
 public class ChatHandler implements Runnable {
+    private static final Logger LOG = Logger.getLogger(ChatHandler.class);
+    // 等待下一个持久连接请求时的轮询间隔（毫秒）
+    private static final int KEEP_ALIVE_POLL_MS = 1000;
+    
     private Socket socket;
+    // NIO模式下由事件循环解析好的请求及其所属连接
+    private NioConnection connection;
+    private Request request;
+    // 响应是否将由其他线程异步写出（长轮询），此时连接的关闭也交给写出方
+    private boolean asyncResponse;
+    // 当前响应是否保持连接，以及该连接还可处理的请求数
+    private boolean keepAlive;
+    private int remainingRequests;
+    // BIO模式下连接的读缓冲区（读模式），当前请求之后已读入的字节留在其中
+    private ByteBuffer readAhead;
     private static final ObjectMapper objectMapper = new ObjectMapper();
+    // 聊天室主页面，可由类路径中的static/index.html覆盖；启动时由preloadStaticAssets加载
+    private static volatile StaticAsset chatPage;
     private final PoolManager poolManager = PoolManager.getInstance();
     
     public ChatHandler(Socket socket) {
         this.socket = socket;
     }
     
+    public ChatHandler(NioConnection connection, Request request, boolean keepAlive, int remainingRequests) {
+        this.connection = connection;
+        this.request = request;
+        this.keepAlive = keepAlive;
+        this.remainingRequests = remainingRequests;
+    }
+    
     @Override
     public void run() {
+        if (connection != null) {
+            handleNioRequest();
+            return;
+        }
         if (socket == null) {
             throw new IllegalArgumentException("Socket不能为空");
         }
         
-        try (Socket clientSocket = socket) {
-            OutputStream output = clientSocket.getOutputStream();
-            PrintWriter out = new PrintWriter(output);
-            
-            Request request = HttpMessageParser.parse2request(clientSocket.getInputStream());
-            String method = request.getMethod();
-            String uri = request.getUri();
-            
-            if ("GET".equals(method)) {
-                handleGetRequest(uri, out);
-            } else if ("POST".equals(method)) {
-                handlePostRequest(uri, request, out);
-            } else {
-                sendErrorResponse(out, 405, "方法不被允许");
+        Socket clientSocket = socket;
+        try {
+            SocketResponseSink sink = new SocketResponseSink(clientSocket);
+            InputStream input = clientSocket.getInputStream();
+            // 整个连接复用同一个解析器和读缓冲区，流水线请求按到达顺序依次处理和响应
+            HttpMessageParser parser = new HttpMessageParser();
+            // InputStream读取需要底层数组，使用堆缓冲区
+            PooledByteBuffer readBuffer = poolManager.getHeapByteBuffer();
+            try {
+                ByteBuffer buffer = readBuffer.getBuffer();
+                buffer.flip();
+                readAhead = buffer;
+                int handled = 0;
+                while (true) {
+                    if (handled > 0 && !buffer.hasRemaining() && !awaitNextRequest(clientSocket, input, buffer)) {
+                        break;
+                    }
+                    clientSocket.setSoTimeout(ServerConfig.KEEP_ALIVE_TIMEOUT_MS);
+                    Request request = readRequest(input, parser, buffer);
+                    if (request == null) {
+                        break;
+                    }
+                    handled++;
+                    remainingRequests = ServerConfig.MAX_KEEP_ALIVE_REQUESTS - handled;
+                    keepAlive = ServerConfig.KEEP_ALIVE
+                            && remainingRequests > 0
+                            && HttpMessageParser.isKeepAliveRequested(request)
+                            && !ChatServer.isHandlerBacklogged();
+                    int route = ServerMetrics.route(request.getUri());
+                    sink.setRoute(route);
+                    long writeNanos = sink.getWriteNanos();
+                    long start = System.nanoTime();
+                    dispatch(request, sink);
+                    // 处理阶段不含阻塞写出的耗时，写出单独记入write阶段
+                    ServerMetrics.recordPhase(route, ServerMetrics.PHASE_HANDLE,
+                            System.nanoTime() - start - (sink.getWriteNanos() - writeNanos));
+                    if (!keepAlive || asyncResponse) {
+                        break;
+                    }
+                }
+            } catch (HttpParseException e) {
+                keepAlive = false;
+                sendErrorResponse(sink, e.getStatusCode(), e.getMessage());
+            } finally {
+                readAhead = null;
+                poolManager.releaseByteBuffer(readBuffer);
             }
             
+        } catch (SocketTimeoutException e) {
+            // 持久连接空闲超时，直接关闭
         } catch (IOException e) {
-            System.err.println("处理客户端请求时发生错误：" + e.getMessage());
+            LOG.warn("处理客户端请求时发生错误：{}", e.getMessage());
+        } finally {
+            if (!asyncResponse) {
+                closeQuietly(clientSocket);
+            }
+        }
+    }
+    
+    private static void closeQuietly(Socket clientSocket) {
+        try {
+            clientSocket.close();
+        } catch (IOException e) {
+            // 忽略关闭异常
+        }
+    }
+    
+    /**
+     * 读取并解析下一个完整请求，连接关闭时返回null
+     * 解析阶段只统计解析本身的耗时，不含等待数据到达的时间
+     */
+    private static Request readRequest(InputStream input, HttpMessageParser parser, ByteBuffer buffer) throws IOException {
+        long parseNanos = 0;
+        while (true) {
+            long start = System.nanoTime();
+            Request request = parser.parse(buffer);
+            parseNanos += System.nanoTime() - start;
+            if (request != null) {
+                ServerMetrics.recordPhase(ServerMetrics.route(request.getUri()), ServerMetrics.PHASE_PARSE, parseNanos);
+                return request;
+            }
+            if (!fill(input, buffer)) {
+                return null;
+            }
+        }
+    }
+    
+    /**
+     * 从输入流补充数据到缓冲区，调用前后缓冲区均处于读模式；流结束时返回false
+     */
+    private static boolean fill(InputStream input, ByteBuffer buffer) throws IOException {
+        buffer.compact();
+        try {
+            if (!buffer.hasRemaining()) {
+                throw new HttpParseException(431, "请求头过大");
+            }
+            int n = input.read(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            if (n < 0) {
+                return false;
+            }
+            ServerMetrics.bytesReceived(n);
+            buffer.position(buffer.position() + n);
+            return true;
+        } finally {
+            buffer.flip();
+        }
+    }
+    
+    /**
+     * 分段等待持久连接上的下一个请求，读到的字节直接进入缓冲区，超时不会丢失数据；
+     * 若有其他连接在排队等待处理线程则提前释放本线程
+     */
+    private boolean awaitNextRequest(Socket clientSocket, InputStream input, ByteBuffer buffer) throws IOException {
+        long deadline = System.currentTimeMillis() + ServerConfig.KEEP_ALIVE_TIMEOUT_MS;
+        clientSocket.setSoTimeout(KEEP_ALIVE_POLL_MS);
+        while (true) {
+            try {
+                return fill(input, buffer);
+            } catch (SocketTimeoutException e) {
+                if (System.currentTimeMillis() >= deadline || ChatServer.isHandlerBacklogged()) {
+                    return false;
+                }
+            }
+        }
+    }
+    
+    /**
+     * NIO模式：请求已完整读取，响应交回事件循环发送
+     */
+    private void handleNioRequest() {
+        int route = ServerMetrics.route(request.getUri());
+        // 写出在事件循环中完成，由连接记入write阶段
+        NioConnection.Sink sink = connection.newResponseSink(keepAlive, route);
+        long start = System.nanoTime();
+        try {
+            dispatch(request, sink);
+        } catch (IOException e) {
+            LOG.warn("处理客户端请求时发生错误：{}", e.getMessage());
+        } finally {
+            ServerMetrics.recordPhase(route, ServerMetrics.PHASE_HANDLE, System.nanoTime() - start);
+            // 未能写出响应时关闭连接，否则该连接会一直停在处理状态
+            if (!asyncResponse && !sink.isCommitted()) {
+                connection.abort();
+            }
         }
     }
     
-    private void handleGetRequest(String uri, PrintWriter out) throws IOException {
+    /**
+     * 从池中获取响应构建器，并按当前连接状态设置Connection头
+     */
+    private HttpResponseBuilder acquireResponseBuilder() {
         HttpResponseBuilder responseBuilder = poolManager.getHttpResponseBuilder();
+        if (keepAlive) {
+            responseBuilder.setKeepAlive(ServerConfig.KEEP_ALIVE_TIMEOUT_MS / 1000, remainingRequests);
+        }
+        return responseBuilder;
+    }
+    
+    private void dispatch(Request request, ResponseSink sink) throws IOException {
+        String method = request.getMethod();
+        String uri = request.getUri();
+        
+        if ("GET".equals(method)) {
+            handleGetRequest(uri, request, sink);
+        } else if ("POST".equals(method)) {
+            handlePostRequest(uri, request, sink);
+        } else {
+            sendErrorResponse(sink, 405, "方法不被允许");
+        }
+    }
+    
+    private void handleGetRequest(String uri, Request request, ResponseSink sink) throws IOException {
+        HttpResponseBuilder responseBuilder = acquireResponseBuilder();
         try {
+            ChatRoom room;
             if ("/".equals(uri)) {
-                // 返回聊天室主页面
-                String htmlContent = getChatRoomHtml();
-                String response = responseBuilder.buildHtmlResponse(htmlContent);
-                out.print(response);
-                out.flush();
+                // 返回聊天室主页面（启动时已编码和压缩）
+                writeStaticAsset(chatPage(), request, responseBuilder, sink);
             } else if ("/api/messages".equals(uri)) {
-                // 返回消息历史
-                try {
-                    String messagesJson = objectMapper.writeValueAsString(ChatServer.getMessageHistory());
-                    String response = responseBuilder.buildJsonResponse(messagesJson);
-                    out.print(response);
-                    out.flush();
-                } catch (Exception e) {
-                    sendErrorResponse(out, 500, "获取消息历史失败");
+                // 返回房间的消息历史；带since参数时只返回该序号之后的新消息，
+                // 带before或from/to参数时从消息日志中分页查询更早的历史
+                if ((room = requireRoom(request, responseBuilder, sink)) == null) return;
+                if (request.getQueryParameter("before") != null || request.getQueryParameter("from") != null
+                        || request.getQueryParameter("to") != null) {
+                    handleHistoryQuery(room, request, responseBuilder, sink);
+                } else {
+                    try {
+                        long since = parseSince(request);
+                        byte[] messagesJson = objectMapper.writeValueAsBytes(since > 0
+                                ? room.getMessagesSince(since) : room.getMessageHistory());
+                        responseBuilder.buildJsonResponse(messagesJson).writeTo(sink);
+                    } catch (Exception e) {
+                        sendErrorResponse(sink, 500, "获取消息历史失败");
+                    }
                 }
+            } else if ("/api/messages/wait".equals(uri)) {
+                // 长轮询：等到有新消息或超时才返回
+                if ((room = requireRoom(request, responseBuilder, sink)) == null) return;
+                handleWaitMessages(room, request, sink, responseBuilder);
+            } else if ("/api/stream".equals(uri)) {
+                // 服务器推送事件流
+                if ((room = requireRoom(request, responseBuilder, sink)) == null) return;
+                handleEventStream(room, request);
+            } else if ("/api/ws".equals(uri)) {
+                // WebSocket升级
+                if ((room = requireRoom(request, responseBuilder, sink)) == null) return;
+                handleWebSocketUpgrade(room, request, sink, responseBuilder);
+            } else if ("/metrics".equals(uri)) {
+                // Prometheus指标
+                responseBuilder.setContentType(HttpResponseBuilder.CONTENT_TYPE_PROMETHEUS)
+                               .setBody(ServerMetrics.render())
+                               .writeTo(sink);
             } else if ("/api/users".equals(uri)) {
-                // 返回在线用户列表
+                // 返回房间的在线用户列表
+                if ((room = requireRoom(request, responseBuilder, sink)) == null) return;
                 try {
-                    String usersJson = objectMapper.writeValueAsString(ChatServer.getOnlineUsers());
-                    String response = responseBuilder.buildJsonResponse(usersJson);
-                    out.print(response);
-                    out.flush();
+                    byte[] usersJson = objectMapper.writeValueAsBytes(room.getOnlineUsers());
+                    responseBuilder.buildJsonResponse(usersJson).writeTo(sink);
                 } catch (Exception e) {
-                    sendErrorResponse(out, 500, "获取用户列表失败");
+                    sendErrorResponse(sink, 500, "获取用户列表失败");
                 }
             } else {
-                sendErrorResponse(out, 404, "页面未找到");
+                sendErrorResponse(sink, 404, "页面未找到");
             }
         } finally {
             poolManager.releaseHttpResponseBuilder(responseBuilder);
         }
     }
     
-    private void handlePostRequest(String uri, Request request, PrintWriter out) throws IOException {
-        HttpResponseBuilder responseBuilder = poolManager.getHttpResponseBuilder();
+    private void handlePostRequest(String uri, Request request, ResponseSink sink) throws IOException {
+        HttpResponseBuilder responseBuilder = acquireResponseBuilder();
         try {
+            ChatRoom room;
             if ("/api/join".equals(uri)) {
-                // 用户加入聊天室
-                handleJoinRequest(request, out, responseBuilder);
+                // 用户加入聊天室，房间不存在时创建
+                handleJoinRequest(request, sink, responseBuilder);
             } else if ("/api/send".equals(uri)) {
                 // 发送消息
-                handleSendMessage(request, out, responseBuilder);
+                if ((room = requireRoom(request, responseBuilder, sink)) == null) return;
+                handleSendMessage(room, request, sink, responseBuilder);
             } else if ("/api/leave".equals(uri)) {
                 // 用户离开聊天室
-                handleLeaveRequest(request, out, responseBuilder);
+                if ((room = requireRoom(request, responseBuilder, sink)) == null) return;
+                handleLeaveRequest(room, request, sink, responseBuilder);
             } else {
-                String response = responseBuilder.buildErrorResponse(404, "API接口未找到");
-                out.print(response);
-                out.flush();
+                responseBuilder.buildErrorResponse(404, "API接口未找到").writeTo(sink);
             }
         } finally {
             poolManager.releaseHttpResponseBuilder(responseBuilder);
         }
     }
     
-    private void handleJoinRequest(Request request, PrintWriter out, HttpResponseBuilder responseBuilder) {
+    private void handleJoinRequest(Request request, ResponseSink sink, HttpResponseBuilder responseBuilder) throws IOException {
         try {
             String username = extractUsernameFromRequest(request.getMessage());
             if (username == null || username.trim().isEmpty()) {
-                String response = responseBuilder.buildErrorResponse(400, "用户名不能为空");
-                out.print(response);
-                out.flush();
+                responseBuilder.buildErrorResponse(400, "用户名不能为空").writeTo(sink);
                 return;
             }
             
             username = username.trim();
             
-            // 检查用户名是否已存在
-            if (ChatServer.isUsernameExists(username)) {
-                String response = responseBuilder.buildErrorResponse(409, "用户名已存在，请选择其他用户名");
-                out.print(response);
-                out.flush();
+            String roomId = RoomRegistry.roomId(request.getQueryParameter("room"));
+            if (roomId == null) {
+                responseBuilder.buildErrorResponse(400, "无效的房间ID").writeTo(sink);
                 return;
             }
-            
+            // 检查并占用用户名为同一个原子操作，同一房间内已存在时拒绝；
+            // 房间恰好因空闲被移除时重新获取（会创建新的房间）
             String userId = UUID.randomUUID().toString();
             ChatUser user = new ChatUser(userId, username);
-            ChatServer.addUser(user);
+            ChatRoom.JoinResult result;
+            do {
+                ChatRoom room = ChatServer.getRooms().open(roomId);
+                if (room == null) {
+                    responseBuilder.buildErrorResponse(503, "房间数量已达上限").writeTo(sink);
+                    return;
+                }
+                result = room.addUser(user);
+            } while (result == ChatRoom.JoinResult.ROOM_CLOSED);
+            if (result == ChatRoom.JoinResult.NAME_TAKEN) {
+                responseBuilder.buildErrorResponse(409, "用户名已存在，请选择其他用户名").writeTo(sink);
+                return;
+            }
             
             String jsonResponse = "{\"success\": true, \"userId\": \"" + userId + "\"}";
-            String response = responseBuilder.buildJsonResponse(jsonResponse);
-            out.print(response);
-            out.flush();
+            responseBuilder.buildJsonResponse(jsonResponse).writeTo(sink);
             
         } catch (Exception e) {
-            System.err.println("处理加入请求失败：" + e.getMessage());
-            String response = responseBuilder.buildErrorResponse(500, "加入聊天室失败");
-            out.print(response);
-            out.flush();
+            LOG.warn("处理加入请求失败：{}", e.getMessage());
+            responseBuilder.buildErrorResponse(500, "加入聊天室失败").writeTo(sink);
         }
     }
     
-    private void handleSendMessage(Request request, PrintWriter out, HttpResponseBuilder responseBuilder) {
+    private void handleSendMessage(ChatRoom room, Request request, ResponseSink sink, HttpResponseBuilder responseBuilder) throws IOException {
         try {
             ChatMessage message = objectMapper.readValue(request.getMessage(), ChatMessage.class);
             
-            // 验证用户是否存在
-            if (!ChatServer.isUserExists(message.getUserId())) {
-                String response = responseBuilder.buildErrorResponse(401, "用户不存在或已离线");
-                out.print(response);
-                out.flush();
+            // 验证用户是否在房间内，同时刷新其活动时间
+            if (!room.touchUser(message.getUserId())) {
+                responseBuilder.buildErrorResponse(401, "用户不存在或已离线").writeTo(sink);
                 return;
             }
             
             message.setTimestamp(System.currentTimeMillis());
             message.setType("user");
             
-            ChatServer.broadcastMessage(message);
+            room.broadcastMessage(message);
             
             String jsonResponse = "{\"success\": true}";
-            String response = responseBuilder.buildJsonResponse(jsonResponse);
-            out.print(response);
-            out.flush();
+            responseBuilder.buildJsonResponse(jsonResponse).writeTo(sink);
         } catch (Exception e) {
-            System.err.println("处理发送消息失败：" + e.getMessage());
-            String response = responseBuilder.buildErrorResponse(500, "发送消息失败");
-            out.print(response);
-            out.flush();
+            LOG.warn("处理发送消息失败：{}", e.getMessage());
+            responseBuilder.buildErrorResponse(500, "发送消息失败").writeTo(sink);
         }
     }
     
-    private void handleLeaveRequest(Request request, PrintWriter out, HttpResponseBuilder responseBuilder) {
+    private void handleLeaveRequest(ChatRoom room, Request request, ResponseSink sink, HttpResponseBuilder responseBuilder) throws IOException {
         try {
             String userIdJson = request.getMessage();
             String userId = extractUserIdFromRequest(userIdJson);
             if (userId != null) {
-                ChatServer.removeUser(userId);
+                room.removeUser(userId);
                 String jsonResponse = "{\"success\": true}";
-                String response = responseBuilder.buildJsonResponse(jsonResponse);
-                out.print(response);
-                out.flush();
+                responseBuilder.buildJsonResponse(jsonResponse).writeTo(sink);
+            } else {
+                responseBuilder.buildErrorResponse(400, "无效的用户ID").writeTo(sink);
+            }
+        } catch (Exception e) {
+            responseBuilder.buildErrorResponse(500, "离开聊天室失败").writeTo(sink);
+        }
+    }
+    
+    /**
+     * 长轮询：登记回调后立即释放处理线程，有新消息或超时时再写出响应（NIO交给事件循环，BIO交给处理线程）。
+     * BIO模式下连接不能交还给处理线程继续读取，因此该响应以Connection: close结束
+     */
+    private void handleWaitMessages(ChatRoom room, Request request, ResponseSink sink, HttpResponseBuilder responseBuilder) throws IOException {
+        long since = parseSince(request);
+        long timeout = parseTimeout(request);
+        if (connection == null) {
+            keepAlive = false;
+        }
+        asyncResponse = true;
+        Consumer<byte[]> callback = json -> {
+            if (connection != null) {
+                // NIO的写出由连接所属的事件循环完成，不阻塞回调线程
+                completeWait(json, sink);
             } else {
-                String response = responseBuilder.buildErrorResponse(400, "无效的用户ID");
-                out.print(response);
-                out.flush();
+                // BIO的写出和关闭会阻塞，交给处理线程，避免发送者或时间轮线程被慢速客户端拖住
+                ChatServer.executeDeferred(() -> completeWait(json, sink), AdmissionController.Priority.HIGH);
+            }
+        };
+        // 房间恰好因空闲被移除时重新获取（会创建新的房间），否则等待者会挂在已移除的房间上
+        while (!room.awaitMessages(since, timeout, callback)) {
+            room = ChatServer.getRooms().open(room.getId());
+            if (room == null) {
+                asyncResponse = false;
+                responseBuilder.buildErrorResponse(503, "房间数量已达上限").writeTo(sink);
+                return;
+            }
+        }
+    }
+
+    private void completeWait(byte[] json, ResponseSink sink) {
+        HttpResponseBuilder responseBuilder = acquireResponseBuilder();
+        try {
+            responseBuilder.buildJsonResponse(json).writeTo(sink);
+        } catch (IOException e) {
+            LOG.warn("写出长轮询响应失败：{}", e.getMessage());
+            if (connection != null) {
+                connection.abort();
+            }
+        } finally {
+            poolManager.releaseHttpResponseBuilder(responseBuilder);
+            if (connection == null) {
+                closeQuietly(socket);
+            }
+        }
+    }
+    
+    /**
+     * 事件流：写出不带Content-Length的响应头后，连接交给EventStreamHub持续推送事件。
+     * 浏览器自动重连时携带Last-Event-ID，从该序号之后补发消息
+     */
+    private void handleEventStream(ChatRoom room, Request request) throws IOException {
+        long since = parseSince(request);
+        String lastEventId = HttpMessageParser.getHeader(request, HttpHeaders.LAST_EVENT_ID);
+        if (lastEventId != null) {
+            try {
+                since = Math.max(0, Long.parseLong(lastEventId.trim()));
+            } catch (NumberFormatException e) {
+                // 忽略无效的Last-Event-ID
+            }
+        }
+        
+        EventStream stream = connection != null
+                ? connection.openEventStream(ServerConfig.SSE_QUEUE_CAPACITY)
+                : new SocketEventStream(socket, ServerConfig.SSE_QUEUE_CAPACITY);
+        asyncResponse = true;
+        keepAlive = false;
+        HttpResponseBuilder responseBuilder = poolManager.getHttpResponseBuilder();
+        try {
+            responseBuilder.setContentType(HttpResponseBuilder.CONTENT_TYPE_EVENT_STREAM)
+                           .addHeader("Cache-Control", "no-cache")
+                           .addHeader("Access-Control-Allow-Origin", "*")
+                           .setStreaming(true)
+                           .writeTo(stream);
+        } catch (IOException e) {
+            asyncResponse = false;
+            throw e;
+        } finally {
+            poolManager.releaseHttpResponseBuilder(responseBuilder);
+        }
+        // 房间恰好因空闲被移除时重新获取（会创建新的房间），否则该连接再也收不到消息
+        while (!room.subscribeEvents(stream, since)) {
+            room = ChatServer.getRooms().open(room.getId());
+            if (room == null) {
+                stream.closeAfterFlush();
+                return;
             }
+        }
+    }
+    
+    /**
+     * WebSocket握手（RFC 6455）：校验升级请求后返回101，连接交给EventStreamHub推送事件，
+     * 客户端发送的聊天消息在同一连接上接收。需先通过/api/join加入，userId放在查询参数中
+     */
+    private void handleWebSocketUpgrade(ChatRoom room, Request request, ResponseSink sink, HttpResponseBuilder responseBuilder) throws IOException {
+        String upgrade = HttpMessageParser.getHeader(request, HttpHeaders.UPGRADE);
+        String connectionHeader = HttpMessageParser.getHeader(request, HttpHeaders.CONNECTION);
+        String key = HttpMessageParser.getHeader(request, HttpHeaders.SEC_WEBSOCKET_KEY);
+        if (!"websocket".equalsIgnoreCase(upgrade) || connectionHeader == null
+                || !connectionHeader.toLowerCase(Locale.ROOT).contains("upgrade") || key == null) {
+            responseBuilder.buildErrorResponse(400, "需要WebSocket升级请求").writeTo(sink);
+            return;
+        }
+        if (!"13".equals(HttpMessageParser.getHeader(request, HttpHeaders.SEC_WEBSOCKET_VERSION))) {
+            responseBuilder.addHeader("Sec-WebSocket-Version", "13")
+                           .buildErrorResponse(426, "不支持的WebSocket版本").writeTo(sink);
+            return;
+        }
+        String userId = request.getQueryParameter("userId");
+        if (!room.isUserExists(userId)) {
+            responseBuilder.buildErrorResponse(401, "用户不存在或已离线").writeTo(sink);
+            return;
+        }
+        
+        WebSocketSession session = new WebSocketSession(room, userId, ServerConfig.WS_MAX_MESSAGE_SIZE);
+        EventStream stream = connection != null
+                ? connection.openWebSocket(ServerConfig.SSE_QUEUE_CAPACITY, session)
+                : new SocketEventStream(socket, ServerConfig.SSE_QUEUE_CAPACITY, session, takeReadAhead());
+        asyncResponse = true;
+        keepAlive = false;
+        HttpResponseBuilder handshake = poolManager.getHttpResponseBuilder();
+        try {
+            handshake.setStatus(101)
+                     .addHeader("Connection", "Upgrade")
+                     .addHeader("Upgrade", "websocket")
+                     .addHeader("Sec-WebSocket-Accept", WebSocketFrames.acceptKey(key))
+                     .setStreaming(true)
+                     .writeTo(stream);
+        } catch (IOException e) {
+            asyncResponse = false;
+            throw e;
+        } finally {
+            poolManager.releaseHttpResponseBuilder(handshake);
+        }
+        // 会话绑定在该房间上；房间已被移除说明用户已不在其中，按离线关闭
+        if (!room.subscribeEvents(stream, parseSince(request))) {
+            session.close(WebSocketFrames.CLOSE_POLICY_VIOLATION, "用户不存在或已离线");
+        }
+    }
+    
+    /**
+     * 取出BIO读缓冲区中升级请求之后已读入的字节，即客户端紧随握手发出的帧
+     */
+    private byte[] takeReadAhead() {
+        byte[] bytes = new byte[readAhead.remaining()];
+        readAhead.get(bytes);
+        return bytes;
+    }
+    
+    /**
+     * 按room查询参数查找房间（未指定时为默认房间），并刷新携带userId的用户的活动时间；
+     * 房间ID不合法或房间不存在时写出错误响应并返回null
+     */
+    private ChatRoom requireRoom(Request request, HttpResponseBuilder responseBuilder, ResponseSink sink) throws IOException {
+        String roomId = RoomRegistry.roomId(request.getQueryParameter("room"));
+        if (roomId == null) {
+            responseBuilder.buildErrorResponse(400, "无效的房间ID").writeTo(sink);
+            return null;
+        }
+        ChatRoom room = ChatServer.getRooms().find(roomId);
+        if (room == null) {
+            responseBuilder.buildErrorResponse(404, "房间不存在").writeTo(sink);
+            return null;
+        }
+        // 空闲用户由房间的空闲检查移出
+        room.touchUser(request.getQueryParameter("userId"));
+        return room;
+    }
+    
+    private static long parseTimeout(Request request) {
+        String timeout = request.getQueryParameter("timeout");
+        if (timeout == null) return ServerConfig.LONG_POLL_TIMEOUT_MS;
+        try {
+            return Math.max(0, Math.min(Long.parseLong(timeout), ServerConfig.LONG_POLL_MAX_TIMEOUT_MS));
+        } catch (NumberFormatException e) {
+            return ServerConfig.LONG_POLL_TIMEOUT_MS;
+        }
+    }
+    
+    /**
+     * 历史分页查询：before=序号 返回该序号之前的最近limit条，
+     * from/to=毫秒时间戳 返回该时间范围内的最早limit条；limit默认50，不超过500
+     */
+    private void handleHistoryQuery(ChatRoom room, Request request, HttpResponseBuilder responseBuilder, ResponseSink sink) throws IOException {
+        long before;
+        long from;
+        long to;
+        int limit;
+        try {
+            before = longParameter(request, "before", Long.MAX_VALUE);
+            from = longParameter(request, "from", 0);
+            to = longParameter(request, "to", Long.MAX_VALUE);
+            limit = (int) longParameter(request, "limit", ServerConfig.HISTORY_PAGE_SIZE);
+        } catch (NumberFormatException e) {
+            responseBuilder.buildErrorResponse(400, "无效的查询参数").writeTo(sink);
+            return;
+        }
+        if (before <= 0 || from < 0 || to < from || limit <= 0) {
+            responseBuilder.buildErrorResponse(400, "无效的查询参数").writeTo(sink);
+            return;
+        }
+        limit = Math.min(limit, ServerConfig.HISTORY_MAX_PAGE_SIZE);
+        try {
+            List<ChatMessage> messages = request.getQueryParameter("before") != null
+                    ? room.getMessagesBefore(before, limit)
+                    : room.getMessagesBetween(from, to, limit);
+            responseBuilder.buildJsonResponse(objectMapper.writeValueAsBytes(messages)).writeTo(sink);
         } catch (Exception e) {
-            String response = responseBuilder.buildErrorResponse(500, "离开聊天室失败");
-            out.print(response);
-            out.flush();
+            LOG.warn("查询消息历史失败：{}", e.getMessage());
+            sendErrorResponse(sink, 500, "获取消息历史失败");
+        }
+    }
+    
+    private static long longParameter(Request request, String name, long defaultValue) {
+        String value = request.getQueryParameter(name);
+        return value != null ? Long.parseLong(value.trim()) : defaultValue;
+    }
+    
+    private static long parseSince(Request request) {
+        String since = request.getQueryParameter("since");
+        if (since == null) return 0;
+        try {
+            return Math.max(0, Long.parseLong(since));
+        } catch (NumberFormatException e) {
+            return 0;
         }
     }
     
@@ -210,7 +643,7 @@ public class ChatHandler implements Runnable {
                 }
             }
         } catch (Exception e) {
-            System.err.println("解析用户名失败：" + e.getMessage());
+            LOG.warn("解析用户名失败：{}", e.getMessage());
         }
         return null;
     }
@@ -228,23 +661,65 @@ public class ChatHandler implements Runnable {
                 }
             }
         } catch (Exception e) {
-            System.err.println("解析用户ID失败：" + e.getMessage());
+            LOG.warn("解析用户ID失败：{}", e.getMessage());
         }
         return null;
     }
     
-    private void sendErrorResponse(PrintWriter out, int statusCode, String message) {
-        HttpResponseBuilder responseBuilder = poolManager.getHttpResponseBuilder();
+    /**
+     * 加载静态资源，使其在启动时而不是第一个请求中完成编码和压缩
+     */
+    static void preloadStaticAssets() {
+        chatPage = loadChatPage();
+    }
+    
+    /**
+     * 未经启动流程预加载时（如直接构造处理器）在第一次使用时加载，并发加载的结果相同
+     */
+    private static StaticAsset chatPage() {
+        StaticAsset page = chatPage;
+        if (page == null) {
+            page = loadChatPage();
+            chatPage = page;
+        }
+        return page;
+    }
+    
+    private static StaticAsset loadChatPage() {
+        return StaticAsset.load("static/index.html", HttpResponseBuilder.CONTENT_TYPE_HTML, ChatHandler::getChatRoomHtml);
+    }
+    
+    /**
+     * 输出静态资源：ETag与将要发送的编码版本匹配时返回304，客户端接受gzip时直接发送预压缩的字节
+     */
+    private static void writeStaticAsset(StaticAsset asset, Request request, HttpResponseBuilder responseBuilder,
+                                         ResponseSink sink) throws IOException {
+        responseBuilder.setContentType(asset.getContentType())
+                       .addHeader("Cache-Control", ServerConfig.STATIC_CACHE_CONTROL);
+        boolean gzip = asset.acceptsGzip(HttpMessageParser.getHeader(request, HttpHeaders.ACCEPT_ENCODING));
+        if (asset.getGzip() != null) {
+            responseBuilder.addHeader("Vary", "Accept-Encoding");
+        }
+        responseBuilder.addHeader("ETag", gzip ? asset.getGzipEtag() : asset.getEtag());
+        if (asset.isNotModified(HttpMessageParser.getHeader(request, HttpHeaders.IF_NONE_MATCH), gzip)) {
+            responseBuilder.setStatus(304).writeTo(sink);
+        } else if (gzip) {
+            responseBuilder.addHeader("Content-Encoding", "gzip").setBody(asset.getGzip()).writeTo(sink);
+        } else {
+            responseBuilder.setBody(asset.getIdentity()).writeTo(sink);
+        }
+    }
+    
+    private void sendErrorResponse(ResponseSink sink, int statusCode, String message) throws IOException {
+        HttpResponseBuilder responseBuilder = acquireResponseBuilder();
         try {
-            String response = responseBuilder.buildErrorResponse(statusCode, message);
-            out.print(response);
-            out.flush();
+            responseBuilder.buildErrorResponse(statusCode, message).writeTo(sink);
         } finally {
             poolManager.releaseHttpResponseBuilder(responseBuilder);
         }
     }
     
-    private String getChatRoomHtml() {
+    private static String getChatRoomHtml() {
         return "<!DOCTYPE html>\n" +
                "<html lang=\"zh-CN\">\n" +
                "<head>\n" +
@@ -282,7 +757,7 @@ public class ChatHandler implements Runnable {
                "    <div class=\"container\">\n" +
                "        <div class=\"header\">\n" +
                "            <div class=\"performance-badge\">内存池优化</div>\n" +
-               "            <h1>本地聊天室</h1>\n" +
+               "            <h1 id=\"roomTitle\">本地聊天室</h1>\n" +
                "            <div class=\"user-count\" id=\"userCount\">在线用户: 0</div>\n" +
                "            <button class=\"users-toggle\" onclick=\"toggleUsers()\">在线用户</button>\n" +
                "        </div>\n" +
@@ -319,6 +794,20 @@ public class ChatHandler implements Runnable {
                "        let currentUser = null;\n" +
                "        let userId = null;\n" +
                "        let pollingInterval = null;\n" +
+               "        let lastSeq = 0;\n" +
+               "        // 每次加入聊天室递增，旧的长轮询循环发现代数变化后退出\n" +
+               "        let pollGeneration = 0;\n" +
+               "        let eventSource = null;\n" +
+               "        let webSocket = null;\n" +
+               "        // 房间由页面地址的room参数指定，未指定时进入默认房间\n" +
+               "        const roomId = new URLSearchParams(location.search).get('room') || '';\n" +
+               "\n" +
+               "        function withRoom(url) {\n" +
+               "            if (!roomId) return url;\n" +
+               "            return url + (url.includes('?') ? '&' : '?') + 'room=' + encodeURIComponent(roomId);\n" +
+               "        }\n" +
+               "\n" +
+               "        if (roomId) document.getElementById('roomTitle').textContent = '本地聊天室 - ' + roomId;\n" +
                "\n" +
                "        function showError(message) {\n" +
                "            const errorDiv = document.getElementById('errorMessage');\n" +
@@ -344,7 +833,7 @@ public class ChatHandler implements Runnable {
                "            joinButton.disabled = true;\n" +
                "            joinButton.textContent = '加入中...';\n" +
                "\n" +
-               "            fetch('/api/join', {\n" +
+               "            fetch(withRoom('/api/join'), {\n" +
                "                method: 'POST',\n" +
                "                headers: { 'Content-Type': 'application/json' },\n" +
                "                body: JSON.stringify({ username: username })\n" +
@@ -361,7 +850,6 @@ public class ChatHandler implements Runnable {
                "                    document.getElementById('sendButton').disabled = false;\n" +
                "                    document.getElementById('leaveButton').disabled = false;\n" +
                "                    \n" +
-               "                    loadMessages();\n" +
                "                    startPolling();\n" +
                "                } else if (data.error) {\n" +
                "                    showError(data.error);\n" +
@@ -381,7 +869,7 @@ public class ChatHandler implements Runnable {
                "\n" +
                "        function leaveChat() {\n" +
                "            if (userId) {\n" +
-               "                fetch('/api/leave', {\n" +
+               "                fetch(withRoom('/api/leave'), {\n" +
                "                    method: 'POST',\n" +
                "                    headers: { 'Content-Type': 'application/json' },\n" +
                "                    body: JSON.stringify({ userId: userId })\n" +
@@ -392,6 +880,15 @@ public class ChatHandler implements Runnable {
                "            // 重置状态\n" +
                "            currentUser = null;\n" +
                "            userId = null;\n" +
+               "            pollGeneration++;\n" +
+               "            if (eventSource) {\n" +
+               "                eventSource.close();\n" +
+               "                eventSource = null;\n" +
+               "            }\n" +
+               "            if (webSocket) {\n" +
+               "                webSocket.close();\n" +
+               "                webSocket = null;\n" +
+               "            }\n" +
                "            if (pollingInterval) {\n" +
                "                clearInterval(pollingInterval);\n" +
                "                pollingInterval = null;\n" +
@@ -414,13 +911,20 @@ public class ChatHandler implements Runnable {
                "            const message = input.value.trim();\n" +
                "            if (!message || !userId) return;\n" +
                "\n" +
+               "            // 已建立WebSocket时直接在该连接上发送\n" +
+               "            if (webSocket && webSocket.readyState === WebSocket.OPEN) {\n" +
+               "                webSocket.send(JSON.stringify({ type: 'send', content: message }));\n" +
+               "                input.value = '';\n" +
+               "                return;\n" +
+               "            }\n" +
+               "\n" +
                "            const messageData = {\n" +
                "                username: currentUser,\n" +
                "                content: message,\n" +
                "                userId: userId\n" +
                "            };\n" +
                "\n" +
-               "            fetch('/api/send', {\n" +
+               "            fetch(withRoom('/api/send'), {\n" +
                "                method: 'POST',\n" +
                "                headers: { 'Content-Type': 'application/json' },\n" +
                "                body: JSON.stringify(messageData)\n" +
@@ -444,20 +948,17 @@ public class ChatHandler implements Runnable {
                "            });\n" +
                "        }\n" +
                "\n" +
-               "        function loadMessages() {\n" +
-               "            fetch('/api/messages')\n" +
-               "            .then(response => response.json())\n" +
-               "            .then(messages => {\n" +
-               "                displayMessages(messages);\n" +
-               "            })\n" +
-               "            .catch(error => console.error('Error loading messages:', error));\n" +
-               "        }\n" +
-               "\n" +
                "        function displayMessages(messages) {\n" +
                "            const messagesDiv = document.getElementById('messages');\n" +
-               "            messagesDiv.innerHTML = '';\n" +
+               "            // 服务器重启后序号会重新开始，此时重新渲染全部消息\n" +
+               "            if (messages[0].seq <= lastSeq) {\n" +
+               "                messagesDiv.innerHTML = '';\n" +
+               "            }\n" +
                "\n" +
+               "            let usersChanged = false;\n" +
                "            messages.forEach(message => {\n" +
+               "                lastSeq = message.seq;\n" +
+               "                if (message.type === 'system') usersChanged = true;\n" +
                "                const messageDiv = document.createElement('div');\n" +
                "                messageDiv.className = 'message ' + message.type;\n" +
                "\n" +
@@ -475,6 +976,8 @@ public class ChatHandler implements Runnable {
                "            });\n" +
                "\n" +
                "            messagesDiv.scrollTop = messagesDiv.scrollHeight;\n" +
+               "            // 有人加入或离开时刷新在线用户\n" +
+               "            if (usersChanged && !eventSource && !webSocket) loadOnlineUsers();\n" +
                "        }\n" +
                "\n" +
                "        function escapeHtml(text) {\n" +
@@ -484,26 +987,87 @@ public class ChatHandler implements Runnable {
                "        }\n" +
                "\n" +
                "        function startPolling() {\n" +
+               "            if (window.WebSocket) {\n" +
+               "                openWebSocket(++pollGeneration);\n" +
+               "                return;\n" +
+               "            }\n" +
+               "            if (window.EventSource) {\n" +
+               "                openEventStream();\n" +
+               "                // 事件流上没有客户端请求，定期带userId刷新一次在线状态，避免被当作空闲用户移出\n" +
+               "                if (pollingInterval) clearInterval(pollingInterval);\n" +
+               "                pollingInterval = setInterval(loadOnlineUsers, 60000);\n" +
+               "                return;\n" +
+               "            }\n" +
                "            if (pollingInterval) clearInterval(pollingInterval);\n" +
-               "            pollingInterval = setInterval(() => {\n" +
-               "                loadMessages();\n" +
-               "                loadOnlineUsers();\n" +
-               "            }, 2000);\n" +
+               "            waitForMessages(++pollGeneration);\n" +
+               "            loadOnlineUsers();\n" +
+               "            // 在线用户变化随系统消息推送，这里只做低频兜底刷新\n" +
+               "            pollingInterval = setInterval(loadOnlineUsers, 30000);\n" +
                "        }\n" +
                "\n" +
-               "        function loadOnlineUsers() {\n" +
-               "            fetch('/api/users')\n" +
+               "        // 长轮询：服务器在有新消息或超时后才返回，返回后立即发起下一轮\n" +
+               "        function waitForMessages(generation) {\n" +
+               "            if (generation !== pollGeneration) return;\n" +
+               "            fetch(withRoom('/api/messages/wait?since=' + lastSeq + '&userId=' + encodeURIComponent(userId)))\n" +
                "            .then(response => response.json())\n" +
-               "            .then(users => {\n" +
-               "                const usersList = document.getElementById('usersList');\n" +
-               "                const userCount = document.getElementById('userCount');\n" +
-               "                \n" +
-               "                usersList.innerHTML = users.map(user => `<div>${escapeHtml(user)}</div>`).join('');\n" +
-               "                userCount.textContent = `在线用户: ${users.length}`;\n" +
+               "            .then(messages => {\n" +
+               "                if (!Array.isArray(messages)) throw new Error(messages.error || '长轮询失败');\n" +
+               "                if (generation === pollGeneration && messages.length > 0) displayMessages(messages);\n" +
+               "                waitForMessages(generation);\n" +
                "            })\n" +
+               "            .catch(error => {\n" +
+               "                console.error('Error waiting for messages:', error);\n" +
+               "                setTimeout(() => waitForMessages(generation), 2000);\n" +
+               "            });\n" +
+               "        }\n" +
+               "\n" +
+               "        // 服务器推送：一个连接同时接收新消息和在线用户变化，断线后浏览器携带Last-Event-ID自动重连\n" +
+               "        function openEventStream() {\n" +
+               "            if (eventSource) eventSource.close();\n" +
+               "            eventSource = new EventSource(withRoom('/api/stream?since=' + lastSeq + '&userId=' + encodeURIComponent(userId)));\n" +
+               "            eventSource.addEventListener('message', event => displayMessages([JSON.parse(event.data)]));\n" +
+               "            eventSource.addEventListener('users', event => renderUsers(JSON.parse(event.data)));\n" +
+               "        }\n" +
+               "\n" +
+               "        // WebSocket：同一连接上接收推送并发送消息，意外断开后从lastSeq继续\n" +
+               "        function openWebSocket(generation) {\n" +
+               "            if (generation !== pollGeneration || !userId) return;\n" +
+               "            const protocol = location.protocol === 'https:' ? 'wss://' : 'ws://';\n" +
+               "            const socket = new WebSocket(protocol + location.host + withRoom('/api/ws?userId=' +\n" +
+               "                encodeURIComponent(userId) + '&since=' + lastSeq));\n" +
+               "            webSocket = socket;\n" +
+               "            socket.onmessage = event => {\n" +
+               "                const payload = JSON.parse(event.data);\n" +
+               "                if (payload.event === 'message') displayMessages([payload.data]);\n" +
+               "                else if (payload.event === 'users') renderUsers(payload.data);\n" +
+               "            };\n" +
+               "            socket.onclose = event => {\n" +
+               "                if (webSocket !== socket) return;\n" +
+               "                webSocket = null;\n" +
+               "                if (event.code === 1008) {\n" +
+               "                    alert('您已离线，请重新加入聊天室');\n" +
+               "                    leaveChat();\n" +
+               "                    return;\n" +
+               "                }\n" +
+               "                setTimeout(() => openWebSocket(generation), 2000);\n" +
+               "            };\n" +
+               "        }\n" +
+               "\n" +
+               "        function loadOnlineUsers() {\n" +
+               "            fetch(withRoom('/api/users?userId=' + encodeURIComponent(userId || '')))\n" +
+               "            .then(response => response.json())\n" +
+               "            .then(renderUsers)\n" +
                "            .catch(error => console.error('Error loading users:', error));\n" +
                "        }\n" +
                "\n" +
+               "        function renderUsers(users) {\n" +
+               "            const usersList = document.getElementById('usersList');\n" +
+               "            const userCount = document.getElementById('userCount');\n" +
+               "            \n" +
+               "            usersList.innerHTML = users.map(user => `<div>${escapeHtml(user)}</div>`).join('');\n" +
+               "            userCount.textContent = `在线用户: ${users.length}`;\n" +
+               "        }\n" +
+               "\n" +
                "        function toggleUsers() {\n" +
                "            const usersDiv = document.getElementById('onlineUsers');\n" +
                "            usersDiv.classList.toggle('hidden');\n" +
@@ -524,7 +1088,7 @@ public class ChatHandler implements Runnable {
                "        // 页面关闭时自动离开聊天室\n" +
                "        window.addEventListener('beforeunload', function() {\n" +
                "            if (userId) {\n" +
-               "                navigator.sendBeacon('/api/leave', JSON.stringify({ userId: userId }));\n" +
+               "                navigator.sendBeacon(withRoom('/api/leave'), JSON.stringify({ userId: userId }));\n" +
                "            }\n" +
                "        });\n" +
                "    </script>\n" +
@@ -0,0 +1,333 @@
+package httpserver;
+
+import httpserver.model.ChatMessage;
+import httpserver.model.ChatUser;
+import httpserver.log.Logger;
+import httpserver.metrics.ServerMetrics;
+import httpserver.pool.PoolManager;
+import httpserver.pool.PooledStringBuilder;
+import httpserver.store.MessageJournal;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * 一个聊天室的全部状态：在线用户、用户名索引、消息历史（独立的序号）、消息日志、长轮询等待者和事件流订阅者
+ * 房间之间不共享任何可变结构，不同房间的加入、发言和推送互不竞争
+ */
+public class ChatRoom {
+    private static final Logger LOG = Logger.getLogger(ChatRoom.class);
+
+    /** 加入房间的结果 */
+    public enum JoinResult { JOINED, NAME_TAKEN, ROOM_CLOSED }
+
+    private final String id;
+    // 房间内的在线用户
+    private final Map<String, ChatUser> connectedUsers = new ConcurrentHashMap<>();
+    // 用户名索引：大小写折叠后的用户名 -> 用户ID，与connectedUsers同步维护，保证房间内用户名唯一
+    private final Map<String, String> usernameIndex = new ConcurrentHashMap<>();
+    // 消息历史，每条消息分配一个房间内单调递增的序号
+    private final MessageRingBuffer messageHistory = new MessageRingBuffer(ServerConfig.HISTORY_CAPACITY);
+    // 消息日志，未启用或打开失败时为null
+    private final MessageJournal messageJournal;
+    private final TimingWheel timingWheel;
+    // 每个在线用户的空闲检查
+    private final Map<String, TimingWheel.Timeout> idleChecks = new ConcurrentHashMap<>();
+    private final LongPollRegistry longPollRegistry;
+    private final EventStreamHub eventStreamHub;
+    private final PoolManager poolManager = PoolManager.getInstance();
+    // 房间已被登记表移除，之后的加入、长轮询和事件流登记都被拒绝，由调用方重新获取房间
+    private volatile boolean closed;
+    // 是否有过用户发言，没有时移除房间会一并删除其日志
+    private volatile boolean hasUserMessages;
+    // 开始空闲的时刻，0表示未空闲；只由登记表的维护线程访问
+    private long idleSince;
+
+    ChatRoom(String id, MessageJournal messageJournal, TimingWheel timingWheel) {
+        this.id = id;
+        this.messageJournal = messageJournal;
+        this.timingWheel = timingWheel;
+        this.longPollRegistry = new LongPollRegistry(this::getMessagesSince, timingWheel, () -> closed);
+        this.eventStreamHub = new EventStreamHub(this::getMessagesSince, this::getOnlineUsers, () -> closed);
+    }
+
+    /**
+     * 从消息日志恢复最近的历史，之后的序号延续；必须在房间对外可见之前调用
+     */
+    void recover() throws IOException {
+        if (messageJournal != null) {
+            List<ChatMessage> recovered = messageJournal.recover(messageHistory.getCapacity());
+            messageHistory.restore(recovered, messageJournal.getLastSequence());
+            // 恢复窗口之外还有更早的消息时按有过发言处理
+            hasUserMessages = messageJournal.getLastSequence() > recovered.size()
+                || recovered.stream().anyMatch(message -> !"system".equals(message.getType()));
+        }
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public int getOnlineUserCount() {
+        return connectedUsers.size();
+    }
+
+    /**
+     * 用户名的索引键：大小写折叠，使"Alice"与"ALICE"视为同一用户名
+     */
+    private static String usernameKey(String username) {
+        return username.toUpperCase(Locale.ROOT).toLowerCase(Locale.ROOT);
+    }
+
+    // 检查用户是否在房间内
+    public boolean isUserExists(String userId) {
+        return userId != null && connectedUsers.containsKey(userId);
+    }
+
+    // 按ID获取房间内的在线用户，不存在时返回null
+    public ChatUser getUser(String userId) {
+        return userId != null ? connectedUsers.get(userId) : null;
+    }
+
+    /**
+     * 添加用户到房间：先在索引中原子地占用用户名，已被占用时返回NAME_TAKEN
+     * 同名的并发加入只有一个成功，检查与占用均为O(1)；房间已被移除时撤销并返回ROOM_CLOSED
+     */
+    public JoinResult addUser(ChatUser user) {
+        String key = usernameKey(user.getUsername());
+        if (usernameIndex.putIfAbsent(key, user.getUserId()) != null) {
+            return JoinResult.NAME_TAKEN;
+        }
+        connectedUsers.put(user.getUserId(), user);
+        // 先登记用户再检查关闭标记，与tryClose的顺序相反，两者并发时至少一方能看到对方
+        if (closed) {
+            connectedUsers.remove(user.getUserId());
+            usernameIndex.remove(key, user.getUserId());
+            return JoinResult.ROOM_CLOSED;
+        }
+        scheduleIdleCheck(user);
+        LOG.info("用户 {} 加入房间 {}，当前在线用户数：{}", user.getUsername(), id, connectedUsers.size());
+
+        // 使用内存池构建系统消息
+        PooledStringBuilder messageBuilder = poolManager.getStringBuilder();
+        try {
+            String content = messageBuilder.append(user.getUsername())
+                                         .append(" 加入了聊天室")
+                                         .toString();
+
+            ChatMessage joinMessage = new ChatMessage();
+            joinMessage.setType("system");
+            joinMessage.setContent(content);
+            joinMessage.setTimestamp(System.currentTimeMillis());
+
+            broadcastMessage(joinMessage);
+            eventStreamHub.publishUsers();
+        } finally {
+            poolManager.releaseStringBuilder(messageBuilder);
+        }
+        return JoinResult.JOINED;
+    }
+
+    // 移除用户
+    public void removeUser(String userId) {
+        ChatUser user = userId != null ? connectedUsers.remove(userId) : null;
+        if (user != null) {
+            usernameIndex.remove(usernameKey(user.getUsername()), userId);
+            TimingWheel.Timeout idleCheck = idleChecks.remove(userId);
+            if (idleCheck != null) {
+                idleCheck.cancel();
+            }
+            LOG.info("用户 {} 离开房间 {}，当前在线用户数：{}", user.getUsername(), id, connectedUsers.size());
+
+            // 使用内存池构建系统消息
+            PooledStringBuilder messageBuilder = poolManager.getStringBuilder();
+            try {
+                String content = messageBuilder.append(user.getUsername())
+                                             .append(" 离开了聊天室")
+                                             .toString();
+
+                ChatMessage leaveMessage = new ChatMessage();
+                leaveMessage.setType("system");
+                leaveMessage.setContent(content);
+                leaveMessage.setTimestamp(System.currentTimeMillis());
+
+                broadcastMessage(leaveMessage);
+                eventStreamHub.publishUsers();
+            } finally {
+                poolManager.releaseStringBuilder(messageBuilder);
+            }
+        }
+    }
+
+    /**
+     * 刷新在线用户的最后活动时间，只是一次查找和一次写入；用户不在房间内时返回false
+     */
+    public boolean touchUser(String userId) {
+        ChatUser user = getUser(userId);
+        if (user == null) return false;
+        user.updateActivity();
+        return true;
+    }
+
+    /**
+     * 在最后活动时间加空闲超时处登记检查。刷新活动时不重新登记，
+     * 检查到期时若期间有过活动则按新的活动时间顺延，每个用户每个超时周期最多登记一次
+     */
+    private void scheduleIdleCheck(ChatUser user) {
+        long delay = user.getLastActivity() + ServerConfig.SESSION_IDLE_TIMEOUT_MS - System.currentTimeMillis();
+        idleChecks.put(user.getUserId(),
+            timingWheel.schedule(() -> checkIdle(user), delay, TimeUnit.MILLISECONDS));
+    }
+
+    private void checkIdle(ChatUser user) {
+        if (connectedUsers.get(user.getUserId()) != user) {
+            idleChecks.remove(user.getUserId());
+            return;
+        }
+        long idle = System.currentTimeMillis() - user.getLastActivity();
+        if (idle >= ServerConfig.SESSION_IDLE_TIMEOUT_MS) {
+            // 页面崩溃等未发送离开请求的用户，按正常离开处理并广播；
+            // 广播涉及写日志、序列化和唤醒等待者，交给处理线程执行，时间轮线程只做判断
+            LOG.info("用户 {} 空闲 {} 秒，已移出房间 {}", user.getUsername(), idle / 1000, id);
+            ChatServer.executeDeferred(() -> removeUser(user.getUserId()), AdmissionController.Priority.HIGH);
+        } else {
+            scheduleIdleCheck(user);
+        }
+    }
+
+    // 广播消息给房间内所有用户
+    public void broadcastMessage(ChatMessage message) {
+        // 写入环形缓冲区并分配序号，超出容量时自动覆盖最旧的消息；启用日志时按序号顺序追加到日志
+        if (messageJournal != null) {
+            messageJournal.append(message, messageHistory::append);
+        } else {
+            messageHistory.append(message);
+        }
+        if (!"system".equals(message.getType())) {
+            hasUserMessages = true;
+        }
+        ServerMetrics.messagePublished();
+        longPollRegistry.publish();
+        eventStreamHub.publishMessages();
+
+        // 由写出线程拼接日志，请求线程只入队字段
+        if (message.getUsername() != null) {
+            LOG.info("广播消息：[{}] {}: {}", id, message.getUsername(), message.getContent());
+        } else {
+            LOG.info("广播消息：[{}] {}", id, message.getContent());
+        }
+    }
+
+    /**
+     * 等待序号大于since的新消息，有新消息或超时时以JSON数组回调；房间已被移除时返回false且不回调
+     */
+    public boolean awaitMessages(long since, long timeoutMs, Consumer<byte[]> callback) {
+        return longPollRegistry.await(since, timeoutMs, callback);
+    }
+
+    /**
+     * 登记事件流连接，补发序号大于since的消息后持续推送；房间已被移除时返回false且不登记
+     */
+    public boolean subscribeEvents(EventStream stream, long since) {
+        return eventStreamHub.subscribe(stream, since);
+    }
+
+    private boolean isIdle() {
+        return connectedUsers.isEmpty()
+            && longPollRegistry.getWaiterCount() == 0
+            && eventStreamHub.getSubscriberCount() == 0;
+    }
+
+    /**
+     * 房间没有在线用户、长轮询等待者和事件流连接的持续时间（毫秒），不空闲时为0；由登记表的维护线程定期调用
+     */
+    long idleMillis(long now) {
+        if (!isIdle()) {
+            idleSince = 0;
+            return 0;
+        }
+        if (idleSince == 0) {
+            idleSince = now;
+        }
+        return now - idleSince;
+    }
+
+    /**
+     * 房间仍然空闲时标记为已关闭并返回true；先设置标记再检查，与加入、长轮询和事件流登记的顺序相反
+     */
+    boolean tryClose() {
+        closed = true;
+        if (isIdle()) return true;
+        closed = false;
+        idleSince = 0;
+        return false;
+    }
+
+    boolean hasUserMessages() {
+        return hasUserMessages;
+    }
+
+    /**
+     * 向房间内的事件流连接发送心跳
+     */
+    void heartbeat() {
+        eventStreamHub.heartbeat();
+    }
+
+    // 获取房间内的在线用户列表
+    public List<String> getOnlineUsers() {
+        return connectedUsers.values().stream()
+            .map(ChatUser::getUsername)
+            .collect(java.util.stream.Collectors.toList());
+    }
+
+    // 获取消息历史
+    public List<ChatMessage> getMessageHistory() {
+        return messageHistory.snapshot();
+    }
+
+    /**
+     * 获取序号大于since的消息；没有新消息时返回空列表
+     * 客户端游标超过当前最大序号时（服务器已重启）返回全部历史
+     */
+    public List<ChatMessage> getMessagesSince(long since) {
+        if (since > messageHistory.getLastSequence()) {
+            since = 0;
+        }
+        return messageHistory.readAfter(since);
+    }
+
+    /**
+     * 序号小于before的最近limit条消息，从消息日志中读取；日志关闭时只能查到内存中的历史
+     */
+    public List<ChatMessage> getMessagesBefore(long before, int limit) throws IOException {
+        if (messageJournal != null) {
+            return messageJournal.readBefore(before, limit);
+        }
+        List<ChatMessage> history = messageHistory.snapshot();
+        int end = 0;
+        while (end < history.size() && history.get(end).getSeq() < before) {
+            end++;
+        }
+        return new ArrayList<>(history.subList(Math.max(0, end - limit), end));
+    }
+
+    /**
+     * 时间戳在[from, to)内的最早limit条消息，从消息日志中读取；日志关闭时只能查到内存中的历史
+     */
+    public List<ChatMessage> getMessagesBetween(long from, long to, int limit) throws IOException {
+        if (messageJournal != null) {
+            return messageJournal.readBetween(from, to, limit);
+        }
+        return messageHistory.snapshot().stream()
+            .filter(message -> message.getTimestamp() >= from && message.getTimestamp() < to)
+            .limit(limit)
+            .collect(java.util.stream.Collectors.toList());
+    }
+}
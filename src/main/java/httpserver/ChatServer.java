@@ -1,70 +1,92 @@
 package httpserver;
 
-import httpserver.model.ChatMessage;
-import httpserver.model.ChatUser;
+import httpserver.log.Logger;
+import httpserver.nio.NioServer;
 import httpserver.pool.PoolManager;
-import httpserver.pool.PooledStringBuilder;
+import httpserver.store.JournalManager;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.nio.file.Paths;
+import java.nio.channels.ServerSocketChannel;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
-import java.util.List;
-import java.util.Map;
 
 public class ChatServer {
-    private static final int PORT = 8999;
+    private static final Logger LOG = Logger.getLogger(ChatServer.class);
+    // 每个连接都会产生的日志按采样记录
+    private static final Logger CONNECTION_LOG = LOG.sampled(ServerConfig.LOG_CONNECTION_SAMPLING);
+    // accept失败后的退避时间
+    private static final long ACCEPT_BACKOFF_MS = 100;
+    private static final int PORT = ServerConfig.PORT;
     private static ExecutorService bootstrapExecutor = Executors.newSingleThreadExecutor();
     private static ExecutorService taskExecutor;
+    private static AdmissionController admissionController;
     
-    // 存储所有连接的用户
-    private static final Map<String, ChatUser> connectedUsers = new ConcurrentHashMap<>();
-    // 存储聊天消息历史
-    private static final List<ChatMessage> messageHistory = new CopyOnWriteArrayList<>();
+    // 超时时间轮：空闲会话、NIO空闲连接和长轮询等待共用，刻度100毫秒
+    private static final TimingWheel timingWheel = new TimingWheel("TimingWheel", 100, TimeUnit.MILLISECONDS, 512);
+    // 全部聊天室，每个房间有独立的在线用户、消息历史、日志和订阅者
+    private static volatile RoomRegistry rooms;
     // JSON处理器
     private static final ObjectMapper objectMapper = new ObjectMapper();
     // 内存池管理器
     private static final PoolManager poolManager = PoolManager.getInstance();
     
     public static void startChatServer() {
-        int nThreads = Runtime.getRuntime().availableProcessors();
-        taskExecutor = new ThreadPoolExecutor(
-            nThreads, nThreads, 0L, TimeUnit.MILLISECONDS,
-            new LinkedBlockingQueue<>(100), new ThreadPoolExecutor.DiscardPolicy()
-        );
+        rooms = new RoomRegistry(ServerConfig.ROOM_SHARDS, ServerConfig.ROOM_MAX_ROOMS, openJournals(),
+            timingWheel, ServerConfig.SSE_HEARTBEAT_MS, ServerConfig.ROOM_IDLE_TIMEOUT_MS);
+        // 默认房间在启动时创建并恢复历史，其他房间在第一次访问时创建或恢复
+        rooms.open(RoomRegistry.DEFAULT_ROOM_ID);
+        taskExecutor = createTaskExecutor();
+        admissionController = createAdmissionController(taskExecutor);
+        ChatHandler.preloadStaticAssets();
 
         // 添加JVM关闭钩子，优雅关闭内存池
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
-            System.out.println("正在关闭聊天服务器...");
+            LOG.info("正在关闭聊天服务器...");
             poolManager.printPoolStats();
+            LOG.info("{}", admissionController);
             poolManager.shutdown();
+            timingWheel.shutdown();
+            rooms.shutdown();
             if (taskExecutor != null) {
                 taskExecutor.shutdown();
             }
-            System.out.println("聊天服务器已关闭");
+            LOG.info("聊天服务器已关闭");
+            Logger.shutdown();
         }));
 
         while (true) {
             try {
-                ServerSocket serverSocket = new ServerSocket(PORT);
-                System.out.println("🚀 聊天室服务器启动成功，监听端口：" + PORT);
-                System.out.println("💡 采用内存池技术，性能更优");
-                System.out.println("🌐 请在浏览器中访问：http://localhost:" + PORT);
+                Runnable acceptor;
+                if (ServerConfig.isNioTransport()) {
+                    acceptor = new NioServer(PORT, ServerConfig.NIO_EVENT_LOOPS, admissionController, timingWheel);
+                } else {
+                    // 通过ServerSocketChannel接受连接，使阻塞Socket也能使用聚集写输出响应
+                    ServerSocketChannel serverChannel = ServerSocketChannel.open();
+                    serverChannel.bind(new InetSocketAddress(PORT));
+                    acceptor = new ServerThread(serverChannel.socket(), admissionController);
+                }
+                LOG.info("🚀 聊天室服务器启动成功，监听端口：{}", PORT);
+                LOG.info("🔌 传输模式：{}", ServerConfig.isNioTransport()
+                        ? "NIO（事件循环数：" + ServerConfig.NIO_EVENT_LOOPS + "）" : "BIO");
+                LOG.info("💡 采用内存池技术，性能更优");
+                LOG.info("🌐 请在浏览器中访问：http://localhost:{}", PORT);
                 
                 // 打印初始内存池状态
                 poolManager.printPoolStats();
                 
-                bootstrapExecutor.submit(new ServerThread(serverSocket));
+                bootstrapExecutor.submit(acceptor);
                 break;
             } catch (IOException e) {
-                System.err.println("端口绑定失败，10秒后重试...");
+                LOG.warn("端口绑定失败，10秒后重试...");
                 try {
                     TimeUnit.SECONDS.sleep(10);
                 } catch (InterruptedException ie) {
@@ -75,24 +97,94 @@ public class ChatServer {
         bootstrapExecutor.shutdown();
     }
 
+    /**
+     * 打开消息日志管理器；失败时只保留内存中的历史
+     */
+    private static JournalManager openJournals() {
+        if (!ServerConfig.JOURNAL_ENABLED) return null;
+        try {
+            return new JournalManager(Paths.get(ServerConfig.JOURNAL_DIR), RoomRegistry.DEFAULT_ROOM_ID,
+                ServerConfig.JOURNAL_SEGMENT_SIZE, ServerConfig.ROOM_SEGMENT_SIZE, ServerConfig.JOURNAL_MAX_SEGMENTS,
+                ServerConfig.JOURNAL_SYNC_INTERVAL_MS, ServerConfig.JOURNAL_INDEX_INTERVAL, ServerConfig.JOURNAL_BLOCK_CACHE_SIZE);
+        } catch (IOException | RuntimeException e) {
+            LOG.error("打开消息日志失败，历史消息不会持久化：{}", e.getMessage());
+            return null;
+        }
+    }
+    
+    /**
+     * 按启动参数创建请求处理执行器
+     */
+    private static ExecutorService createTaskExecutor() {
+        if (ServerConfig.isVirtualExecutor()) {
+            ExecutorService virtualExecutor = createVirtualThreadExecutor();
+            if (virtualExecutor != null) {
+                LOG.info("🧵 执行模式：虚拟线程（每个请求一个虚拟线程）");
+                return virtualExecutor;
+            }
+            LOG.warn("当前JDK不支持虚拟线程（需要JDK 21+），回退到固定线程池");
+        }
+        int nThreads = Runtime.getRuntime().availableProcessors();
+        LOG.info("🧵 执行模式：固定线程池（线程数：{}）", nThreads);
+        // 队列长度由AdmissionController限制，这里使用优先级队列让高优先级请求先被处理
+        return new ThreadPoolExecutor(
+            nThreads, nThreads, 0L, TimeUnit.MILLISECONDS,
+            new PriorityBlockingQueue<>()
+        );
+    }
+    
+    /**
+     * 线程池模式下容量为线程数加队列长度，虚拟线程模式下为最大并发数
+     */
+    private static AdmissionController createAdmissionController(ExecutorService executor) {
+        int capacity = executor instanceof ThreadPoolExecutor
+            ? ((ThreadPoolExecutor) executor).getMaximumPoolSize() + ServerConfig.ADMISSION_QUEUE_CAPACITY
+            : ServerConfig.ADMISSION_MAX_CONCURRENT;
+        return new AdmissionController(executor, capacity,
+            ServerConfig.ADMISSION_HIGH_PRIORITY_RESERVE, ServerConfig.ADMISSION_RETRY_AFTER_SECONDS);
+    }
+    
+    /**
+     * 通过反射调用Executors.newVirtualThreadPerTaskExecutor()，
+     * 使项目仍可按Java 11编译，在JDK 21+上运行时启用虚拟线程
+     */
+    private static ExecutorService createVirtualThreadExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
     private static class ServerThread implements Runnable {
         private ServerSocket serverSocket;
+        private final AdmissionController admissionController;
         
-        public ServerThread(ServerSocket serverSocket) {
+        public ServerThread(ServerSocket serverSocket, AdmissionController admissionController) {
             this.serverSocket = serverSocket;
+            this.admissionController = admissionController;
         }
         
         @Override
         public void run() {
             try {
                 while (!serverSocket.isClosed()) {
-                    Socket clientSocket = serverSocket.accept();
-                    System.out.println("新的客户端连接：" + clientSocket.getInetAddress());
-                    taskExecutor.submit(new ChatHandler(clientSocket));
-                }
-            } catch (IOException e) {
-                if (!serverSocket.isClosed()) {
-                    System.err.println("服务器监听异常：" + e.getMessage());
+                    Socket clientSocket;
+                    try {
+                        clientSocket = serverSocket.accept();
+                    } catch (IOException e) {
+                        if (serverSocket.isClosed()) break;
+                        // 文件描述符耗尽、连接在accept之前被客户端重置等都是暂时的，退避后继续监听
+                        LOG.warn("接收客户端连接失败：{}", e.getMessage());
+                        if (!backOff()) break;
+                        continue;
+                    }
+                    CONNECTION_LOG.info("新的客户端连接：{}", clientSocket.getInetAddress());
+                    // 接收时尚未读取请求，无法区分优先级，按低优先级准入
+                    if (!admissionController.tryExecute(new ChatHandler(clientSocket), AdmissionController.Priority.LOW)) {
+                        admissionController.rejectSocket(clientSocket);
+                    }
                 }
             } finally {
                 try {
@@ -100,105 +192,82 @@ public class ChatServer {
                         serverSocket.close();
                     }
                 } catch (IOException e) {
-                    e.printStackTrace();
+                    LOG.error("关闭监听Socket失败", e);
                 }
             }
         }
+        
+        /**
+         * accept失败后暂停一段时间，避免在资源耗尽期间空转；线程被中断时返回false
+         */
+        private static boolean backOff() {
+            try {
+                Thread.sleep(ACCEPT_BACKOFF_MS);
+                return true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
     }
     
-    // 检查用户名是否已存在
-    public static boolean isUsernameExists(String username) {
-        return connectedUsers.values().stream()
-            .anyMatch(user -> user.getUsername().equals(username));
+    /**
+     * 处理线程池中是否有任务在排队；BIO模式下持久连接据此让出线程，避免空闲连接饿死新连接
+     */
+    public static boolean isHandlerBacklogged() {
+        return taskExecutor instanceof ThreadPoolExecutor
+            && !((ThreadPoolExecutor) taskExecutor).getQueue().isEmpty();
     }
     
-    // 检查用户是否存在
-    public static boolean isUserExists(String userId) {
-        return connectedUsers.containsKey(userId);
+    /**
+     * 处理线程池中排队的任务数，虚拟线程模式下为0
+     */
+    public static int getHandlerQueueDepth() {
+        return taskExecutor instanceof ThreadPoolExecutor
+            ? ((ThreadPoolExecutor) taskExecutor).getQueue().size() : 0;
     }
     
-    // 添加用户到聊天室
-    public static void addUser(ChatUser user) {
-        connectedUsers.put(user.getUserId(), user);
-        System.out.println("用户 " + user.getUsername() + " 加入聊天室，当前在线用户数：" + connectedUsers.size());
-        
-        // 使用内存池构建系统消息
-        PooledStringBuilder messageBuilder = poolManager.getStringBuilder();
-        try {
-            String content = messageBuilder.append(user.getUsername())
-                                         .append(" 加入了聊天室")
-                                         .toString();
-            
-            ChatMessage joinMessage = new ChatMessage();
-            joinMessage.setType("system");
-            joinMessage.setContent(content);
-            joinMessage.setTimestamp(System.currentTimeMillis());
-            
-            broadcastMessage(joinMessage);
-        } finally {
-            poolManager.releaseStringBuilder(messageBuilder);
+    /**
+     * 正在执行任务的处理线程数，虚拟线程模式下以准入在途数代替
+     */
+    public static int getActiveHandlerCount() {
+        if (taskExecutor instanceof ThreadPoolExecutor) {
+            return ((ThreadPoolExecutor) taskExecutor).getActiveCount();
         }
+        return admissionController != null ? admissionController.getInFlight() : 0;
     }
     
-    // 移除用户
-    public static void removeUser(String userId) {
-        ChatUser user = connectedUsers.remove(userId);
-        if (user != null) {
-            System.out.println("用户 " + user.getUsername() + " 离开聊天室，当前在线用户数：" + connectedUsers.size());
-            
-            // 使用内存池构建系统消息
-            PooledStringBuilder messageBuilder = poolManager.getStringBuilder();
-            try {
-                String content = messageBuilder.append(user.getUsername())
-                                             .append(" 离开了聊天室")
-                                             .toString();
-                
-                ChatMessage leaveMessage = new ChatMessage();
-                leaveMessage.setType("system");
-                leaveMessage.setContent(content);
-                leaveMessage.setTimestamp(System.currentTimeMillis());
-                
-                broadcastMessage(leaveMessage);
-            } finally {
-                poolManager.releaseStringBuilder(messageBuilder);
-            }
+    public static AdmissionController getAdmissionController() {
+        return admissionController;
+    }
+
+    /**
+     * 把可能阻塞的后续工作交给处理线程执行，避免占用发布消息的请求线程或时间轮线程；服务器未启动时在当前线程执行
+     */
+    public static void executeDeferred(Runnable task, AdmissionController.Priority priority) {
+        AdmissionController controller = admissionController;
+        if (controller != null) {
+            controller.execute(task, priority);
+        } else {
+            task.run();
         }
     }
     
-    // 广播消息给所有用户
-    public static void broadcastMessage(ChatMessage message) {
-        messageHistory.add(message);
-        
-        // 只保留最近100条消息
-        if (messageHistory.size() > 100) {
-            messageHistory.remove(0);
-        }
-        
-        // 使用内存池构建日志消息
-        PooledStringBuilder logBuilder = poolManager.getStringBuilder();
-        try {
-            String logMessage = logBuilder.append("广播消息：[")
-                                        .append(message.getType())
-                                        .append("] ")
-                                        .append(message.getUsername() != null ? message.getUsername() + ": " : "")
-                                        .append(message.getContent())
-                                        .toString();
-            System.out.println(logMessage);
-        } finally {
-            poolManager.releaseStringBuilder(logBuilder);
-        }
+    /**
+     * 聊天室登记表，服务器启动之后可用
+     */
+    public static RoomRegistry getRooms() {
+        return rooms;
     }
     
-    // 获取在线用户列表
-    public static List<String> getOnlineUsers() {
-        return connectedUsers.values().stream()
-            .map(ChatUser::getUsername)
-            .collect(java.util.stream.Collectors.toList());
+    public static int getRoomCount() {
+        RoomRegistry registry = rooms;
+        return registry != null ? registry.getRoomCount() : 0;
     }
     
-    // 获取消息历史
-    public static List<ChatMessage> getMessageHistory() {
-        return new java.util.ArrayList<>(messageHistory);
+    public static int getOnlineUserCount() {
+        RoomRegistry registry = rooms;
+        return registry != null ? registry.getOnlineUserCount() : 0;
     }
     
     public static void main(String[] args) {
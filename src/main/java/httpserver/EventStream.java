@@ -0,0 +1,21 @@
+package httpserver;
+
+import httpserver.pool.ResponseSink;
+
+/**
+ * 服务器推送连接（SSE或WebSocket）
+ * 先通过ResponseSink写出响应头，之后由EventStreamHub投递事件，连接按自己的协议取用共享的帧字节
+ */
+public interface EventStream extends ResponseSink {
+
+    /**
+     * 投递一个事件，其帧字节在所有订阅者之间共享，实现方不得修改。
+     * 不能阻塞调用方；连接已关闭或积压超过上限时返回false，调用方应将其移除
+     */
+    boolean offer(ServerEvent event);
+
+    /**
+     * 写完已投递的帧后关闭连接
+     */
+    void closeAfterFlush();
+}
@@ -0,0 +1,122 @@
+package httpserver;
+
+import httpserver.model.ChatMessage;
+import httpserver.log.Logger;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BooleanSupplier;
+import java.util.function.LongFunction;
+import java.util.function.Supplier;
+
+/**
+ * 事件流订阅者登记表，向一个房间的所有SSE和WebSocket连接推送新消息和在线用户变化
+ * 每个事件只序列化一次，每种帧格式只编码一次，得到的帧字节由所有订阅者共享。
+ * 发布时按序号从消息历史中读取上次发布之后的消息，保证每个订阅者收到的消息连续、有序且不重复。
+ */
+public class EventStreamHub {
+    private static final Logger LOG = Logger.getLogger(EventStreamHub.class);
+    private final LongFunction<List<ChatMessage>> messagesSince;
+    private final Supplier<List<String>> onlineUsers;
+    // 所属房间是否已被移除
+    private final BooleanSupplier closed;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Set<EventStream> subscribers = ConcurrentHashMap.newKeySet();
+    // 已推送给订阅者的最大消息序号，由this保护
+    private long lastPublished;
+
+    public EventStreamHub(LongFunction<List<ChatMessage>> messagesSince, Supplier<List<String>> onlineUsers,
+                          BooleanSupplier closed) {
+        this.messagesSince = messagesSince;
+        this.onlineUsers = onlineUsers;
+        this.closed = closed;
+    }
+
+    /**
+     * 登记订阅者：先补发序号大于since的历史消息和当前在线用户，再接收后续推送
+     * 所属房间已被移除时不登记并返回false，调用方应重新获取房间
+     */
+    public synchronized boolean subscribe(EventStream stream, long since) {
+        // 先登记再检查关闭标记，与ChatRoom.tryClose的顺序相反，两者并发时至少一方能看到对方；
+        // 补发与发布都在this锁内，提前登记不会让订阅者先收到补发之后的消息
+        subscribers.add(stream);
+        if (closed.getAsBoolean()) {
+            subscribers.remove(stream);
+            return false;
+        }
+        for (ChatMessage message : messagesSince.apply(since)) {
+            // 已写入历史但尚未发布的消息留给下一次publish，避免重复
+            if (message.getSeq() > lastPublished) break;
+            if (!stream.offer(encodeMessage(message))) {
+                subscribers.remove(stream);
+                return true;
+            }
+        }
+        if (!stream.offer(encodeUsers())) {
+            subscribers.remove(stream);
+        }
+        return true;
+    }
+
+    /**
+     * 推送上次发布之后写入历史的所有消息
+     */
+    public synchronized void publishMessages() {
+        List<ChatMessage> messages = messagesSince.apply(lastPublished);
+        if (messages.isEmpty()) return;
+        lastPublished = messages.get(messages.size() - 1).getSeq();
+        if (subscribers.isEmpty()) return;
+        for (ChatMessage message : messages) {
+            fanOut(encodeMessage(message));
+        }
+    }
+
+    /**
+     * 推送当前在线用户列表
+     */
+    public synchronized void publishUsers() {
+        if (subscribers.isEmpty()) return;
+        fanOut(encodeUsers());
+    }
+
+    public int getSubscriberCount() {
+        return subscribers.size();
+    }
+
+    /**
+     * 发送心跳（SSE注释行或WebSocket ping），及时发现已断开的连接，也避免中间代理因空闲断开；
+     * 由RoomRegistry的心跳线程对所有房间定期调用
+     */
+    public void heartbeat() {
+        if (subscribers.isEmpty()) return;
+        fanOut(ServerEvent.HEARTBEAT);
+    }
+
+    private void fanOut(ServerEvent event) {
+        for (EventStream stream : subscribers) {
+            if (!stream.offer(event)) {
+                subscribers.remove(stream);
+            }
+        }
+    }
+
+    private ServerEvent encodeMessage(ChatMessage message) {
+        return encodeEvent("message", message.getSeq(), message);
+    }
+
+    private ServerEvent encodeUsers() {
+        return encodeEvent("users", 0, onlineUsers.get());
+    }
+
+    private ServerEvent encodeEvent(String name, long id, Object data) {
+        try {
+            return new ServerEvent(name, id, objectMapper.writeValueAsBytes(data));
+        } catch (JsonProcessingException e) {
+            LOG.warn("序列化事件失败：{}", e.getMessage());
+            return ServerEvent.HEARTBEAT;
+        }
+    }
+}
@@ -1,84 +1,304 @@
 package httpserver;
 
+import httpserver.model.HttpHeaders;
 import httpserver.model.Request;
 import httpserver.model.Response;
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
 
+/**
+ * 增量式HTTP请求解析器，直接在ByteBuffer上按字节解析
+ * 每个连接持有一个实例；数据不完整时返回null并记住解析进度，补充数据后可继续解析。
+ * 已完整解析的行会从缓冲区中消费掉，未完整的行保留在缓冲区中等待后续数据。
+ */
 public class HttpMessageParser {
-    public static Request parse2request(InputStream reqStream) throws IOException {
-        BufferedReader reader = new BufferedReader(new InputStreamReader(reqStream, "UTF-8"));
-        Request request = new Request();
-
-        decodeRequestLine(reader, request);
-        decodeRequestHeader(reader, request);
-        decodeRequestMessage(reader, request);
-        
-        return request;
-    }
-    
-    private static void decodeRequestLine(BufferedReader reader, Request request) throws IOException {
-        String line = reader.readLine();
-        if (line == null) return;
-        String[] strs = line.split(" ");
-        if (strs.length >= 3) {
-            request.setMethod(strs[0]);
-            request.setUri(strs[1]);
-            request.setVersion(strs[2]);
+    private enum State { REQUEST_LINE, HEADERS, BODY }
+
+    public static final String GET = "GET";
+    public static final String POST = "POST";
+    public static final String HTTP_1_1 = "HTTP/1.1";
+    public static final String HTTP_1_0 = "HTTP/1.0";
+
+    private static final String[] KNOWN_METHODS = { GET, POST, "HEAD", "PUT", "DELETE", "OPTIONS", "PATCH" };
+    private static final String[] KNOWN_VERSIONS = { HTTP_1_1, HTTP_1_0 };
+    // 已知路由，命中时直接复用常量字符串
+    private static final String[] KNOWN_PATHS = {
+        "/", "/api/messages", "/api/messages/wait", "/api/users", "/api/stream", "/api/ws", "/api/join", "/api/send", "/api/leave", "/metrics"
+    };
+    private static final byte[][] KNOWN_METHOD_BYTES = toBytes(KNOWN_METHODS);
+    private static final byte[][] KNOWN_VERSION_BYTES = toBytes(KNOWN_VERSIONS);
+    private static final byte[][] KNOWN_PATH_BYTES = toBytes(KNOWN_PATHS);
+
+    private final int maxHeaderSize;
+    private final int maxBodySize;
+
+    private State state = State.REQUEST_LINE;
+    private Request request;
+    private int headerBytes;
+    private int contentLength;
+    // 当前请求是否已出现过Content-Length头
+    private boolean contentLengthSeen;
+    private byte[] body;
+    private int bodyOffset;
+
+    public HttpMessageParser() {
+        this(ServerConfig.MAX_HEADER_SIZE, ServerConfig.MAX_BODY_SIZE);
+    }
+
+    public HttpMessageParser(int maxHeaderSize, int maxBodySize) {
+        this.maxHeaderSize = maxHeaderSize;
+        this.maxBodySize = maxBodySize;
+    }
+
+    /**
+     * 解析buffer中position到limit之间的字节
+     * 请求完整时返回请求对象，position指向下一个请求的起始位置；否则返回null
+     */
+    public Request parse(ByteBuffer buffer) throws HttpParseException {
+        while (true) {
+            switch (state) {
+                case REQUEST_LINE:
+                case HEADERS: {
+                    int start = buffer.position();
+                    int lineEnd = indexOf(buffer, start, buffer.limit(), (byte) '\n');
+                    if (lineEnd < 0) {
+                        if (headerBytes + buffer.remaining() > maxHeaderSize) {
+                            throw new HttpParseException(431, "请求头过大");
+                        }
+                        return null;
+                    }
+                    headerBytes += lineEnd + 1 - start;
+                    if (headerBytes > maxHeaderSize) {
+                        throw new HttpParseException(431, "请求头过大");
+                    }
+                    int end = lineEnd > start && buffer.get(lineEnd - 1) == '\r' ? lineEnd - 1 : lineEnd;
+                    buffer.position(lineEnd + 1);
+
+                    if (state == State.REQUEST_LINE) {
+                        // 跳过请求之间多余的空行
+                        if (end == start) {
+                            headerBytes = 0;
+                            continue;
+                        }
+                        decodeRequestLine(buffer, start, end);
+                        state = State.HEADERS;
+                    } else if (end == start) {
+                        if (finishHeaders()) {
+                            return complete();
+                        }
+                        state = State.BODY;
+                    } else {
+                        decodeRequestHeader(buffer, start, end);
+                    }
+                    break;
+                }
+                case BODY: {
+                    int n = Math.min(buffer.remaining(), contentLength - bodyOffset);
+                    buffer.get(body, bodyOffset, n);
+                    bodyOffset += n;
+                    if (bodyOffset < contentLength) {
+                        return null;
+                    }
+                    request.setBody(body);
+                    return complete();
+                }
+                default:
+                    throw new IllegalStateException(state.name());
+            }
         }
     }
-    
-    private static void decodeRequestHeader(BufferedReader reader, Request request) throws IOException {
-        Map<String, String> headers = new HashMap<>();
-        String line;
-        while ((line = reader.readLine()) != null && !line.isEmpty()) {
-            int index = line.indexOf(':');
-            if (index > 0) {
-                String key = line.substring(0, index).trim();
-                String value = line.substring(index + 1).trim();
-                headers.put(key, value);
+
+    /**
+     * 是否正处于一个请求的中间（已消费部分字节但尚未完整）
+     */
+    public boolean isInProgress() {
+        return state != State.REQUEST_LINE || headerBytes > 0;
+    }
+
+    public void reset() {
+        state = State.REQUEST_LINE;
+        request = null;
+        headerBytes = 0;
+        contentLength = 0;
+        contentLengthSeen = false;
+        body = null;
+        bodyOffset = 0;
+    }
+
+    private Request complete() {
+        Request completed = request;
+        reset();
+        return completed;
+    }
+
+    private void decodeRequestLine(ByteBuffer buffer, int start, int end) throws HttpParseException {
+        int firstSpace = indexOf(buffer, start, end, (byte) ' ');
+        int secondSpace = firstSpace < 0 ? -1 : indexOf(buffer, firstSpace + 1, end, (byte) ' ');
+        if (firstSpace <= start || secondSpace <= firstSpace + 1 || secondSpace == end - 1) {
+            throw new HttpParseException(400, "请求行格式错误");
+        }
+
+        request = new Request();
+        request.setHeaders(new HttpHeaders());
+        request.setMethod(match(buffer, start, firstSpace, KNOWN_METHODS, KNOWN_METHOD_BYTES));
+        request.setVersion(match(buffer, secondSpace + 1, end, KNOWN_VERSIONS, KNOWN_VERSION_BYTES));
+
+        int targetStart = firstSpace + 1;
+        int queryStart = indexOf(buffer, targetStart, secondSpace, (byte) '?');
+        int pathEnd = queryStart < 0 ? secondSpace : queryStart;
+        request.setUri(match(buffer, targetStart, pathEnd, KNOWN_PATHS, KNOWN_PATH_BYTES));
+        if (queryStart >= 0) {
+            request.setQuery(decodeAscii(buffer, queryStart + 1, secondSpace));
+        }
+    }
+
+    private void decodeRequestHeader(ByteBuffer buffer, int start, int end) throws HttpParseException {
+        int colon = indexOf(buffer, start, end, (byte) ':');
+        if (colon <= start) {
+            throw new HttpParseException(400, "请求头格式错误");
+        }
+        // 字段名与冒号之间的空白会让前置代理对请求边界的理解不一致（请求走私），按RFC 9112拒绝而不是裁掉
+        if (isWhitespace(buffer.get(colon - 1))) {
+            throw new HttpParseException(400, "请求头字段名后不允许空白");
+        }
+        int valueStart = colon + 1;
+        int valueEnd = end;
+        while (valueStart < valueEnd && isWhitespace(buffer.get(valueStart))) valueStart++;
+        while (valueEnd > valueStart && isWhitespace(buffer.get(valueEnd - 1))) valueEnd--;
+
+        String name = HttpHeaders.matchKnownName(buffer, start, colon);
+        if (name == null) {
+            name = decodeAscii(buffer, start, colon);
+        } else if (name == HttpHeaders.CONTENT_LENGTH) {
+            int length = parseContentLength(buffer, valueStart, valueEnd);
+            // 多个取值不同的Content-Length会让前后端对请求边界的理解不一致（请求走私），按RFC 9112拒绝
+            if (contentLengthSeen && length != contentLength) {
+                throw new HttpParseException(400, "Content-Length冲突");
+            }
+            contentLength = length;
+            contentLengthSeen = true;
+        } else if (name == HttpHeaders.TRANSFER_ENCODING) {
+            throw new HttpParseException(501, "不支持的Transfer-Encoding");
+        }
+        request.getHeaders().add(name, buffer, valueStart, valueEnd);
+    }
+
+    /**
+     * 头部解析完成，没有请求体时返回true
+     */
+    private boolean finishHeaders() {
+        if (contentLength == 0) {
+            return true;
+        }
+        body = new byte[contentLength];
+        bodyOffset = 0;
+        return false;
+    }
+
+    private int parseContentLength(ByteBuffer buffer, int start, int end) throws HttpParseException {
+        if (start == end) {
+            throw new HttpParseException(400, "无效的Content-Length");
+        }
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            byte b = buffer.get(i);
+            if (b < '0' || b > '9') {
+                throw new HttpParseException(400, "无效的Content-Length");
             }
+            value = value * 10 + (b - '0');
+            if (value > maxBodySize) {
+                throw new HttpParseException(413, "请求体过大");
+            }
+        }
+        return (int) value;
+    }
+
+    /**
+     * 把[start, end)与已知常量逐字节比较，命中则返回常量，否则解码为新字符串
+     */
+    private static String match(ByteBuffer buffer, int start, int end, String[] constants, byte[][] constantBytes) {
+        int length = end - start;
+        for (int i = 0; i < constantBytes.length; i++) {
+            byte[] candidate = constantBytes[i];
+            if (candidate.length != length) continue;
+            int j = 0;
+            while (j < length && buffer.get(start + j) == candidate[j]) {
+                j++;
+            }
+            if (j == length) return constants[i];
+        }
+        return decodeAscii(buffer, start, end);
+    }
+
+    private static String decodeAscii(ByteBuffer buffer, int start, int end) {
+        byte[] bytes = new byte[end - start];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(start + i);
+        }
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+
+    private static int indexOf(ByteBuffer buffer, int from, int to, byte target) {
+        for (int i = from; i < to; i++) {
+            if (buffer.get(i) == target) return i;
         }
-        request.setHeaders(headers);
-    }
-    
-    private static void decodeRequestMessage(BufferedReader reader, Request request) throws IOException {
-        Map<String, String> headers = request.getHeaders();
-        int contentLen = Integer.parseInt(headers.getOrDefault("Content-Length", "0"));
-        if (contentLen <= 0) return;
-        
-        char[] message = new char[contentLen];
-        int readLen = reader.read(message);
-        if (readLen > 0) {
-            request.setMessage(new String(message, 0, readLen));
+        return -1;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t';
+    }
+
+    private static byte[][] toBytes(String[] values) {
+        byte[][] bytes = new byte[values.length][];
+        for (int i = 0; i < values.length; i++) {
+            bytes[i] = values[i].getBytes(StandardCharsets.US_ASCII);
         }
+        return bytes;
     }
-    
+
+    /**
+     * 判断客户端是否希望保持连接：HTTP/1.1默认保持，HTTP/1.0需显式声明keep-alive
+     */
+    public static boolean isKeepAliveRequested(Request request) {
+        String connection = getHeader(request, HttpHeaders.CONNECTION);
+        if (HTTP_1_1.equals(request.getVersion())) {
+            return connection == null || !"close".equalsIgnoreCase(connection);
+        }
+        return "keep-alive".equalsIgnoreCase(connection);
+    }
+
+    /**
+     * 按名称查找请求头，忽略大小写
+     */
+    public static String getHeader(Request request, String name) {
+        HttpHeaders headers = request.getHeaders();
+        return headers != null ? headers.get(name) : null;
+    }
+
     public static String buildResponse(Request request, String responseBody) {
         Response response = new Response();
         response.setVersion(request.getVersion() != null ? request.getVersion() : "HTTP/1.1");
         response.setCode(200);
         response.setStatus("OK");
- 
+
         Map<String, String> headers = new HashMap<>();
         headers.put("Content-Type", "text/plain; charset=UTF-8");
-        headers.put("Content-Length", String.valueOf(responseBody.getBytes().length));
+        headers.put("Content-Length", String.valueOf(responseBody.getBytes(StandardCharsets.UTF_8).length));
         response.setHeaders(headers);
         response.setMessage(responseBody);
 
         StringBuilder builder = new StringBuilder();
         builder.append(response.getVersion()).append(" ").append(response.getCode())
                .append(" ").append(response.getStatus()).append("\r\n");
-        
+
         for (Map.Entry<String, String> entry : response.getHeaders().entrySet()) {
             builder.append(entry.getKey()).append(": ").append(entry.getValue()).append("\r\n");
         }
         builder.append("\r\n").append(response.getMessage());
-        
+
         return builder.toString();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,21 @@
+package httpserver;
+
+import java.io.IOException;
+
+/**
+ * 请求格式错误，携带应返回给客户端的状态码
+ */
+public class HttpParseException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    private final int statusCode;
+
+    public HttpParseException(int statusCode, String message) {
+        super(message);
+        this.statusCode = statusCode;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+}
@@ -0,0 +1,128 @@
+package httpserver;
+
+import httpserver.model.ChatMessage;
+import httpserver.log.Logger;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.LongFunction;
+
+/**
+ * 长轮询等待者登记表
+ * 请求在没有新消息时登记回调后立即返回，不占用处理线程；
+ * 有新消息发布或等待超时时回调收到序列化好的JSON消息数组
+ */
+public class LongPollRegistry {
+    private static final Logger LOG = Logger.getLogger(LongPollRegistry.class);
+    private static final byte[] EMPTY_ARRAY = { '[', ']' };
+
+    private final LongFunction<List<ChatMessage>> messagesSince;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Set<Waiter> waiters = ConcurrentHashMap.newKeySet();
+    // 等待超时登记在时间轮中，大量并发等待者的登记和取消都是O(1)
+    private final TimingWheel timer;
+    // 所属房间是否已被移除
+    private final BooleanSupplier closed;
+
+    public LongPollRegistry(LongFunction<List<ChatMessage>> messagesSince, TimingWheel timer, BooleanSupplier closed) {
+        this.messagesSince = messagesSince;
+        this.timer = timer;
+        this.closed = closed;
+    }
+
+    /**
+     * 等待序号大于since的消息，已有新消息时立即回调
+     * 所属房间已被移除时不登记、不回调并返回false，调用方应重新获取房间
+     */
+    public boolean await(long since, long timeoutMs, Consumer<byte[]> callback) {
+        List<ChatMessage> messages = messagesSince.apply(since);
+        if (!messages.isEmpty()) {
+            callback.accept(serialize(messages));
+            return true;
+        }
+
+        Waiter waiter = new Waiter(since, callback);
+        waiters.add(waiter);
+        // 先登记再检查关闭标记，与ChatRoom.tryClose的顺序相反，两者并发时至少一方能看到对方
+        if (closed.getAsBoolean() && waiters.remove(waiter)) {
+            return false;
+        }
+        // 登记后再检查一次，避免检查与登记之间发布的消息被错过
+        messages = messagesSince.apply(since);
+        if (!messages.isEmpty()) {
+            if (waiters.remove(waiter)) {
+                waiter.complete(serialize(messages));
+            }
+            return true;
+        }
+        waiter.timeout = timer.schedule(() -> {
+            if (waiters.remove(waiter)) {
+                waiter.complete(EMPTY_ARRAY);
+            }
+        }, timeoutMs, TimeUnit.MILLISECONDS);
+        return true;
+    }
+
+    /**
+     * 有新消息发布时唤醒所有等待者；相同游标的等待者共享同一份序列化结果
+     * 其他发送者已占用更早的序号但尚未写入时读不到新消息，此时等待者保持登记，由该写入之后的发布唤醒
+     */
+    public void publish() {
+        if (waiters.isEmpty()) return;
+        Map<Long, byte[]> encoded = new HashMap<>();
+        for (Waiter waiter : waiters) {
+            byte[] json = encoded.computeIfAbsent(waiter.since, since -> serialize(messagesSince.apply(since)));
+            if (json != EMPTY_ARRAY && waiters.remove(waiter)) {
+                waiter.complete(json);
+            }
+        }
+    }
+
+    public int getWaiterCount() {
+        return waiters.size();
+    }
+
+    private byte[] serialize(List<ChatMessage> messages) {
+        if (messages.isEmpty()) return EMPTY_ARRAY;
+        try {
+            return objectMapper.writeValueAsBytes(messages);
+        } catch (JsonProcessingException e) {
+            LOG.warn("序列化消息失败：{}", e.getMessage());
+            return EMPTY_ARRAY;
+        }
+    }
+
+    private static final class Waiter {
+        private final long since;
+        private final Consumer<byte[]> callback;
+        private final AtomicBoolean done = new AtomicBoolean();
+        private volatile TimingWheel.Timeout timeout;
+
+        Waiter(long since, Consumer<byte[]> callback) {
+            this.since = since;
+            this.callback = callback;
+        }
+
+        void complete(byte[] json) {
+            if (!done.compareAndSet(false, true)) return;
+            TimingWheel.Timeout scheduled = timeout;
+            if (scheduled != null) {
+                scheduled.cancel();
+            }
+            try {
+                callback.accept(json);
+            } catch (RuntimeException e) {
+                LOG.warn("长轮询回调失败：{}", e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package httpserver;
+
+import httpserver.model.ChatMessage;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 固定容量的无锁消息环形缓冲区，支持多生产者并发写入
+ * 写入时先原子地领取序号，再写入对应槽位；新消息覆盖最旧的消息，无需移动或复制数组。
+ * 读取时按序号逐个校验槽位：遇到尚未写完的槽位即停止，保证读到的范围连续且有序。
+ */
+public class MessageRingBuffer {
+    private final int capacity;
+    private final AtomicReferenceArray<ChatMessage> slots;
+    // 已领取的最大序号，序号从1开始
+    private final AtomicLong claimed = new AtomicLong();
+
+    public MessageRingBuffer(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("容量必须大于0：" + capacity);
+        }
+        this.capacity = capacity;
+        this.slots = new AtomicReferenceArray<>(capacity);
+    }
+
+    /**
+     * 追加消息并为其分配序号
+     */
+    public long append(ChatMessage message) {
+        long seq = claimed.incrementAndGet();
+        message.setSeq(seq);
+        slots.set(indexOf(seq), message);
+        return seq;
+    }
+
+    /**
+     * 启动时载入持久化的历史消息（按序号升序），之后的序号从lastSeq之后继续
+     * 必须在并发访问开始之前调用
+     */
+    public void restore(List<ChatMessage> messages, long lastSeq) {
+        for (ChatMessage message : messages) {
+            slots.set(indexOf(message.getSeq()), message);
+        }
+        claimed.set(Math.max(claimed.get(), lastSeq));
+    }
+
+    /**
+     * 读取序号大于since的所有仍保留在缓冲区中的消息，按序号升序
+     */
+    public List<ChatMessage> readAfter(long since) {
+        long head = claimed.get();
+        long start = Math.max(since + 1, head - capacity + 1);
+        if (start > head) {
+            return Collections.emptyList();
+        }
+        List<ChatMessage> result = new ArrayList<>((int) (head - start + 1));
+        for (long seq = start; seq <= head; seq++) {
+            ChatMessage message = slots.get(indexOf(seq));
+            if (message == null || message.getSeq() < seq) {
+                // 该序号已被领取但尚未写入，后面的消息暂不可见
+                break;
+            }
+            if (message.getSeq() == seq) {
+                result.add(message);
+            }
+            // 序号更大说明读取期间已被新消息覆盖，跳过
+        }
+        return result;
+    }
+
+    /**
+     * 当前保留的全部消息
+     */
+    public List<ChatMessage> snapshot() {
+        return readAfter(0);
+    }
+
+    /**
+     * 最近领取的序号
+     */
+    public long getLastSequence() {
+        return claimed.get();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    private int indexOf(long seq) {
+        return (int) (seq % capacity);
+    }
+}
@@ -0,0 +1,179 @@
+package httpserver;
+
+import httpserver.log.Logger;
+import httpserver.store.JournalManager;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+/**
+ * 聊天室登记表，房间按ID的哈希分布到若干分片中，每个分片是一张独立的表
+ * 查找和创建房间只涉及所在的分片；房间建好之后的所有操作只涉及房间自身的状态。
+ * 房间在第一次加入时创建，服务器重启后在第一次访问时从消息日志恢复；同时存在的房间数有上限，
+ * 默认房间以外的房间空闲一段时间后从内存中移除并归还名额，从未有人发言的房间同时删除其日志。
+ */
+public class RoomRegistry {
+    private static final Logger LOG = Logger.getLogger(RoomRegistry.class);
+    private static final Pattern ROOM_ID = Pattern.compile("[a-z0-9_-]{1,32}");
+    // 未指定房间时使用的房间，配置不合法时为lobby
+    public static final String DEFAULT_ROOM_ID = defaultRoomId(ServerConfig.ROOM_DEFAULT);
+
+    private final List<Map<String, ChatRoom>> shards;
+    private final int shardMask;
+    private final int maxRooms;
+    private final AtomicInteger roomCount = new AtomicInteger();
+    // 消息日志管理器，未启用或打开失败时为null
+    private final JournalManager journals;
+    private final TimingWheel timingWheel;
+    private final long idleTimeoutMs;
+    private final ScheduledExecutorService maintenance;
+
+    public RoomRegistry(int shardCount, int maxRooms, JournalManager journals, TimingWheel timingWheel,
+                        long heartbeatMs, long idleTimeoutMs) {
+        int count = shardCount <= 1 ? 1 : Integer.highestOneBit(shardCount - 1) << 1;
+        this.shards = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            shards.add(new ConcurrentHashMap<>());
+        }
+        this.shardMask = count - 1;
+        this.maxRooms = Math.max(1, maxRooms);
+        this.journals = journals;
+        this.timingWheel = timingWheel;
+        this.idleTimeoutMs = idleTimeoutMs;
+        this.maintenance = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "Room-Maintenance");
+            t.setDaemon(true);
+            return t;
+        });
+        // 所有房间的事件流心跳和空闲房间的移除共用一个线程
+        maintenance.scheduleAtFixedRate(() -> forEach(ChatRoom::heartbeat), heartbeatMs, heartbeatMs, TimeUnit.MILLISECONDS);
+        if (idleTimeoutMs > 0) {
+            long interval = Math.max(1000, idleTimeoutMs / 2);
+            maintenance.scheduleWithFixedDelay(this::evictIdleRooms, interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * 规范化客户端传入的房间ID：未指定时为默认房间，统一小写；不合法时返回null
+     */
+    public static String roomId(String raw) {
+        if (raw == null || raw.trim().isEmpty()) return DEFAULT_ROOM_ID;
+        String id = raw.trim().toLowerCase(Locale.ROOT);
+        return ROOM_ID.matcher(id).matches() ? id : null;
+    }
+
+    private static String defaultRoomId(String configured) {
+        String id = configured.trim().toLowerCase(Locale.ROOT);
+        return ROOM_ID.matcher(id).matches() ? id : "lobby";
+    }
+
+    /**
+     * 查找已存在的房间；内存中没有但磁盘上有其消息日志时（服务器已重启或房间曾被移除）恢复该房间，否则返回null
+     */
+    public ChatRoom find(String roomId) {
+        if (roomId == null) return null;
+        ChatRoom room = shardOf(roomId).get(roomId);
+        if (room != null || journals == null || !journals.exists(roomId)) {
+            return room;
+        }
+        return open(roomId);
+    }
+
+    /**
+     * 获取房间，不存在时创建；房间数已达上限时返回null。返回的房间可能随即被移除，
+     * 此时加入会得到ROOM_CLOSED，重新调用即可得到新的房间
+     */
+    public ChatRoom open(String roomId) {
+        if (roomId == null) return null;
+        Map<String, ChatRoom> shard = shardOf(roomId);
+        ChatRoom room = shard.get(roomId);
+        if (room != null) return room;
+        // 创建（含恢复历史）只锁住分片中的一个桶，其他房间不受影响
+        return shard.computeIfAbsent(roomId, this::createRoom);
+    }
+
+    private ChatRoom createRoom(String roomId) {
+        if (roomCount.incrementAndGet() > maxRooms) {
+            roomCount.decrementAndGet();
+            LOG.warn("房间数已达上限 {}，拒绝创建房间 {}", maxRooms, roomId);
+            return null;
+        }
+        if (journals != null) {
+            try {
+                ChatRoom room = new ChatRoom(roomId, journals.open(roomId), timingWheel);
+                room.recover();
+                return room;
+            } catch (IOException | RuntimeException e) {
+                LOG.error("打开房间 {} 的消息日志失败，历史消息不会持久化：{}", roomId, e.getMessage());
+            }
+        }
+        return new ChatRoom(roomId, null, timingWheel);
+    }
+
+    /**
+     * 移除空闲超时的房间并归还名额。关闭在分片的桶锁内完成，同一房间的重新创建会等到旧日志关闭之后，
+     * 同一目录不会同时被新旧两个房间打开
+     */
+    private void evictIdleRooms() {
+        long now = System.currentTimeMillis();
+        for (Map<String, ChatRoom> shard : shards) {
+            for (ChatRoom room : shard.values()) {
+                if (DEFAULT_ROOM_ID.equals(room.getId()) || room.idleMillis(now) < idleTimeoutMs) continue;
+                shard.computeIfPresent(room.getId(), (id, current) -> {
+                    if (current != room || !room.tryClose()) return current;
+                    roomCount.decrementAndGet();
+                    if (journals != null) {
+                        journals.close(id, !room.hasUserMessages());
+                    }
+                    LOG.info("房间 {} 空闲超过 {} 秒，已移除", id, idleTimeoutMs / 1000);
+                    return null;
+                });
+            }
+        }
+    }
+
+    private Map<String, ChatRoom> shardOf(String roomId) {
+        int h = roomId.hashCode();
+        return shards.get((h ^ (h >>> 16)) & shardMask);
+    }
+
+    public void forEach(Consumer<ChatRoom> action) {
+        for (Map<String, ChatRoom> shard : shards) {
+            shard.values().forEach(action);
+        }
+    }
+
+    public int getRoomCount() {
+        return roomCount.get();
+    }
+
+    /**
+     * 所有房间的在线用户总数
+     */
+    public int getOnlineUserCount() {
+        int total = 0;
+        for (Map<String, ChatRoom> shard : shards) {
+            for (ChatRoom room : shard.values()) {
+                total += room.getOnlineUserCount();
+            }
+        }
+        return total;
+    }
+
+    public void shutdown() {
+        maintenance.shutdownNow();
+        if (journals != null) {
+            journals.close();
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package httpserver;
+
+/**
+ * 服务器配置，统一从系统属性读取
+ * 例如：java -Dchat.transport=nio -jar chat-server.jar
+ */
+public final class ServerConfig {
+    // 监听端口
+    public static final int PORT = intProperty("chat.port", 8999);
+    // 传输模式："bio"（阻塞Socket）或 "nio"（Selector事件循环）
+    public static final String TRANSPORT = stringProperty("chat.transport", "bio");
+    // 请求处理执行模式："pool"（固定大小线程池）或 "virtual"（每个请求一个虚拟线程，需JDK 21+）
+    public static final String EXECUTOR = stringProperty("chat.executor", "pool");
+    // 线程池模式下等待处理的请求队列容量
+    public static final int ADMISSION_QUEUE_CAPACITY = intProperty("chat.admission.queueCapacity", 100);
+    // 虚拟线程模式下同时处理的最大请求数
+    public static final int ADMISSION_MAX_CONCURRENT = intProperty("chat.admission.maxConcurrent", 10000);
+    // 为高优先级请求额外预留的容量
+    public static final int ADMISSION_HIGH_PRIORITY_RESERVE = intProperty("chat.admission.highPriorityReserve", 20);
+    // 503响应中建议客户端重试的等待秒数
+    public static final int ADMISSION_RETRY_AFTER_SECONDS = intProperty("chat.admission.retryAfter", 2);
+    // NIO事件循环线程数
+    public static final int NIO_EVENT_LOOPS = intProperty("chat.nio.loops",
+            Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+    // 请求行加请求头的最大字节数
+    public static final int MAX_HEADER_SIZE = intProperty("chat.http.maxHeaderSize", 8192);
+    // 请求体的最大字节数
+    public static final int MAX_BODY_SIZE = intProperty("chat.http.maxBodySize", 1024 * 1024);
+    // 内存中保留的消息历史条数
+    public static final int HISTORY_CAPACITY = intProperty("chat.history.capacity", 100);
+    // 是否把消息写入磁盘日志，重启后恢复历史；默认关闭，开启后会在日志目录下创建并映射日志段文件
+    public static final boolean JOURNAL_ENABLED = booleanProperty("chat.journal.enabled", false);
+    // 消息日志目录
+    public static final String JOURNAL_DIR = stringProperty("chat.journal.dir", "data/journal");
+    // 单个日志段的大小（字节）
+    public static final int JOURNAL_SEGMENT_SIZE = intProperty("chat.journal.segmentSize", 64 * 1024 * 1024);
+    // 最多保留的日志段数，超过后删除最旧的段
+    public static final int JOURNAL_MAX_SEGMENTS = intProperty("chat.journal.maxSegments", 16);
+    // 组提交刷盘间隔（毫秒），0为每条消息都刷盘
+    public static final int JOURNAL_SYNC_INTERVAL_MS = intProperty("chat.journal.syncInterval", 100);
+    // 稀疏索引的登记间隔（字节），即一个块的大致大小
+    public static final int JOURNAL_INDEX_INTERVAL = intProperty("chat.journal.indexInterval", 4096);
+    // 已解码日志块的缓存块数
+    public static final int JOURNAL_BLOCK_CACHE_SIZE = intProperty("chat.journal.blockCacheSize", 512);
+    // 历史查询每页的默认条数和最大条数
+    public static final int HISTORY_PAGE_SIZE = intProperty("chat.history.pageSize", 50);
+    public static final int HISTORY_MAX_PAGE_SIZE = intProperty("chat.history.maxPageSize", 500);
+    // 未指定房间时使用的默认房间，沿用单房间时的消息日志目录
+    public static final String ROOM_DEFAULT = stringProperty("chat.room.default", "lobby");
+    // 房间表的分片数（取不小于它的2的幂）
+    public static final int ROOM_SHARDS = intProperty("chat.room.shards", 16);
+    // 最多同时存在的房间数，达到上限后不再创建新房间
+    public static final int ROOM_MAX_ROOMS = intProperty("chat.room.maxRooms", 1000);
+    // 默认房间以外的房间没有在线用户和推送连接超过该时间（毫秒）后从内存中移除，不再占用房间名额
+    public static final int ROOM_IDLE_TIMEOUT_MS = intProperty("chat.room.idleTimeout", 60000);
+    // 默认房间以外的房间的日志段大小（字节），小房间不必预留默认房间那样大的段
+    public static final int ROOM_SEGMENT_SIZE = intProperty("chat.room.segmentSize", 4 * 1024 * 1024);
+    // 长轮询默认等待时间和最大等待时间（毫秒）
+    public static final int LONG_POLL_TIMEOUT_MS = intProperty("chat.longPoll.timeout", 25000);
+    public static final int LONG_POLL_MAX_TIMEOUT_MS = intProperty("chat.longPoll.maxTimeout", 60000);
+    // 每个事件流连接最多积压的事件数，超过后断开该慢速连接
+    public static final int SSE_QUEUE_CAPACITY = intProperty("chat.sse.queueCapacity", 256);
+    // 事件流心跳间隔（毫秒）
+    public static final int SSE_HEARTBEAT_MS = intProperty("chat.sse.heartbeat", 15000);
+    // WebSocket单条消息（含分片组装后）的最大字节数
+    public static final int WS_MAX_MESSAGE_SIZE = intProperty("chat.ws.maxMessageSize", 64 * 1024);
+    // 缓冲池可占用的堆外内存上限（字节）
+    public static final long POOL_DIRECT_BUDGET = longProperty("chat.pool.directBudget", 64L * 1024 * 1024);
+    // 内存池泄漏检测采样间隔：每N次借出跟踪一次，0为关闭，1为跟踪全部
+    public static final int POOL_LEAK_SAMPLING = intProperty("chat.pool.leakDetection", 0);
+    // 内存池自适应容量的统计窗口（毫秒）
+    public static final int POOL_ADAPT_INTERVAL_MS = intProperty("chat.pool.adaptInterval", 10000);
+    // 是否启用HTTP持久连接
+    public static final boolean KEEP_ALIVE = booleanProperty("chat.http.keepAlive", true);
+    // 持久连接空闲超时（毫秒）
+    public static final int KEEP_ALIVE_TIMEOUT_MS = intProperty("chat.http.keepAliveTimeout", 15000);
+    // 单个持久连接最多处理的请求数
+    public static final int MAX_KEEP_ALIVE_REQUESTS = intProperty("chat.http.maxKeepAliveRequests", 100);
+    // 在线用户无任何活动超过该时间（毫秒）后被移出聊天室
+    public static final int SESSION_IDLE_TIMEOUT_MS = intProperty("chat.session.idleTimeout", 5 * 60 * 1000);
+    // 静态页面的Cache-Control，默认每次用ETag向服务器确认（未修改时返回304）
+    public static final String STATIC_CACHE_CONTROL = stringProperty("chat.static.cacheControl", "no-cache");
+    // 日志级别：DEBUG、INFO、WARN、ERROR
+    public static final String LOG_LEVEL = stringProperty("chat.log.level", "INFO");
+    // 日志文件路径，未设置时输出到控制台
+    public static final String LOG_FILE = stringProperty("chat.log.file", null);
+    // 日志队列容量，写出跟不上时丢弃超出的日志
+    public static final int LOG_QUEUE_CAPACITY = intProperty("chat.log.queueCapacity", 8192);
+    // 每个连接都会产生的日志（如新连接）的采样间隔：每N条记录一条
+    public static final int LOG_CONNECTION_SAMPLING = intProperty("chat.log.connectionSampling", 100);
+
+    private ServerConfig() {
+    }
+
+    public static boolean isNioTransport() {
+        return "nio".equalsIgnoreCase(TRANSPORT);
+    }
+
+    public static boolean isVirtualExecutor() {
+        return "virtual".equalsIgnoreCase(EXECUTOR);
+    }
+
+    public static String stringProperty(String key, String defaultValue) {
+        String value = System.getProperty(key);
+        return value != null && !value.trim().isEmpty() ? value.trim() : defaultValue;
+    }
+
+    public static int intProperty(String key, int defaultValue) {
+        String value = System.getProperty(key);
+        if (value == null) return defaultValue;
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            System.err.println("配置项 " + key + " 不是合法整数，使用默认值：" + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    public static long longProperty(String key, long defaultValue) {
+        String value = System.getProperty(key);
+        if (value == null) return defaultValue;
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            System.err.println("配置项 " + key + " 不是合法整数，使用默认值：" + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    public static boolean booleanProperty(String key, boolean defaultValue) {
+        String value = System.getProperty(key);
+        return value != null ? Boolean.parseBoolean(value.trim()) : defaultValue;
+    }
+}
@@ -0,0 +1,71 @@
+package httpserver;
+
+import httpserver.websocket.WebSocketFrames;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 推送给客户端的一个事件，数据只序列化一次
+ * SSE和WebSocket两种帧格式在第一次需要时编码，之后由所有同类连接共享
+ */
+public final class ServerEvent {
+    public static final ServerEvent HEARTBEAT =
+        new ServerEvent(": ping\n\n".getBytes(StandardCharsets.US_ASCII), WebSocketFrames.ping());
+
+    private final String name;
+    private final long id;
+    private final byte[] json;
+    // 两种帧格式均为惰性编码，并发时最多重复编码一次，结果相同
+    private volatile byte[] sseFrame;
+    private volatile byte[] webSocketFrame;
+
+    /**
+     * @param id 事件序号，小于等于0表示不带id
+     */
+    public ServerEvent(String name, long id, byte[] json) {
+        this.name = name;
+        this.id = id;
+        this.json = json;
+    }
+
+    private ServerEvent(byte[] sseFrame, byte[] webSocketFrame) {
+        this(null, 0, null);
+        this.sseFrame = sseFrame;
+        this.webSocketFrame = webSocketFrame;
+    }
+
+    /**
+     * SSE帧：可选的id行、event行和一个data行；JSON输出不含换行，可以整体放在一个data字段中
+     */
+    public byte[] getSseFrame() {
+        byte[] frame = sseFrame;
+        if (frame == null) {
+            String head = (id > 0 ? "id: " + id + "\n" : "") + "event: " + name + "\ndata: ";
+            frame = concat(head, json, "\n\n");
+            sseFrame = frame;
+        }
+        return frame;
+    }
+
+    /**
+     * WebSocket文本帧，负载为{"event":名称,"data":数据}
+     */
+    public byte[] getWebSocketFrame() {
+        byte[] frame = webSocketFrame;
+        if (frame == null) {
+            frame = WebSocketFrames.text(concat("{\"event\":\"" + name + "\",\"data\":", json, "}"));
+            webSocketFrame = frame;
+        }
+        return frame;
+    }
+
+    private static byte[] concat(String prefix, byte[] body, String suffix) {
+        byte[] head = prefix.getBytes(StandardCharsets.UTF_8);
+        byte[] tail = suffix.getBytes(StandardCharsets.UTF_8);
+        byte[] result = new byte[head.length + body.length + tail.length];
+        System.arraycopy(head, 0, result, 0, head.length);
+        System.arraycopy(body, 0, result, head.length, body.length);
+        System.arraycopy(tail, 0, result, head.length + body.length, tail.length);
+        return result;
+    }
+}
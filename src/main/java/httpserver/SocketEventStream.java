@@ -0,0 +1,162 @@
+package httpserver;
+
+import httpserver.metrics.ServerMetrics;
+import httpserver.pool.PoolManager;
+import httpserver.pool.PooledByteBuffer;
+import httpserver.websocket.WebSocketSession;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 阻塞Socket上的推送连接（SSE，或带会话时为WebSocket）
+ * 事件先进入有界队列，由该连接专属的写线程阻塞写出，不占用请求处理线程池；
+ * 队列满说明客户端消费过慢，直接断开，客户端重连时凭Last-Event-ID或since补齐消息。
+ * WebSocket连接另有一个专属读线程解码客户端帧，回复的控制帧同样经过写队列，保证帧不会交错。
+ */
+public class SocketEventStream implements EventStream, WebSocketSession.Transport {
+    private static final AtomicInteger THREAD_COUNTER = new AtomicInteger();
+    // 写线程遇到该标记时关闭连接（按引用比较）
+    private static final byte[] CLOSE_MARKER = new byte[0];
+
+    private final Socket socket;
+    private final SocketResponseSink sink;
+    private final BlockingQueue<byte[]> queue;
+    private final WebSocketSession session;
+    // 握手请求之后已由处理线程读入的字节，读线程先解码这些字节再读取Socket
+    private final byte[] readAhead;
+    private volatile Thread writer;
+    private volatile boolean closed;
+
+    public SocketEventStream(Socket socket, int queueCapacity) {
+        this(socket, queueCapacity, null, new byte[0]);
+    }
+
+    public SocketEventStream(Socket socket, int queueCapacity, WebSocketSession session, byte[] readAhead) {
+        this.socket = socket;
+        this.readAhead = readAhead;
+        this.sink = new SocketResponseSink(socket, ServerMetrics.route(session != null ? "/api/ws" : "/api/stream"));
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.session = session;
+        if (session != null) {
+            session.attach(this);
+        }
+    }
+
+    /**
+     * 写出响应头（或WebSocket握手响应）并启动写线程，WebSocket连接同时启动读线程
+     */
+    @Override
+    public void write(PooledByteBuffer head, ByteBuffer body) throws IOException {
+        sink.write(head, body);
+        int id = THREAD_COUNTER.incrementAndGet();
+        Thread thread = new Thread(this::drain, "EventStream-Writer-" + id);
+        thread.setDaemon(true);
+        writer = thread;
+        thread.start();
+        if (session != null) {
+            Thread reader = new Thread(this::readFrames, "WebSocket-Reader-" + id);
+            reader.setDaemon(true);
+            reader.start();
+        }
+    }
+
+    @Override
+    public boolean offer(ServerEvent event) {
+        return enqueue(session != null ? event.getWebSocketFrame() : event.getSseFrame());
+    }
+
+    @Override
+    public void sendFrame(byte[] frame) {
+        enqueue(frame);
+    }
+
+    @Override
+    public void closeAfterFlush() {
+        if (!closed && !queue.offer(CLOSE_MARKER)) {
+            close();
+        }
+    }
+
+    private boolean enqueue(byte[] frame) {
+        if (closed) return false;
+        if (!queue.offer(frame)) {
+            close();
+            return false;
+        }
+        return true;
+    }
+
+    private void drain() {
+        try {
+            while (!closed) {
+                byte[] frame = queue.take();
+                if (frame == CLOSE_MARKER) break;
+                socket.getOutputStream().write(frame);
+                ServerMetrics.bytesSent(frame.length);
+            }
+        } catch (IOException e) {
+            // 客户端已断开
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            close();
+        }
+    }
+
+    /**
+     * WebSocket读线程：解码客户端帧，文本消息直接在本线程处理
+     */
+    private void readFrames() {
+        PooledByteBuffer readBuffer = PoolManager.getInstance().getHeapByteBuffer();
+        try {
+            InputStream input = socket.getInputStream();
+            ByteBuffer buffer = readBuffer.getBuffer();
+            buffer.clear();
+            buffer.put(readAhead);
+            buffer.flip();
+            while (!closed && !session.isClosing()) {
+                String text = session.poll(buffer);
+                if (text != null) {
+                    session.onText(text);
+                    continue;
+                }
+                buffer.compact();
+                int n = input.read(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+                if (n < 0) {
+                    buffer.flip();
+                    break;
+                }
+                ServerMetrics.bytesReceived(n);
+                buffer.position(buffer.position() + n);
+                buffer.flip();
+            }
+        } catch (IOException e) {
+            // 客户端已断开
+        } finally {
+            PoolManager.getInstance().releaseByteBuffer(readBuffer);
+            if (!session.isClosing()) {
+                close();
+            }
+        }
+    }
+
+    private void close() {
+        closed = true;
+        Thread thread = writer;
+        if (thread != null && thread != Thread.currentThread()) {
+            // 唤醒阻塞在队列上的写线程
+            thread.interrupt();
+        }
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // 忽略关闭异常
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package httpserver;
+
+import httpserver.metrics.ServerMetrics;
+import httpserver.pool.PoolManager;
+import httpserver.pool.PooledByteBuffer;
+import httpserver.pool.ResponseSink;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * 阻塞Socket的响应输出
+ * Socket由ServerSocketChannel接受时带有通道，响应头和响应体通过一次聚集写发出
+ * 每次写出的耗时按当前路由记入write阶段指标，并累计供处理阶段扣除
+ */
+public class SocketResponseSink implements ResponseSink {
+    private final Socket socket;
+    private int route = ServerMetrics.ROUTE_OTHER;
+    // 累计的阻塞写出耗时（纳秒），只由写出线程访问
+    private long writeNanos;
+
+    public SocketResponseSink(Socket socket) {
+        this.socket = socket;
+    }
+
+    public SocketResponseSink(Socket socket, int route) {
+        this.socket = socket;
+        this.route = route;
+    }
+
+    /**
+     * 设置后续响应所属的路由，持久连接上每个请求调用一次
+     */
+    public void setRoute(int route) {
+        this.route = route;
+    }
+
+    public long getWriteNanos() {
+        return writeNanos;
+    }
+
+    @Override
+    public void write(PooledByteBuffer head, ByteBuffer body) throws IOException {
+        long start = System.nanoTime();
+        int bytes = head.remaining() + body.remaining();
+        try {
+            ByteBuffer headBuffer = head.getBuffer();
+            SocketChannel channel = socket.getChannel();
+            if (channel != null && channel.isBlocking()) {
+                ByteBuffer[] buffers = { headBuffer, body };
+                while (headBuffer.hasRemaining() || body.hasRemaining()) {
+                    channel.write(buffers);
+                }
+            } else {
+                OutputStream output = socket.getOutputStream();
+                writeBuffer(output, headBuffer);
+                writeBuffer(output, body);
+                output.flush();
+            }
+            ServerMetrics.bytesSent(bytes);
+        } finally {
+            PoolManager.getInstance().releaseByteBuffer(head);
+            long elapsed = System.nanoTime() - start;
+            writeNanos += elapsed;
+            ServerMetrics.recordPhase(route, ServerMetrics.PHASE_WRITE, elapsed);
+        }
+    }
+
+    private static void writeBuffer(OutputStream output, ByteBuffer buffer) throws IOException {
+        if (buffer.hasArray()) {
+            output.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            buffer.position(buffer.limit());
+        } else {
+            byte[] bytes = new byte[buffer.remaining()];
+            buffer.get(bytes);
+            output.write(bytes);
+        }
+    }
+}
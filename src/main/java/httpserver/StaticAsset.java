@@ -0,0 +1,158 @@
+package httpserver;
+
+import httpserver.log.Logger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.function.Supplier;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 启动时一次性编码的静态资源
+ * 同时保存原始字节和gzip压缩后的字节，ETag由内容摘要生成（gzip版本带-gz后缀，两种编码的强校验值不同）；
+ * 请求时只需选择已编码好的字节数组，不再拼接、编码或压缩。
+ */
+public final class StaticAsset {
+    private static final Logger LOG = Logger.getLogger(StaticAsset.class);
+
+    private final String contentType;
+    private final byte[] identity;
+    // 压缩后不比原始内容小时为null
+    private final byte[] gzip;
+    private final String etag;
+    private final String gzipEtag;
+
+    private StaticAsset(String contentType, byte[] identity) {
+        this.contentType = contentType;
+        this.identity = identity;
+        byte[] compressed = gzip(identity);
+        this.gzip = compressed != null && compressed.length < identity.length ? compressed : null;
+        String digest = digest(identity);
+        this.etag = "\"" + digest + "\"";
+        this.gzipEtag = "\"" + digest + "-gz\"";
+    }
+
+    /**
+     * 优先从类路径加载资源，不存在时使用内置内容
+     */
+    public static StaticAsset load(String resource, String contentType, Supplier<String> fallback) {
+        byte[] content = readResource(resource);
+        if (content != null) {
+            LOG.info("静态资源 {} 从类路径加载，{} 字节", resource, content.length);
+        } else {
+            content = fallback.get().getBytes(StandardCharsets.UTF_8);
+        }
+        StaticAsset asset = new StaticAsset(contentType, content);
+        LOG.info("静态资源 {}：原始 {} 字节，gzip {} 字节", resource, content.length,
+                asset.gzip != null ? asset.gzip.length : "未压缩");
+        return asset;
+    }
+
+    private static byte[] readResource(String resource) {
+        try (InputStream input = StaticAsset.class.getClassLoader().getResourceAsStream(resource)) {
+            if (input == null) return null;
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            byte[] chunk = new byte[8192];
+            int read;
+            while ((read = input.read(chunk)) > 0) {
+                output.write(chunk, 0, read);
+            }
+            return output.toByteArray();
+        } catch (IOException e) {
+            LOG.warn("读取静态资源 {} 失败，使用内置内容：{}", resource, e.getMessage());
+            return null;
+        }
+    }
+
+    private static byte[] gzip(byte[] content) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream(content.length / 2 + 64);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(output) {
+            {
+                // 只在启动时压缩一次，使用最高压缩级别
+                def.setLevel(Deflater.BEST_COMPRESSION);
+            }
+        }) {
+            gzip.write(content);
+        } catch (IOException e) {
+            return null;
+        }
+        return output.toByteArray();
+    }
+
+    private static String digest(byte[] content) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(content);
+            StringBuilder hex = new StringBuilder(32);
+            for (int i = 0; i < 16; i++) {
+                hex.append(Character.forDigit((hash[i] >> 4) & 0xF, 16)).append(Character.forDigit(hash[i] & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("JDK缺少SHA-256实现", e);
+        }
+    }
+
+    /**
+     * If-None-Match中是否包含将要发送的编码版本的ETag；按弱比较，忽略W/前缀
+     * 只比较该版本：缓存了gzip版本的客户端不再接受gzip时，其缓存的字节不能视为有效
+     */
+    public boolean isNotModified(String ifNoneMatch, boolean gzip) {
+        if (ifNoneMatch == null) return false;
+        String current = gzip ? gzipEtag : etag;
+        int start = 0;
+        while (start < ifNoneMatch.length()) {
+            int end = ifNoneMatch.indexOf(',', start);
+            if (end < 0) end = ifNoneMatch.length();
+            String tag = ifNoneMatch.substring(start, end).trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if ("*".equals(tag) || current.equals(tag)) {
+                return true;
+            }
+            start = end + 1;
+        }
+        return false;
+    }
+
+    /**
+     * 客户端是否接受gzip编码：Accept-Encoding中列出gzip（或*）且q值不为0
+     */
+    public boolean acceptsGzip(String acceptEncoding) {
+        if (gzip == null || acceptEncoding == null) return false;
+        int start = 0;
+        while (start < acceptEncoding.length()) {
+            int end = acceptEncoding.indexOf(',', start);
+            if (end < 0) end = acceptEncoding.length();
+            String coding = acceptEncoding.substring(start, end).trim();
+            int semicolon = coding.indexOf(';');
+            String name = semicolon < 0 ? coding : coding.substring(0, semicolon).trim();
+            if ("gzip".equalsIgnoreCase(name) || "x-gzip".equalsIgnoreCase(name) || "*".equals(name)) {
+                return semicolon < 0 || !isZeroQuality(coding.substring(semicolon + 1));
+            }
+            start = end + 1;
+        }
+        return false;
+    }
+
+    private static boolean isZeroQuality(String parameters) {
+        String value = parameters.trim();
+        if (!value.startsWith("q=")) return false;
+        try {
+            return Double.parseDouble(value.substring(2).trim()) == 0;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    public String getContentType() { return contentType; }
+    public byte[] getIdentity() { return identity; }
+    public byte[] getGzip() { return gzip; }
+    public String getEtag() { return etag; }
+    public String getGzipEtag() { return gzipEtag; }
+}
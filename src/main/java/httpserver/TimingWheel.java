@@ -0,0 +1,150 @@
+package httpserver;
+
+import httpserver.log.Logger;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 哈希时间轮，用于大量低精度的超时（空闲会话、空闲连接、长轮询）
+ * 时间被划分为固定长度的刻度，超时按到期刻度散列到环形数组的桶中，超过一圈的记录剩余圈数；
+ * 登记和取消都是O(1)，每个刻度只处理当前桶，与超时总数无关。到期时间精确到一个刻度。
+ * 新登记的超时先放入无锁队列，由时间轮线程在每个刻度开始时移入桶中，桶只由该线程访问；
+ * 取消只修改状态，已取消的超时在轮到其所在桶时被丢弃。
+ * 到期任务在时间轮线程中执行，应当很快完成，耗时操作应转交其他线程。
+ */
+public class TimingWheel implements Runnable {
+    private static final Logger LOG = Logger.getLogger(TimingWheel.class);
+
+    private final long tickNanos;
+    private final Timeout[] buckets;
+    private final int mask;
+    private final long startTime;
+    private final Queue<Timeout> pending = new ConcurrentLinkedQueue<>();
+    private final Thread thread;
+    private volatile boolean running = true;
+    // 当前刻度，只由时间轮线程访问
+    private long tick;
+
+    public TimingWheel(String name, long tickDuration, TimeUnit unit, int wheelSize) {
+        if (tickDuration <= 0 || wheelSize <= 0) {
+            throw new IllegalArgumentException("刻度和时间轮大小必须大于0");
+        }
+        int size = Integer.highestOneBit(wheelSize);
+        if (size < wheelSize) {
+            size <<= 1;
+        }
+        this.tickNanos = unit.toNanos(tickDuration);
+        this.buckets = new Timeout[size];
+        this.mask = size - 1;
+        this.startTime = System.nanoTime();
+        this.thread = new Thread(this, name);
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * 登记一个在delay之后执行的任务，可在任意线程调用
+     */
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        Timeout timeout = new Timeout(task, System.nanoTime() + unit.toNanos(Math.max(0, delay)));
+        pending.add(timeout);
+        return timeout;
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            long deadline = startTime + (tick + 1) * tickNanos;
+            long remaining;
+            while (running && (remaining = deadline - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(this, remaining);
+            }
+            if (!running) break;
+            transferPending();
+            expire((int) (tick & mask));
+            tick++;
+        }
+    }
+
+    /**
+     * 把新登记的超时放入到期刻度对应的桶；已过期的放入当前桶，在本刻度执行
+     */
+    private void transferPending() {
+        Timeout timeout;
+        while ((timeout = pending.poll()) != null) {
+            if (timeout.state != Timeout.WAITING) continue;
+            long expiryTick = Math.max((timeout.deadline - startTime) / tickNanos, tick);
+            timeout.rounds = (expiryTick - tick) / buckets.length;
+            int index = (int) (expiryTick & mask);
+            timeout.next = buckets[index];
+            buckets[index] = timeout;
+        }
+    }
+
+    private void expire(int index) {
+        Timeout timeout = buckets[index];
+        Timeout kept = null;
+        while (timeout != null) {
+            Timeout next = timeout.next;
+            timeout.next = null;
+            if (timeout.state == Timeout.WAITING) {
+                if (timeout.rounds > 0) {
+                    timeout.rounds--;
+                    timeout.next = kept;
+                    kept = timeout;
+                } else if (Timeout.STATE.compareAndSet(timeout, Timeout.WAITING, Timeout.EXPIRED)) {
+                    try {
+                        timeout.task.run();
+                    } catch (RuntimeException e) {
+                        LOG.error("定时任务执行失败", e);
+                    }
+                }
+            }
+            timeout = next;
+        }
+        buckets[index] = kept;
+    }
+
+    public void shutdown() {
+        running = false;
+        LockSupport.unpark(thread);
+    }
+
+    /**
+     * 已登记的超时，可在到期前取消
+     */
+    public static final class Timeout {
+        private static final int WAITING = 0;
+        private static final int CANCELLED = 1;
+        private static final int EXPIRED = 2;
+        private static final AtomicIntegerFieldUpdater<Timeout> STATE =
+            AtomicIntegerFieldUpdater.newUpdater(Timeout.class, "state");
+
+        private final Runnable task;
+        private final long deadline;
+        private volatile int state;
+        // 以下字段只由时间轮线程访问
+        private long rounds;
+        private Timeout next;
+
+        private Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * 取消尚未执行的超时，已执行或已取消时返回false
+         */
+        public boolean cancel() {
+            return STATE.compareAndSet(this, WAITING, CANCELLED);
+        }
+
+        public boolean isExpired() {
+            return state == EXPIRED;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package httpserver.loadgen;
+
+import java.util.Arrays;
+
+/**
+ * 单个接口的延迟样本，只由一个虚拟用户线程写入，结束后合并统计
+ * 每个样本同时记录两种延迟：
+ * - 原始延迟：从请求实际发出到收到响应
+ * - 校正延迟：从按节奏本应发出的时刻到收到响应。服务器变慢时闭环客户端会推迟后续请求，
+ *   只看原始延迟会漏掉这段排队时间（coordinated omission），校正延迟把它计算在内
+ */
+final class LatencyRecorder {
+    private long[] corrected = new long[256];
+    private long[] raw = new long[256];
+    private int count;
+    private long errors;
+
+    void record(long correctedNanos, long rawNanos) {
+        if (count == corrected.length) {
+            corrected = Arrays.copyOf(corrected, count * 2);
+            raw = Arrays.copyOf(raw, count * 2);
+        }
+        corrected[count] = correctedNanos;
+        raw[count] = rawNanos;
+        count++;
+    }
+
+    void recordError() {
+        errors++;
+    }
+
+    void mergeInto(LatencyRecorder target) {
+        for (int i = 0; i < count; i++) {
+            target.record(corrected[i], raw[i]);
+        }
+        target.errors += errors;
+    }
+
+    int getCount() {
+        return count;
+    }
+
+    long getErrors() {
+        return errors;
+    }
+
+    /**
+     * 排序后的样本，corrected为true时返回校正延迟
+     */
+    long[] sorted(boolean correctedSamples) {
+        long[] samples = Arrays.copyOf(correctedSamples ? corrected : raw, count);
+        Arrays.sort(samples);
+        return samples;
+    }
+
+    static long percentile(long[] sorted, double percentile) {
+        if (sorted.length == 0) return 0;
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+}
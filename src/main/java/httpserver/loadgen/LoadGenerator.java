@@ -0,0 +1,117 @@
+package httpserver.loadgen;
+
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 聊天室闭环压测工具，模拟浏览器用户的完整会话：
+ * 加入聊天室、按页面节奏轮询/api/messages和/api/users、按设定频率发言、结束时离开。
+ * 压测期间每5秒打印一次进度，结束后按接口输出吞吐量、错误数以及
+ * 校正延迟与原始延迟的分位数（见LatencyRecorder）
+ */
+public final class LoadGenerator {
+    private static final long PROGRESS_INTERVAL_MS = 5000;
+    private static final double[] PERCENTILES = { 50, 90, 99, 99.9 };
+
+    private LoadGenerator() {
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        LoadOptions options;
+        try {
+            options = LoadOptions.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(LoadOptions.usage());
+            System.exit(1);
+            return;
+        }
+
+        HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofMillis(options.getTimeoutMs()))
+                .build();
+
+        System.out.printf("压测开始: %s, 用户数=%d, 时长=%d秒, 爬坡=%d秒, 轮询间隔=%d毫秒, 发言=%.1f条/分钟/用户%n",
+                options.getBaseUrl(), options.getUsers(), options.getDurationMs() / 1000,
+                options.getRampUpMs() / 1000, options.getPollIntervalMs(), options.getSendRate());
+
+        long begin = System.nanoTime();
+        long measureFrom = begin + TimeUnit.MILLISECONDS.toNanos(options.getWarmupMs());
+        long stopAt = begin + TimeUnit.MILLISECONDS.toNanos(options.getDurationMs());
+        long stagger = TimeUnit.MILLISECONDS.toNanos(options.getRampUpMs()) / options.getUsers();
+        LongAdder completed = new LongAdder();
+        LongAdder failed = new LongAdder();
+
+        List<VirtualUser> users = new ArrayList<>(options.getUsers());
+        List<Thread> threads = new ArrayList<>(options.getUsers());
+        for (int i = 0; i < options.getUsers(); i++) {
+            VirtualUser user = new VirtualUser(i, client, options, begin + i * stagger, measureFrom, stopAt,
+                    completed, failed);
+            Thread thread = new Thread(user, "LoadUser-" + i);
+            thread.setDaemon(true);
+            users.add(user);
+            threads.add(thread);
+            thread.start();
+        }
+
+        long lastCompleted = 0;
+        long lastFailed = 0;
+        while (System.nanoTime() < stopAt) {
+            long sleepMs = Math.min(PROGRESS_INTERVAL_MS, TimeUnit.NANOSECONDS.toMillis(stopAt - System.nanoTime()) + 1);
+            Thread.sleep(sleepMs);
+            long done = completed.sum();
+            long errors = failed.sum();
+            System.out.printf("[%5.0fs] 完成 %d 个请求 (%.0f/s), 错误 %d%n",
+                    (System.nanoTime() - begin) / 1e9, done, (done - lastCompleted) * 1000.0 / sleepMs,
+                    errors - lastFailed);
+            lastCompleted = done;
+            lastFailed = errors;
+        }
+
+        // 等待在途请求完成并离开，最多等一个请求超时
+        long joinDeadline = System.currentTimeMillis() + options.getTimeoutMs() * 2;
+        for (Thread thread : threads) {
+            thread.join(Math.max(1, joinDeadline - System.currentTimeMillis()));
+        }
+
+        double measuredSeconds = Math.max(1, stopAt - Math.max(begin, measureFrom)) / 1e9;
+        printReport(users, measuredSeconds);
+    }
+
+    private static void printReport(List<VirtualUser> users, double measuredSeconds) {
+        System.out.printf("%n=== 压测结果（统计窗口 %.1f 秒，不含预热）===%n", measuredSeconds);
+        for (int action = 0; action < VirtualUser.ACTION_NAMES.length; action++) {
+            LatencyRecorder merged = new LatencyRecorder();
+            for (VirtualUser user : users) {
+                user.getRecorders()[action].mergeInto(merged);
+            }
+            if (merged.getCount() == 0 && merged.getErrors() == 0) continue;
+
+            boolean session = action == VirtualUser.JOIN || action == VirtualUser.LEAVE;
+            System.out.printf("%s: 成功 %d, 错误 %d", VirtualUser.ACTION_NAMES[action], merged.getCount(), merged.getErrors());
+            if (!session) {
+                System.out.printf(", 吞吐量 %.1f/s", merged.getCount() / measuredSeconds);
+            }
+            System.out.println();
+            if (merged.getCount() > 0) {
+                printLatency("  校正延迟", merged.sorted(true));
+                printLatency("  原始延迟", merged.sorted(false));
+            }
+        }
+    }
+
+    private static void printLatency(String label, long[] sorted) {
+        StringBuilder line = new StringBuilder(label).append(" (ms):");
+        for (double p : PERCENTILES) {
+            line.append(String.format(" p%s=%.2f", p == (long) p ? String.valueOf((long) p) : String.valueOf(p),
+                    LatencyRecorder.percentile(sorted, p) / 1e6));
+        }
+        line.append(String.format(" max=%.2f", sorted[sorted.length - 1] / 1e6));
+        System.out.println(line);
+    }
+}
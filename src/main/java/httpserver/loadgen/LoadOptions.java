@@ -0,0 +1,92 @@
+package httpserver.loadgen;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 压测参数，命令行格式为--名称=值
+ * 轮询间隔默认与聊天页面一致（每2秒拉取一次消息和在线用户）
+ */
+final class LoadOptions {
+    private final String host;
+    private final int port;
+    private final int users;
+    private final int rooms;
+    private final long durationMs;
+    private final long rampUpMs;
+    private final long warmupMs;
+    private final long pollIntervalMs;
+    private final double sendRate;
+    private final long timeoutMs;
+
+    private LoadOptions(Map<String, String> values) {
+        this.host = values.getOrDefault("host", "localhost");
+        this.port = Integer.parseInt(values.getOrDefault("port", "8999"));
+        this.users = Integer.parseInt(values.getOrDefault("users", "100"));
+        this.rooms = Integer.parseInt(values.getOrDefault("rooms", "1"));
+        this.durationMs = seconds(values.getOrDefault("duration", "60"));
+        this.rampUpMs = seconds(values.getOrDefault("rampUp", "10"));
+        this.warmupMs = seconds(values.getOrDefault("warmup", values.getOrDefault("rampUp", "10")));
+        this.pollIntervalMs = Long.parseLong(values.getOrDefault("pollInterval", "2000"));
+        this.sendRate = Double.parseDouble(values.getOrDefault("sendRate", "6"));
+        this.timeoutMs = Long.parseLong(values.getOrDefault("timeout", "10000"));
+        if (users <= 0 || rooms <= 0 || durationMs <= 0 || pollIntervalMs <= 0 || sendRate < 0 || timeoutMs <= 0) {
+            throw new IllegalArgumentException("参数超出范围");
+        }
+    }
+
+    static LoadOptions parse(String[] args) {
+        Map<String, String> values = new HashMap<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (!arg.startsWith("--") || eq < 0) {
+                throw new IllegalArgumentException("无法识别的参数: " + arg);
+            }
+            values.put(arg.substring(2, eq), arg.substring(eq + 1));
+        }
+        return new LoadOptions(values);
+    }
+
+    static String usage() {
+        return "用法: java -cp chat-server.jar httpserver.loadgen.LoadGenerator [--名称=值 ...]\n"
+                + "  --host=localhost      服务器地址\n"
+                + "  --port=8999           服务器端口\n"
+                + "  --users=100           虚拟用户数\n"
+                + "  --rooms=1             用户轮流分配到的房间数，1为全部进入默认房间\n"
+                + "  --duration=60         压测时长（秒，含爬坡）\n"
+                + "  --rampUp=10           在该时间内（秒）逐个加入用户\n"
+                + "  --warmup=<rampUp>     前若干秒的样本不计入统计\n"
+                + "  --pollInterval=2000   每个用户轮询消息和在线用户的间隔（毫秒）\n"
+                + "  --sendRate=6          每个用户每分钟发送的消息数，0为只读\n"
+                + "  --timeout=10000       单个请求的超时（毫秒）";
+    }
+
+    private static long seconds(String value) {
+        return (long) (Double.parseDouble(value) * 1000);
+    }
+
+    String getBaseUrl() {
+        return "http://" + host + ":" + port;
+    }
+
+    int getUsers() { return users; }
+    int getRooms() { return rooms; }
+    long getDurationMs() { return durationMs; }
+    long getRampUpMs() { return rampUpMs; }
+    long getWarmupMs() { return warmupMs; }
+    long getPollIntervalMs() { return pollIntervalMs; }
+    double getSendRate() { return sendRate; }
+    long getTimeoutMs() { return timeoutMs; }
+
+    long pollIntervalNanos() {
+        return TimeUnit.MILLISECONDS.toNanos(pollIntervalMs);
+    }
+
+    /**
+     * 每个用户两次发言的间隔，不发言时为0
+     */
+    long sendIntervalNanos() {
+        return sendRate > 0 ? (long) (TimeUnit.MINUTES.toNanos(1) / sendRate) : 0;
+    }
+}
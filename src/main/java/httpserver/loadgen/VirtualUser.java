@@ -0,0 +1,206 @@
+package httpserver.loadgen;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 一个虚拟浏览器用户：加入聊天室，按页面节奏轮询消息和在线用户，按设定频率发言，结束时离开
+ * 闭环执行：同一用户的请求依次发出，上一个完成后才发下一个。每个动作按固定节奏排定计划时刻，
+ * 响应变慢导致错过的时刻不会顺延，校正延迟从计划时刻算起
+ */
+final class VirtualUser implements Runnable {
+    static final int JOIN = 0;
+    static final int MESSAGES = 1;
+    static final int USERS = 2;
+    static final int SEND = 3;
+    static final int LEAVE = 4;
+    static final String[] ACTION_NAMES = { "POST /api/join", "GET /api/messages", "GET /api/users", "POST /api/send", "POST /api/leave" };
+
+    private static final Pattern USER_ID = Pattern.compile("\"userId\"\\s*:\\s*\"([^\"]+)\"");
+    private static final String SEQ_FIELD = "\"seq\":";
+
+    private final int id;
+    private final HttpClient client;
+    private final LoadOptions options;
+    private final long startAt;
+    private final long measureFrom;
+    private final long stopAt;
+    private final LongAdder completed;
+    private final LongAdder failed;
+    private final LatencyRecorder[] recorders = new LatencyRecorder[ACTION_NAMES.length];
+    // 所在房间，只有一个房间时为null（默认房间）
+    private final String room;
+    private String userId;
+    private String username;
+    private long lastSeq;
+    private int sent;
+
+    VirtualUser(int id, HttpClient client, LoadOptions options, long startAt, long measureFrom, long stopAt,
+                LongAdder completed, LongAdder failed) {
+        this.id = id;
+        this.client = client;
+        this.options = options;
+        this.startAt = startAt;
+        this.measureFrom = measureFrom;
+        this.stopAt = stopAt;
+        this.completed = completed;
+        this.failed = failed;
+        this.room = options.getRooms() > 1 ? "load-" + (id % options.getRooms()) : null;
+        for (int i = 0; i < recorders.length; i++) {
+            recorders[i] = new LatencyRecorder();
+        }
+    }
+
+    @Override
+    public void run() {
+        sleepUntil(startAt);
+        username = "load-" + id + "-" + Long.toHexString(ThreadLocalRandom.current().nextLong() & 0xffffffL);
+        if (!perform(JOIN, startAt) || userId == null) {
+            return;
+        }
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long pollInterval = options.pollIntervalNanos();
+        long sendInterval = options.sendIntervalNanos();
+        // 随机初始相位，避免所有用户同时发请求
+        long now = System.nanoTime();
+        long nextPoll = now + (long) (random.nextDouble() * pollInterval);
+        long nextSend = sendInterval > 0 ? now + (long) (random.nextDouble() * sendInterval) : Long.MAX_VALUE;
+        boolean pollUsersNext = false;
+
+        while (true) {
+            boolean sendNow = nextSend < nextPoll;
+            long intended = sendNow ? nextSend : nextPoll;
+            if (intended >= stopAt) break;
+            sleepUntil(intended);
+            if (sendNow) {
+                perform(SEND, intended);
+                nextSend += sendInterval;
+            } else {
+                // 页面在同一个定时器中先拉消息再拉用户列表：用户列表请求在消息请求完成后才发出，
+                // 其计划时刻取消息请求的完成时刻，否则消息请求的往返时间会被计入用户列表的校正延迟
+                perform(MESSAGES, intended);
+                perform(USERS, System.nanoTime());
+                nextPoll += pollInterval;
+            }
+        }
+        perform(LEAVE, System.nanoTime());
+    }
+
+    /**
+     * 执行一个动作并记录结果，intended为该动作的计划时刻
+     */
+    private boolean perform(int action, long intended) {
+        long begin = System.nanoTime();
+        boolean ok;
+        try {
+            ok = execute(action);
+        } catch (Exception e) {
+            ok = false;
+        }
+        long end = System.nanoTime();
+        if (!ok) {
+            failed.increment();
+        } else {
+            completed.increment();
+        }
+        if (intended >= measureFrom || action == JOIN || action == LEAVE) {
+            if (ok) {
+                recorders[action].record(end - intended, end - begin);
+            } else {
+                recorders[action].recordError();
+            }
+        }
+        return ok;
+    }
+
+    private boolean execute(int action) throws Exception {
+        HttpRequest request;
+        switch (action) {
+            case JOIN:
+                request = post("/api/join", "{\"username\":\"" + username + "\"}");
+                break;
+            case MESSAGES:
+                request = get((lastSeq > 0 ? "/api/messages?since=" + lastSeq + "&" : "/api/messages?") + "userId=" + userId);
+                break;
+            case USERS:
+                request = get("/api/users?userId=" + userId);
+                break;
+            case SEND:
+                request = post("/api/send", "{\"userId\":\"" + userId + "\",\"username\":\"" + username
+                        + "\",\"content\":\"压测消息 " + (++sent) + " 来自 " + username + "\"}");
+                break;
+            default:
+                request = post("/api/leave", "{\"userId\":\"" + userId + "\"}");
+                break;
+        }
+        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() / 100 != 2) {
+            return false;
+        }
+        if (action == JOIN) {
+            Matcher matcher = USER_ID.matcher(response.body());
+            userId = matcher.find() ? matcher.group(1) : null;
+        } else if (action == MESSAGES) {
+            updateLastSeq(response.body());
+        }
+        return true;
+    }
+
+    /**
+     * 与页面一样只拉取新消息：从响应中取最大的seq作为下次的since
+     */
+    private void updateLastSeq(String body) {
+        int index = body.lastIndexOf(SEQ_FIELD);
+        if (index < 0) return;
+        int start = index + SEQ_FIELD.length();
+        int end = start;
+        while (end < body.length() && Character.isDigit(body.charAt(end))) {
+            end++;
+        }
+        if (end > start) {
+            lastSeq = Math.max(lastSeq, Long.parseLong(body.substring(start, end)));
+        }
+    }
+
+    private HttpRequest get(String path) {
+        return HttpRequest.newBuilder(uri(path))
+                .timeout(Duration.ofMillis(options.getTimeoutMs()))
+                .GET()
+                .build();
+    }
+
+    private HttpRequest post(String path, String json) {
+        return HttpRequest.newBuilder(uri(path))
+                .timeout(Duration.ofMillis(options.getTimeoutMs()))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(json))
+                .build();
+    }
+
+    private URI uri(String path) {
+        if (room != null) {
+            path += (path.indexOf('?') >= 0 ? "&room=" : "?room=") + room;
+        }
+        return URI.create(options.getBaseUrl() + path);
+    }
+
+    private static void sleepUntil(long deadline) {
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remaining);
+        }
+    }
+
+    LatencyRecorder[] getRecorders() {
+        return recorders;
+    }
+}
@@ -0,0 +1,227 @@
+package httpserver.log;
+
+import java.io.BufferedWriter;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 异步日志写出器
+ * 请求线程只在有界环形队列中CAS占一个预分配的槽位并填入字段，不加锁、不格式化、不做I/O；
+ * 后台线程批量取出记录，格式化后写入缓冲区，每批只刷新一次输出。
+ * 队列满时丢弃新记录并计数，日志永远不会阻塞请求处理。
+ */
+final class AsyncLogWriter implements Runnable {
+    private static final DateTimeFormatter TIME_FORMAT =
+        DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS").withZone(ZoneId.systemDefault());
+    // 队列为空时写出线程的最长休眠时间
+    private static final long MAX_IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+    private static final int MAX_BATCH = 1024;
+
+    private final LogRecord[] slots;
+    // 槽位序号：等于位置时可写，等于位置+1时可读（有界多生产者队列）
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    // 只由写出线程访问
+    private long head;
+    private final LongAdder dropped = new LongAdder();
+    private long reportedDropped;
+
+    private final Writer out;
+    private final StringBuilder line = new StringBuilder(256);
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    AsyncLogWriter(int capacity, String file) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.slots = new LogRecord[size];
+        this.sequences = new AtomicLongArray(size);
+        this.mask = size - 1;
+        for (int i = 0; i < size; i++) {
+            slots[i] = new LogRecord();
+            sequences.set(i, i);
+        }
+        this.out = new BufferedWriter(new OutputStreamWriter(open(file), StandardCharsets.UTF_8), 64 * 1024);
+        this.thread = new Thread(this, "AsyncLogWriter");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    private static FileOutputStream open(String file) {
+        if (file != null) {
+            try {
+                return new FileOutputStream(file, true);
+            } catch (IOException e) {
+                System.err.println("无法打开日志文件 " + file + "，改为输出到控制台：" + e.getMessage());
+            }
+        }
+        return new FileOutputStream(FileDescriptor.out);
+    }
+
+    /**
+     * 入队一条日志，队列已满时丢弃并返回false
+     */
+    boolean offer(LogLevel level, String logger, String template,
+                  Object arg0, Object arg1, Object arg2, Throwable thrown) {
+        long position = tail.get();
+        int index;
+        while (true) {
+            index = (int) (position & mask);
+            long difference = sequences.get(index) - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) break;
+                position = tail.get();
+            } else if (difference < 0) {
+                dropped.increment();
+                return false;
+            } else {
+                position = tail.get();
+            }
+        }
+        LogRecord record = slots[index];
+        record.timestamp = System.currentTimeMillis();
+        record.level = level;
+        record.logger = logger;
+        record.thread = Thread.currentThread().getName();
+        record.template = template;
+        record.arg0 = arg0;
+        record.arg1 = arg1;
+        record.arg2 = arg2;
+        record.thrown = thrown;
+        sequences.set(index, position + 1);
+        return true;
+    }
+
+    @Override
+    public void run() {
+        long idleNanos = 1000;
+        while (running) {
+            if (drain() > 0) {
+                idleNanos = 1000;
+            } else {
+                // 空闲时逐步延长休眠，生产者无需唤醒写出线程
+                LockSupport.parkNanos(idleNanos);
+                idleNanos = Math.min(idleNanos * 2, MAX_IDLE_NANOS);
+            }
+        }
+        drain();
+    }
+
+    /**
+     * 取出并写出当前所有记录，每批刷新一次
+     */
+    private int drain() {
+        int total = 0;
+        int batch;
+        do {
+            batch = 0;
+            while (batch < MAX_BATCH) {
+                int index = (int) (head & mask);
+                if (sequences.get(index) != head + 1) break;
+                LogRecord record = slots[index];
+                write(record);
+                record.clear();
+                sequences.set(index, head + slots.length);
+                head++;
+                batch++;
+            }
+            total += batch;
+        } while (batch == MAX_BATCH);
+
+        long droppedNow = dropped.sum();
+        if (droppedNow != reportedDropped) {
+            writeRaw("日志队列已满，丢弃 " + (droppedNow - reportedDropped) + " 条日志");
+            reportedDropped = droppedNow;
+            total++;
+        }
+        if (total > 0) {
+            try {
+                out.flush();
+            } catch (IOException e) {
+                // 输出不可用时无处报告，忽略
+            }
+        }
+        return total;
+    }
+
+    private void write(LogRecord record) {
+        line.setLength(0);
+        TIME_FORMAT.formatTo(Instant.ofEpochMilli(record.timestamp), line);
+        line.append(' ').append(record.level.name());
+        for (int i = record.level.name().length(); i < 5; i++) {
+            line.append(' ');
+        }
+        line.append(" [").append(record.thread).append("] ").append(record.logger).append(" - ");
+        format(record);
+        line.append(System.lineSeparator());
+        if (record.thrown != null) {
+            StringWriter trace = new StringWriter();
+            record.thrown.printStackTrace(new PrintWriter(trace));
+            line.append(trace);
+        }
+        try {
+            out.append(line);
+        } catch (IOException e) {
+            // 输出不可用时无处报告，忽略
+        }
+    }
+
+    /**
+     * 依次用参数替换模板中的{}
+     */
+    private void format(LogRecord record) {
+        String template = record.template;
+        int argument = 0;
+        int start = 0;
+        int placeholder;
+        while (argument < 3 && (placeholder = template.indexOf("{}", start)) >= 0) {
+            line.append(template, start, placeholder);
+            line.append(argument == 0 ? record.arg0 : argument == 1 ? record.arg1 : record.arg2);
+            argument++;
+            start = placeholder + 2;
+        }
+        line.append(template, start, template.length());
+    }
+
+    private void writeRaw(String message) {
+        line.setLength(0);
+        TIME_FORMAT.formatTo(Instant.now(), line);
+        line.append(" WARN  [").append(thread.getName()).append("] ").append(message).append(System.lineSeparator());
+        try {
+            out.append(line);
+        } catch (IOException e) {
+            // 输出不可用时无处报告，忽略
+        }
+    }
+
+    long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    /**
+     * 停止写出线程，写完队列中剩余的记录
+     */
+    void shutdown() {
+        running = false;
+        LockSupport.unpark(thread);
+        try {
+            thread.join(2000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
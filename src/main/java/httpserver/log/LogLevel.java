@@ -0,0 +1,21 @@
+package httpserver.log;
+
+/**
+ * 日志级别，按严重程度递增
+ */
+public enum LogLevel {
+    DEBUG, INFO, WARN, ERROR;
+
+    /**
+     * 按名称解析级别（不区分大小写），无法识别时返回defaultLevel
+     */
+    public static LogLevel parse(String name, LogLevel defaultLevel) {
+        if (name == null) return defaultLevel;
+        for (LogLevel level : values()) {
+            if (level.name().equalsIgnoreCase(name.trim())) {
+                return level;
+            }
+        }
+        return defaultLevel;
+    }
+}
@@ -0,0 +1,27 @@
+package httpserver.log;
+
+/**
+ * 日志队列中的一个槽位，启动时一次性分配并循环复用
+ * 由生产者线程填充，写出线程格式化后清空；参数在写出线程才转换为字符串
+ */
+final class LogRecord {
+    long timestamp;
+    LogLevel level;
+    String logger;
+    String thread;
+    String template;
+    Object arg0;
+    Object arg1;
+    Object arg2;
+    Throwable thrown;
+
+    void clear() {
+        logger = null;
+        thread = null;
+        template = null;
+        arg0 = null;
+        arg1 = null;
+        arg2 = null;
+        thrown = null;
+    }
+}
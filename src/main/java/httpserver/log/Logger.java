@@ -0,0 +1,98 @@
+package httpserver.log;
+
+import httpserver.ServerConfig;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 日志记录器，所有记录交给同一个异步写出器输出
+ * 消息模板使用{}占位，最多3个参数，参数在写出线程才转换为字符串，应传入不可变的值；
+ * 低于当前级别或未被采样的调用在入队前直接返回，不产生任何开销。
+ * 例如：LOG.info("用户 {} 加入聊天室，当前在线用户数：{}", username, count)
+ */
+public final class Logger {
+    private static final LogLevel LEVEL = LogLevel.parse(ServerConfig.LOG_LEVEL, LogLevel.INFO);
+    private static final AsyncLogWriter WRITER =
+        new AsyncLogWriter(ServerConfig.LOG_QUEUE_CAPACITY, ServerConfig.LOG_FILE);
+    private static final Map<String, Logger> LOGGERS = new ConcurrentHashMap<>();
+
+    private final String name;
+    // 每samplingInterval次调用记录一次，1为全部记录
+    private final int samplingInterval;
+
+    private Logger(String name, int samplingInterval) {
+        this.name = name;
+        this.samplingInterval = Math.max(1, samplingInterval);
+    }
+
+    public static Logger getLogger(Class<?> type) {
+        return getLogger(type.getSimpleName());
+    }
+
+    public static Logger getLogger(String name) {
+        return LOGGERS.computeIfAbsent(name, key -> new Logger(key, 1));
+    }
+
+    /**
+     * 按1/interval采样记录的同名记录器，用于每个连接都会产生的日志，WARN及以上级别不采样
+     */
+    public Logger sampled(int interval) {
+        return new Logger(name, interval);
+    }
+
+    public boolean isEnabled(LogLevel level) {
+        return level.compareTo(LEVEL) >= 0;
+    }
+
+    public boolean isDebugEnabled() {
+        return isEnabled(LogLevel.DEBUG);
+    }
+
+    public void debug(String message) { log(LogLevel.DEBUG, message, null, null, null, null); }
+    public void debug(String message, Object arg) { log(LogLevel.DEBUG, message, arg, null, null, null); }
+    public void debug(String message, Object arg0, Object arg1) { log(LogLevel.DEBUG, message, arg0, arg1, null, null); }
+    public void debug(String message, Object arg0, Object arg1, Object arg2) { log(LogLevel.DEBUG, message, arg0, arg1, arg2, null); }
+
+    public void info(String message) { log(LogLevel.INFO, message, null, null, null, null); }
+    public void info(String message, Object arg) { log(LogLevel.INFO, message, arg, null, null, null); }
+    public void info(String message, Object arg0, Object arg1) { log(LogLevel.INFO, message, arg0, arg1, null, null); }
+    public void info(String message, Object arg0, Object arg1, Object arg2) { log(LogLevel.INFO, message, arg0, arg1, arg2, null); }
+
+    public void warn(String message) { log(LogLevel.WARN, message, null, null, null, null); }
+    public void warn(String message, Object arg) { log(LogLevel.WARN, message, arg, null, null, null); }
+    public void warn(String message, Object arg0, Object arg1) { log(LogLevel.WARN, message, arg0, arg1, null, null); }
+    public void warn(String message, Object arg0, Object arg1, Object arg2) { log(LogLevel.WARN, message, arg0, arg1, arg2, null); }
+    public void warn(String message, Throwable thrown) { log(LogLevel.WARN, message, null, null, null, thrown); }
+    public void warn(String message, Object arg0, Object arg1, Object arg2, Throwable thrown) { log(LogLevel.WARN, message, arg0, arg1, arg2, thrown); }
+
+    public void error(String message) { log(LogLevel.ERROR, message, null, null, null, null); }
+    public void error(String message, Object arg) { log(LogLevel.ERROR, message, arg, null, null, null); }
+    public void error(String message, Object arg0, Object arg1) { log(LogLevel.ERROR, message, arg0, arg1, null, null); }
+    public void error(String message, Object arg0, Object arg1, Object arg2) { log(LogLevel.ERROR, message, arg0, arg1, arg2, null); }
+    public void error(String message, Throwable thrown) { log(LogLevel.ERROR, message, null, null, null, thrown); }
+
+    private void log(LogLevel level, String message, Object arg0, Object arg1, Object arg2, Throwable thrown) {
+        if (!isEnabled(level)) return;
+        if (samplingInterval > 1 && level.compareTo(LogLevel.WARN) < 0
+                && ThreadLocalRandom.current().nextInt(samplingInterval) != 0) {
+            return;
+        }
+        WRITER.offer(level, name, message, arg0, arg1, arg2, thrown);
+    }
+
+    /**
+     * 因队列已满被丢弃的日志条数
+     */
+    public static long getDroppedCount() {
+        return WRITER.getDroppedCount();
+    }
+
+    /**
+     * 写完队列中剩余的日志并停止写出线程，在JVM关闭钩子的最后调用
+     */
+    public static void shutdown() {
+        WRITER.shutdown();
+    }
+}
@@ -0,0 +1,70 @@
+package httpserver.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 固定分桶的延迟直方图
+ * 记录时只做一次分桶查找和两次LongAdder累加，不分配对象；各线程累加到LongAdder的不同单元，争用很低。
+ * 读取时逐个求和，得到的是近似一致的快照，足够用于监控。
+ */
+public final class LatencyHistogram {
+    // 桶上界（纳秒），10微秒到10秒，约按1-2.5-5递增
+    static final long[] BOUNDS_NANOS = {
+        10_000L, 25_000L, 50_000L, 100_000L, 250_000L, 500_000L,
+        1_000_000L, 2_500_000L, 5_000_000L, 10_000_000L, 25_000_000L, 50_000_000L,
+        100_000_000L, 250_000_000L, 500_000_000L,
+        1_000_000_000L, 2_500_000_000L, 5_000_000_000L, 10_000_000_000L
+    };
+    // 与BOUNDS_NANOS对应的Prometheus le标签（秒）
+    static final String[] BOUND_LABELS = {
+        "1e-05", "2.5e-05", "5e-05", "0.0001", "0.00025", "0.0005",
+        "0.001", "0.0025", "0.005", "0.01", "0.025", "0.05",
+        "0.1", "0.25", "0.5",
+        "1", "2.5", "5", "10"
+    };
+
+    // 最后一个桶为+Inf
+    private final LongAdder[] buckets = new LongAdder[BOUNDS_NANOS.length + 1];
+    private final LongAdder sumNanos = new LongAdder();
+
+    public LatencyHistogram() {
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    public void record(long nanos) {
+        if (nanos < 0) nanos = 0;
+        int i = 0;
+        while (i < BOUNDS_NANOS.length && nanos > BOUNDS_NANOS[i]) {
+            i++;
+        }
+        buckets[i].increment();
+        sumNanos.add(nanos);
+    }
+
+    /**
+     * 按Prometheus直方图格式写出累计桶计数、总和与次数
+     */
+    void writeTo(StringBuilder out, String name, String labels) {
+        long cumulative = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            cumulative += buckets[i].sum();
+            out.append(name).append("_bucket{").append(labels).append(",le=\"")
+               .append(i < BOUND_LABELS.length ? BOUND_LABELS[i] : "+Inf").append("\"} ")
+               .append(cumulative).append('\n');
+        }
+        out.append(name).append("_sum{").append(labels).append("} ")
+           .append(sumNanos.sum() / 1e9).append('\n');
+        out.append(name).append("_count{").append(labels).append("} ")
+           .append(cumulative).append('\n');
+    }
+
+    public long getCount() {
+        long count = 0;
+        for (LongAdder bucket : buckets) {
+            count += bucket.sum();
+        }
+        return count;
+    }
+}
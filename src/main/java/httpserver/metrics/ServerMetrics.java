@@ -0,0 +1,165 @@
+package httpserver.metrics;
+
+import httpserver.AdmissionController;
+import httpserver.ChatServer;
+import httpserver.pool.LeakDetector;
+import httpserver.pool.MemoryPool;
+import httpserver.pool.PoolManager;
+import httpserver.pool.SlabAllocator;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 服务器运行指标，以Prometheus文本格式从/metrics导出
+ * 请求路径上的记录只涉及预先创建好的直方图和LongAdder，不分配对象；
+ * 路由限定为已知路径加other，避免标签基数随请求增长。
+ * 在线用户、执行器队列、内存池等状态量在导出时直接读取。
+ */
+public final class ServerMetrics {
+    public static final int PHASE_PARSE = 0;
+    public static final int PHASE_HANDLE = 1;
+    public static final int PHASE_WRITE = 2;
+    private static final String[] PHASES = { "parse", "handle", "write" };
+
+    private static final String[] ROUTES = {
+        "/", "/api/messages", "/api/messages/wait", "/api/users", "/api/stream", "/api/ws",
+        "/api/join", "/api/send", "/api/leave", "/metrics", "other"
+    };
+    public static final int ROUTE_OTHER = ROUTES.length - 1;
+    private static final Map<String, Integer> ROUTE_INDEX = new HashMap<>();
+
+    private static final LatencyHistogram[][] PHASE_HISTOGRAMS = new LatencyHistogram[ROUTES.length][PHASES.length];
+    private static final LongAdder BYTES_RECEIVED = new LongAdder();
+    private static final LongAdder BYTES_SENT = new LongAdder();
+    private static final LongAdder MESSAGES = new LongAdder();
+
+    static {
+        for (int route = 0; route < ROUTES.length; route++) {
+            ROUTE_INDEX.put(ROUTES[route], route);
+            for (int phase = 0; phase < PHASES.length; phase++) {
+                PHASE_HISTOGRAMS[route][phase] = new LatencyHistogram();
+            }
+        }
+    }
+
+    private ServerMetrics() {
+    }
+
+    /**
+     * 路径对应的路由编号，未知路径归入other
+     */
+    public static int route(String uri) {
+        Integer index = uri != null ? ROUTE_INDEX.get(uri) : null;
+        return index != null ? index : ROUTE_OTHER;
+    }
+
+    public static void recordPhase(int route, int phase, long nanos) {
+        PHASE_HISTOGRAMS[route][phase].record(nanos);
+    }
+
+    public static void bytesReceived(long bytes) {
+        BYTES_RECEIVED.add(bytes);
+    }
+
+    public static void bytesSent(long bytes) {
+        BYTES_SENT.add(bytes);
+    }
+
+    public static void messagePublished() {
+        MESSAGES.increment();
+    }
+
+    /**
+     * 渲染Prometheus文本格式（0.0.4）
+     */
+    public static String render() {
+        StringBuilder out = new StringBuilder(64 * 1024);
+
+        out.append("# HELP chat_http_request_phase_seconds 请求各阶段耗时：parse为解析，handle为处理（不含阻塞写出），write为写出\n");
+        out.append("# TYPE chat_http_request_phase_seconds histogram\n");
+        for (int route = 0; route < ROUTES.length; route++) {
+            for (int phase = 0; phase < PHASES.length; phase++) {
+                String labels = "route=\"" + ROUTES[route] + "\",phase=\"" + PHASES[phase] + "\"";
+                PHASE_HISTOGRAMS[route][phase].writeTo(out, "chat_http_request_phase_seconds", labels);
+            }
+        }
+
+        counter(out, "chat_http_received_bytes_total", "从客户端读取的字节数", BYTES_RECEIVED.sum());
+        counter(out, "chat_http_sent_bytes_total", "写出到客户端的字节数（含事件流）", BYTES_SENT.sum());
+        counter(out, "chat_messages_total", "广播的消息数（含系统消息）", MESSAGES.sum());
+        gauge(out, "chat_users_online", "所有房间的在线用户数", ChatServer.getOnlineUserCount());
+        gauge(out, "chat_rooms", "内存中的房间数", ChatServer.getRoomCount());
+
+        gauge(out, "chat_executor_queue_depth", "处理线程池中排队的任务数", ChatServer.getHandlerQueueDepth());
+        gauge(out, "chat_executor_active_threads", "正在执行任务的处理线程数", ChatServer.getActiveHandlerCount());
+        AdmissionController admission = ChatServer.getAdmissionController();
+        if (admission != null) {
+            gauge(out, "chat_admission_in_flight", "已接纳且尚未完成的请求数", admission.getInFlight());
+            gauge(out, "chat_admission_capacity", "低优先级请求的在途上限", admission.getCapacity());
+            counter(out, "chat_admission_admitted_total", "已接纳的任务数", admission.getAdmittedCount());
+            out.append("# HELP chat_admission_rejected_total 因过载被拒绝的任务数\n");
+            out.append("# TYPE chat_admission_rejected_total counter\n");
+            out.append("chat_admission_rejected_total{priority=\"high\"} ").append(admission.getShedHighCount()).append('\n');
+            out.append("chat_admission_rejected_total{priority=\"low\"} ").append(admission.getShedLowCount()).append('\n');
+        }
+
+        writePoolMetrics(out, PoolManager.getInstance());
+        return out.toString();
+    }
+
+    private static void writePoolMetrics(StringBuilder out, PoolManager poolManager) {
+        Iterable<MemoryPool.PoolStats> stats = poolManager.getPoolStats();
+        poolSeries(out, stats, "chat_pool_idle_objects", "gauge", "池中可供取用的空闲对象数", 0);
+        poolSeries(out, stats, "chat_pool_target_objects", "gauge", "池当前保留的空闲对象上限", 1);
+        poolSeries(out, stats, "chat_pool_max_objects", "gauge", "池保留容量的硬上限", 2);
+        poolSeries(out, stats, "chat_pool_created_total", "counter", "池新建的对象数", 3);
+        poolSeries(out, stats, "chat_pool_reused_total", "counter", "池复用的对象数", 4);
+
+        SlabAllocator slab = poolManager.getSlabAllocator();
+        gauge(out, "chat_slab_reserved_bytes", "slab已申请的直接内存字节数", slab.getReservedBytes());
+        gauge(out, "chat_slab_budget_bytes", "slab可申请的直接内存上限", slab.getBudget());
+        counter(out, "chat_slab_budget_fallbacks_total", "超出预算改用堆缓冲区的次数", slab.getBudgetFallbackCount());
+        counter(out, "chat_slab_reclaimed_bytes_total", "slab被GC回收后归还的预算字节数", slab.getReclaimedBytes());
+        counter(out, "chat_slab_oversized_total", "超过最大规格的缓冲区请求数", slab.getOversizedCount());
+
+        LeakDetector leakDetector = poolManager.getLeakDetector();
+        if (leakDetector != null) {
+            counter(out, "chat_pool_leaks_total", "未归还即被回收的池对象数（采样）", leakDetector.getLeakCount());
+            counter(out, "chat_pool_double_releases_total", "重复归还次数（采样）", leakDetector.getDoubleReleaseCount());
+            counter(out, "chat_pool_use_after_release_total", "归还后仍被使用的次数（采样）", leakDetector.getUseAfterReleaseCount());
+        }
+    }
+
+    private static void poolSeries(StringBuilder out, Iterable<MemoryPool.PoolStats> stats,
+                                   String name, String type, String help, int field) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        for (MemoryPool.PoolStats pool : stats) {
+            long value;
+            switch (field) {
+                case 0: value = pool.getCurrentSize(); break;
+                case 1: value = pool.getTargetSize(); break;
+                case 2: value = pool.getMaxSize(); break;
+                case 3: value = pool.getTotalCreated(); break;
+                default: value = pool.getTotalReused(); break;
+            }
+            out.append(name).append("{pool=\"").append(pool.getPoolName()).append("\"} ").append(value).append('\n');
+        }
+    }
+
+    private static void counter(StringBuilder out, String name, String help, long value) {
+        sample(out, name, "counter", help, value);
+    }
+
+    private static void gauge(StringBuilder out, String name, String help, long value) {
+        sample(out, name, "gauge", help, value);
+    }
+
+    private static void sample(StringBuilder out, String name, String type, String help, long value) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        out.append(name).append(' ').append(value).append('\n');
+    }
+}
@@ -9,4 +9,5 @@ public class ChatMessage {
     private String content;     // 消息内容
     private long timestamp;     // 时间戳
     private String userId;      // 用户ID
+    private long seq;           // 服务器分配的单调递增序号
 }
\ No newline at end of file
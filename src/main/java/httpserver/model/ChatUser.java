@@ -6,7 +6,7 @@ import lombok.Data;
 public class ChatUser {
     private String userId;      // 用户唯一ID
     private String username;    // 用户名
-    private long lastActivity;  // 最后活动时间
+    private volatile long lastActivity;  // 最后活动时间，由请求线程刷新、空闲检查读取
     
     public ChatUser(String userId, String username) {
         this.userId = userId;
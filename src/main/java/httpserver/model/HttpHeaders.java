@@ -0,0 +1,172 @@
+package httpserver.model;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * 请求头集合
+ * 解析时只复制原始字节，头部值在被读取时才解码为字符串；常用头部名称使用共享的常量
+ */
+public class HttpHeaders {
+    public static final String HOST = "Host";
+    public static final String CONTENT_LENGTH = "Content-Length";
+    public static final String CONTENT_TYPE = "Content-Type";
+    public static final String CONNECTION = "Connection";
+    public static final String TRANSFER_ENCODING = "Transfer-Encoding";
+    public static final String USER_AGENT = "User-Agent";
+    public static final String ACCEPT = "Accept";
+    public static final String ACCEPT_ENCODING = "Accept-Encoding";
+    public static final String ACCEPT_LANGUAGE = "Accept-Language";
+    public static final String IF_NONE_MATCH = "If-None-Match";
+    public static final String CACHE_CONTROL = "Cache-Control";
+    public static final String ORIGIN = "Origin";
+    public static final String REFERER = "Referer";
+    public static final String COOKIE = "Cookie";
+    public static final String UPGRADE = "Upgrade";
+    public static final String SEC_WEBSOCKET_KEY = "Sec-WebSocket-Key";
+    public static final String SEC_WEBSOCKET_VERSION = "Sec-WebSocket-Version";
+    public static final String LAST_EVENT_ID = "Last-Event-ID";
+
+    private static final String[] KNOWN_NAMES = {
+        HOST, CONTENT_LENGTH, CONTENT_TYPE, CONNECTION, TRANSFER_ENCODING, USER_AGENT,
+        ACCEPT, ACCEPT_ENCODING, ACCEPT_LANGUAGE, IF_NONE_MATCH, CACHE_CONTROL, ORIGIN,
+        REFERER, COOKIE, UPGRADE, SEC_WEBSOCKET_KEY, SEC_WEBSOCKET_VERSION, LAST_EVENT_ID
+    };
+    private static final byte[][] KNOWN_NAME_BYTES = new byte[KNOWN_NAMES.length][];
+
+    static {
+        for (int i = 0; i < KNOWN_NAMES.length; i++) {
+            KNOWN_NAME_BYTES[i] = KNOWN_NAMES[i].toLowerCase(Locale.ROOT).getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+
+    private String[] names = new String[16];
+    private int[] valueStart = new int[16];
+    private int[] valueEnd = new int[16];
+    // 已解码的值缓存，未读取过的为null
+    private String[] values = new String[16];
+    private byte[] data = new byte[256];
+    private int dataLength;
+    private int size;
+
+    /**
+     * 在不分配内存的前提下把头部名称匹配为已知常量，忽略大小写；未知名称返回null
+     */
+    public static String matchKnownName(ByteBuffer buffer, int start, int end) {
+        int length = end - start;
+        for (int i = 0; i < KNOWN_NAME_BYTES.length; i++) {
+            byte[] candidate = KNOWN_NAME_BYTES[i];
+            if (candidate.length != length) continue;
+            int j = 0;
+            while (j < length && toLowerAscii(buffer.get(start + j)) == candidate[j]) {
+                j++;
+            }
+            if (j == length) return KNOWN_NAMES[i];
+        }
+        return null;
+    }
+
+    private static byte toLowerAscii(byte b) {
+        return b >= 'A' && b <= 'Z' ? (byte) (b + 32) : b;
+    }
+
+    /**
+     * 添加一个头部，值为buffer中[start, end)的原始字节
+     */
+    public void add(String name, ByteBuffer buffer, int start, int end) {
+        if (size == names.length) {
+            grow();
+        }
+        int length = end - start;
+        if (dataLength + length > data.length) {
+            byte[] grown = new byte[Math.max(data.length * 2, dataLength + length)];
+            System.arraycopy(data, 0, grown, 0, dataLength);
+            data = grown;
+        }
+        for (int i = 0; i < length; i++) {
+            data[dataLength + i] = buffer.get(start + i);
+        }
+        names[size] = name;
+        valueStart[size] = dataLength;
+        valueEnd[size] = dataLength + length;
+        values[size] = null;
+        dataLength += length;
+        size++;
+    }
+
+    /**
+     * 直接添加已解码的头部
+     */
+    public void put(String name, String value) {
+        if (size == names.length) {
+            grow();
+        }
+        names[size] = name;
+        valueStart[size] = 0;
+        valueEnd[size] = 0;
+        values[size] = value;
+        size++;
+    }
+
+    private void grow() {
+        int newLength = names.length * 2;
+        String[] newNames = new String[newLength];
+        String[] newValues = new String[newLength];
+        int[] newStart = new int[newLength];
+        int[] newEnd = new int[newLength];
+        System.arraycopy(names, 0, newNames, 0, size);
+        System.arraycopy(values, 0, newValues, 0, size);
+        System.arraycopy(valueStart, 0, newStart, 0, size);
+        System.arraycopy(valueEnd, 0, newEnd, 0, size);
+        names = newNames;
+        values = newValues;
+        valueStart = newStart;
+        valueEnd = newEnd;
+    }
+
+    /**
+     * 按名称查找头部值，忽略大小写；首次读取时才解码
+     */
+    public String get(String name) {
+        for (int i = 0; i < size; i++) {
+            if (names[i] == name || names[i].equalsIgnoreCase(name)) {
+                return valueAt(i);
+            }
+        }
+        return null;
+    }
+
+    private String valueAt(int index) {
+        String value = values[index];
+        if (value == null) {
+            value = new String(data, valueStart[index], valueEnd[index] - valueStart[index],
+                    StandardCharsets.ISO_8859_1);
+            values[index] = value;
+        }
+        return value;
+    }
+
+    public boolean contains(String name) {
+        return get(name) != null;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public Map<String, String> toMap() {
+        Map<String, String> map = new LinkedHashMap<>();
+        for (int i = 0; i < size; i++) {
+            map.put(names[i], valueAt(i));
+        }
+        return map;
+    }
+
+    @Override
+    public String toString() {
+        return toMap().toString();
+    }
+}
@@ -1,13 +1,51 @@
 package httpserver.model;
 
-import java.util.Map;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
 import lombok.Data;
 
 @Data
 public class Request {
     private String method;      
-    private String uri;          
+    private String uri;          // 请求路径，不含查询串
+    private String query;        // 查询串（不含'?'），没有时为null
     private String version;   
-    private Map<String, String> headers;  
-    private String message;      
-}
\ No newline at end of file
+    private HttpHeaders headers;  
+    private byte[] body;         // 原始请求体字节
+    private String message;      // 请求体文本，首次读取时按UTF-8解码
+    
+    public String getMessage() {
+        if (message == null && body != null) {
+            message = new String(body, StandardCharsets.UTF_8);
+        }
+        return message;
+    }
+    
+    /**
+     * 读取查询参数，不存在时返回null
+     */
+    public String getQueryParameter(String name) {
+        if (query == null) return null;
+        int start = 0;
+        while (start <= query.length()) {
+            int end = query.indexOf('&', start);
+            if (end < 0) end = query.length();
+            int eq = query.indexOf('=', start);
+            if (eq < 0 || eq > end) eq = end;
+            if (eq - start == name.length() && query.startsWith(name, start)) {
+                return eq < end ? decode(query.substring(eq + 1, end)) : "";
+            }
+            start = end + 1;
+        }
+        return null;
+    }
+    
+    private static String decode(String value) {
+        try {
+            return URLDecoder.decode(value, "UTF-8");
+        } catch (UnsupportedEncodingException | IllegalArgumentException e) {
+            return value;
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package httpserver.nio;
+
+import httpserver.AdmissionController;
+import httpserver.TimingWheel;
+import httpserver.log.Logger;
+import httpserver.pool.PoolManager;
+import httpserver.pool.PooledByteBuffer;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * NIO事件循环，单线程驱动一个Selector
+ * 负责非阻塞地读取和解析HTTP请求，只把完整的请求交给处理线程池
+ */
+public class EventLoop implements Runnable {
+    private static final Logger LOG = Logger.getLogger(EventLoop.class);
+
+    private final String name;
+    private final Selector selector;
+    private final AdmissionController admissionController;
+    // 空闲连接的超时登记在时间轮中，不再定期扫描全部连接
+    private final TimingWheel timingWheel;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    // 读缓冲区在同一事件循环内的所有连接间共享，空闲连接不占用缓冲区
+    private final PooledByteBuffer readBuffer;
+    private volatile boolean running = true;
+
+    public EventLoop(String name, AdmissionController admissionController, TimingWheel timingWheel) throws IOException {
+        this.name = name;
+        this.selector = Selector.open();
+        this.admissionController = admissionController;
+        this.timingWheel = timingWheel;
+        this.readBuffer = PoolManager.getInstance().getByteBuffer();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    AdmissionController getAdmissionController() {
+        return admissionController;
+    }
+
+    TimingWheel getTimingWheel() {
+        return timingWheel;
+    }
+
+    PooledByteBuffer getReadBuffer() {
+        return readBuffer;
+    }
+
+    /**
+     * 将新接受的连接注册到本事件循环
+     */
+    public void register(SocketChannel channel) {
+        execute(() -> {
+            try {
+                channel.configureBlocking(false);
+                SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+                NioConnection connection = new NioConnection(this, channel, key);
+                key.attach(connection);
+                connection.scheduleIdleCheck();
+            } catch (IOException e) {
+                LOG.warn("注册客户端连接失败：{}", e.getMessage());
+                closeQuietly(channel);
+            }
+        });
+    }
+
+    /**
+     * 在事件循环线程中执行任务，Selector相关操作必须在该线程中进行
+     */
+    public void execute(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                selector.select();
+                runTasks();
+                processSelectedKeys();
+            } catch (IOException e) {
+                LOG.error("事件循环 {} 异常：{}", name, e.getMessage());
+            } catch (RuntimeException e) {
+                // 事件循环线程退出会使其上的所有连接无人处理，任何异常都不能结束循环；线程名即事件循环名
+                LOG.error("事件循环异常", e);
+            }
+        }
+        closeAll();
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                LOG.warn("事件循环任务执行失败：{}", e.getMessage());
+            }
+        }
+    }
+
+    private void processSelectedKeys() {
+        Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+        while (iterator.hasNext()) {
+            SelectionKey key = iterator.next();
+            iterator.remove();
+            NioConnection connection = (NioConnection) key.attachment();
+            if (connection == null || !key.isValid()) continue;
+            try {
+                if (key.isReadable()) {
+                    connection.onReadable();
+                }
+                if (key.isValid() && key.isWritable()) {
+                    connection.onWritable();
+                }
+            } catch (IOException e) {
+                connection.close();
+            } catch (RuntimeException e) {
+                // 连接的处理出错（如键已取消、解析或帧解码的缺陷），只关闭该连接，事件循环继续运行
+                LOG.error("处理连接事件失败，关闭连接", e);
+                connection.close();
+            }
+        }
+    }
+
+    public void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+
+    private void closeAll() {
+        for (SelectionKey key : selector.keys()) {
+            Object attachment = key.attachment();
+            if (attachment instanceof NioConnection) {
+                ((NioConnection) attachment).close();
+            }
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            LOG.error("关闭Selector失败", e);
+        }
+        PoolManager.getInstance().releaseByteBuffer(readBuffer);
+    }
+
+    static void closeQuietly(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
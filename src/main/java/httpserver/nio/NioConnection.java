@@ -0,0 +1,499 @@
+package httpserver.nio;
+
+import httpserver.AdmissionController;
+import httpserver.ChatHandler;
+import httpserver.EventStream;
+import httpserver.HttpMessageParser;
+import httpserver.HttpParseException;
+import httpserver.ServerConfig;
+import httpserver.ServerEvent;
+import httpserver.TimingWheel;
+import httpserver.metrics.ServerMetrics;
+import httpserver.model.Request;
+import httpserver.pool.HttpResponseBuilder;
+import httpserver.pool.PoolManager;
+import httpserver.pool.PooledByteBuffer;
+import httpserver.pool.ResponseSink;
+import httpserver.websocket.WebSocketFrames;
+import httpserver.websocket.WebSocketSession;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 单个非阻塞客户端连接的状态
+ * 除send、abort及响应输出外，所有方法只能在所属事件循环线程中调用
+ */
+public class NioConnection {
+    private final EventLoop loop;
+    private final SocketChannel channel;
+    private final SelectionKey key;
+    private final Queue<Outbound> outbound = new ArrayDeque<>();
+    private final HttpMessageParser parser = new HttpMessageParser();
+    // 已读取但尚未处理的字节（不完整的请求或排队的流水线请求），仅在需要跨读取保留时从池中借用
+    private PooledByteBuffer pending;
+    private boolean processing;
+    private boolean closeAfterWrite;
+    // 连接已转为事件流：不再读取请求，只持续写出事件
+    private boolean streaming;
+    // 已升级为WebSocket时的会话，读到的字节按帧解码
+    private WebSocketSession webSocket;
+    // 正在由处理线程处理一条WebSocket文本消息，期间暂停读取
+    private boolean webSocketBusy;
+    // 事件流中已投递但尚未写出的事件数
+    private final AtomicInteger queuedEvents = new AtomicInteger();
+    private volatile boolean closed;
+    // 已在该连接上接收的请求数
+    private int requestCount;
+    // 当前未完成请求已累计的解析耗时（纳秒）
+    private long parseNanos;
+    // 最近一次读写完成的时间，用于空闲超时
+    private long lastActivity = System.currentTimeMillis();
+    // 时间轮中的空闲检查
+    private volatile TimingWheel.Timeout idleCheck;
+
+    NioConnection(EventLoop loop, SocketChannel channel, SelectionKey key) {
+        this.loop = loop;
+        this.channel = channel;
+        this.key = key;
+    }
+
+    void onReadable() throws IOException {
+        ByteBuffer buffer;
+        int read;
+        if (streaming && webSocket == null) {
+            // 事件流连接上客户端不应再发送数据，读取只为及时发现连接关闭
+            buffer = loop.getReadBuffer().getBuffer();
+            buffer.clear();
+            if (channel.read(buffer) < 0) {
+                close();
+            }
+            return;
+        }
+        if (pending != null) {
+            // 已有未消费的字节，直接读到其后面，保持缓冲区为读模式
+            buffer = pending.getBuffer();
+            buffer.compact();
+            if (!buffer.hasRemaining()) {
+                buffer.flip();
+                rejectAndClose(431, "请求头过大");
+                return;
+            }
+            read = channel.read(buffer);
+            buffer.flip();
+        } else {
+            buffer = loop.getReadBuffer().getBuffer();
+            buffer.clear();
+            read = channel.read(buffer);
+            buffer.flip();
+        }
+        if (read < 0) {
+            close();
+            return;
+        }
+        if (read == 0) return;
+        ServerMetrics.bytesReceived(read);
+        lastActivity = System.currentTimeMillis();
+        if (webSocket != null) {
+            processWebSocket(buffer);
+        } else {
+            tryDispatch(buffer);
+        }
+    }
+
+    /**
+     * 解码WebSocket帧：控制帧由会话就地回复，文本消息交给处理线程池。
+     * 处理期间暂停读取，保证同一连接上的消息按发送顺序处理
+     */
+    private void processWebSocket(ByteBuffer buffer) {
+        String text = webSocket.poll(buffer);
+        retainRemaining(buffer);
+        if (text == null) return;
+
+        webSocketBusy = true;
+        key.interestOps(outbound.isEmpty() ? 0 : SelectionKey.OP_WRITE);
+        WebSocketSession session = webSocket;
+        Runnable task = () -> {
+            try {
+                session.onText(text);
+            } finally {
+                loop.execute(this::resumeWebSocket);
+            }
+        };
+        if (!loop.getAdmissionController().tryExecute(task, AdmissionController.Priority.HIGH)) {
+            session.close(WebSocketFrames.CLOSE_TRY_AGAIN_LATER, "服务器繁忙，请稍后重试");
+        }
+    }
+
+    private void resumeWebSocket() {
+        webSocketBusy = false;
+        if (closed) return;
+        if (outbound.isEmpty()) {
+            key.interestOps(SelectionKey.OP_READ);
+        }
+        if (pending != null) {
+            processWebSocket(pending.getBuffer());
+        }
+    }
+
+    /**
+     * 增量解析缓冲区中的字节，得到完整请求时交给处理线程池
+     */
+    private void tryDispatch(ByteBuffer buffer) {
+        Request request;
+        long start = System.nanoTime();
+        try {
+            request = parser.parse(buffer);
+        } catch (HttpParseException e) {
+            rejectAndClose(e.getStatusCode(), e.getMessage());
+            return;
+        } finally {
+            parseNanos += System.nanoTime() - start;
+        }
+        retainRemaining(buffer);
+        if (request == null) return;
+        ServerMetrics.recordPhase(ServerMetrics.route(request.getUri()), ServerMetrics.PHASE_PARSE, parseNanos);
+        parseNanos = 0;
+
+        requestCount++;
+        int remainingRequests = ServerConfig.MAX_KEEP_ALIVE_REQUESTS - requestCount;
+        boolean keepAlive = ServerConfig.KEEP_ALIVE
+                && remainingRequests > 0
+                && HttpMessageParser.isKeepAliveRequested(request);
+
+        // 处理期间暂停读取：流水线请求留在缓冲区中，响应写完后再按顺序处理
+        processing = true;
+        key.interestOps(0);
+        AdmissionController admission = loop.getAdmissionController();
+        if (!admission.tryExecute(new ChatHandler(this, request, keepAlive, remainingRequests),
+                AdmissionController.classify(request))) {
+            // 过载：直接在事件循环中返回预先构建的503并关闭连接
+            releasePending();
+            outbound.add(new Outbound(null, ByteBuffer.wrap(admission.getOverloadResponse())));
+            closeAfterWrite = true;
+            flush();
+        }
+    }
+
+    /**
+     * 共享读缓冲区中未消费的字节需要转存到连接自己的缓冲区；连接缓冲区被读空时归还到池中
+     */
+    private void retainRemaining(ByteBuffer buffer) {
+        if (pending != null && buffer == pending.getBuffer()) {
+            if (!buffer.hasRemaining()) {
+                releasePending();
+            }
+            return;
+        }
+        if (buffer.hasRemaining()) {
+            pending = PoolManager.getInstance().getByteBuffer();
+            ByteBuffer retained = pending.getBuffer();
+            retained.clear();
+            retained.put(buffer);
+            retained.flip();
+        }
+    }
+
+    private void releasePending() {
+        if (pending != null) {
+            PoolManager.getInstance().releaseByteBuffer(pending);
+            pending = null;
+        }
+    }
+
+    private void rejectAndClose(int statusCode, String message) {
+        HttpResponseBuilder responseBuilder = PoolManager.getInstance().getHttpResponseBuilder();
+        try {
+            byte[] response = responseBuilder.buildErrorResponse(statusCode, message).toBytes();
+            processing = true;
+            releasePending();
+            outbound.add(new Outbound(null, ByteBuffer.wrap(response)));
+            closeAfterWrite = true;
+            flush();
+        } finally {
+            PoolManager.getInstance().releaseHttpResponseBuilder(responseBuilder);
+        }
+    }
+
+    /**
+     * 为一次请求创建响应输出，由处理线程使用；route为该请求在指标中的路由编号
+     */
+    public Sink newResponseSink(boolean keepAlive, int route) {
+        return new Sink(keepAlive, route);
+    }
+
+    /**
+     * 把连接转为事件流，由处理线程写出响应头后交给EventStreamHub推送事件
+     */
+    public EventStream openEventStream(int queueCapacity) {
+        return new Stream(queueCapacity, null);
+    }
+
+    /**
+     * 把连接升级为WebSocket，由处理线程写出握手响应后交给EventStreamHub推送事件
+     */
+    public EventStream openWebSocket(int queueCapacity, WebSocketSession session) {
+        Stream stream = new Stream(queueCapacity, session);
+        session.attach(stream);
+        return stream;
+    }
+
+    /**
+     * 由处理线程调用，提交响应头和响应体
+     * keepAlive为false时写出后关闭连接，否则继续处理缓冲区中的下一个请求
+     */
+    void send(PooledByteBuffer head, ByteBuffer body, boolean keepAlive, int route) {
+        long submitted = System.nanoTime();
+        loop.execute(() -> {
+            if (closed) {
+                PoolManager.getInstance().releaseByteBuffer(head);
+                return;
+            }
+            outbound.add(new Outbound(head, body, route, submitted));
+            closeAfterWrite = !keepAlive;
+            flush();
+        });
+    }
+
+    /**
+     * 由处理线程调用，放弃当前请求并关闭连接
+     */
+    public void abort() {
+        loop.execute(this::close);
+    }
+
+    void onWritable() throws IOException {
+        flush();
+    }
+
+    private void flush() {
+        try {
+            while (!outbound.isEmpty()) {
+                Outbound head = outbound.peek();
+                ServerMetrics.bytesSent(channel.write(head.buffers));
+                if (head.hasRemaining()) {
+                    key.interestOps(SelectionKey.OP_WRITE);
+                    return;
+                }
+                Outbound written = outbound.poll();
+                written.release();
+                if (written.route >= 0) {
+                    // 从处理线程提交响应到最后一个字节写入内核的耗时
+                    ServerMetrics.recordPhase(written.route, ServerMetrics.PHASE_WRITE, System.nanoTime() - written.submitted);
+                }
+                if (written.event) {
+                    queuedEvents.decrementAndGet();
+                }
+            }
+        } catch (IOException e) {
+            close();
+            return;
+        }
+        lastActivity = System.currentTimeMillis();
+        if (closeAfterWrite) {
+            close();
+        } else if (streaming) {
+            key.interestOps(webSocketBusy ? 0 : SelectionKey.OP_READ);
+        } else if (processing) {
+            processing = false;
+            key.interestOps(SelectionKey.OP_READ);
+            if (pending != null) {
+                tryDispatch(pending.getBuffer());
+            }
+        }
+    }
+
+    /**
+     * 连接空闲（没有正在处理或待写出的响应）超过keep-alive超时
+     */
+    boolean isIdleExpired(long now) {
+        return !processing && outbound.isEmpty()
+                && now - lastActivity > ServerConfig.KEEP_ALIVE_TIMEOUT_MS;
+    }
+
+    /**
+     * 在最近一次活动加keep-alive超时处登记空闲检查，在事件循环线程中调用
+     * 读写时只更新lastActivity，检查到期时若仍有活动则顺延
+     */
+    void scheduleIdleCheck() {
+        if (closed) return;
+        long delay = lastActivity + ServerConfig.KEEP_ALIVE_TIMEOUT_MS - System.currentTimeMillis();
+        if (delay <= 0) {
+            // 仍在处理或写出的连接，等待一个完整的超时周期后再检查
+            delay = ServerConfig.KEEP_ALIVE_TIMEOUT_MS;
+        }
+        idleCheck = loop.getTimingWheel().schedule(() -> loop.execute(this::checkIdle), delay + 1, TimeUnit.MILLISECONDS);
+    }
+
+    private void checkIdle() {
+        if (closed) return;
+        if (isIdleExpired(System.currentTimeMillis())) {
+            close();
+        } else {
+            scheduleIdleCheck();
+        }
+    }
+
+    public void close() {
+        if (closed) return;
+        closed = true;
+        TimingWheel.Timeout check = idleCheck;
+        if (check != null) {
+            check.cancel();
+        }
+        key.cancel();
+        EventLoop.closeQuietly(channel);
+        Outbound entry;
+        while ((entry = outbound.poll()) != null) {
+            entry.release();
+        }
+        releasePending();
+    }
+
+    /**
+     * 处理线程写出响应的入口，记录是否已提交响应
+     */
+    public class Sink implements ResponseSink {
+        private final boolean keepAlive;
+        private final int route;
+        private volatile boolean committed;
+
+        Sink(boolean keepAlive, int route) {
+            this.keepAlive = keepAlive;
+            this.route = route;
+        }
+
+        @Override
+        public void write(PooledByteBuffer head, ByteBuffer body) {
+            committed = true;
+            send(head, body, keepAlive, route);
+        }
+
+        public boolean isCommitted() {
+            return committed;
+        }
+    }
+
+    /**
+     * 推送输出（SSE或WebSocket）：响应头写出后连接保持打开，事件帧按投递顺序排队写出；
+     * 积压超过上限时断开慢速连接，客户端重连时凭Last-Event-ID或since补齐消息
+     */
+    private class Stream implements EventStream, WebSocketSession.Transport {
+        private final int queueCapacity;
+        private final WebSocketSession session;
+
+        Stream(int queueCapacity, WebSocketSession session) {
+            this.queueCapacity = queueCapacity;
+            this.session = session;
+        }
+
+        @Override
+        public void write(PooledByteBuffer head, ByteBuffer body) {
+            loop.execute(() -> {
+                if (closed) {
+                    PoolManager.getInstance().releaseByteBuffer(head);
+                    return;
+                }
+                streaming = true;
+                webSocket = session;
+                outbound.add(new Outbound(head, body));
+                flush();
+                if (session == null) {
+                    releasePending();
+                } else if (pending != null && !closed) {
+                    // 握手请求之后已到达的帧
+                    processWebSocket(pending.getBuffer());
+                }
+            });
+        }
+
+        @Override
+        public boolean offer(ServerEvent event) {
+            byte[] frame = session != null ? event.getWebSocketFrame() : event.getSseFrame();
+            if (closed) return false;
+            if (queuedEvents.incrementAndGet() > queueCapacity) {
+                abort();
+                return false;
+            }
+            loop.execute(() -> {
+                if (closed) return;
+                // 每个连接使用自己的视图，底层字节由所有订阅者共享
+                outbound.add(new Outbound(null, ByteBuffer.wrap(frame), true));
+                flush();
+            });
+            return true;
+        }
+
+        @Override
+        public void sendFrame(byte[] frame) {
+            loop.execute(() -> {
+                if (closed) return;
+                outbound.add(new Outbound(null, ByteBuffer.wrap(frame)));
+                flush();
+            });
+        }
+
+        @Override
+        public void closeAfterFlush() {
+            loop.execute(() -> {
+                if (closed) return;
+                closeAfterWrite = true;
+                flush();
+            });
+        }
+    }
+
+    /**
+     * 待写出的数据：可选的池化响应头加响应体，通过一次聚集写发出
+     */
+    private static final class Outbound {
+        private final PooledByteBuffer pooledHead;
+        private final ByteBuffer[] buffers;
+        // 是否为事件流中的一帧事件
+        private final boolean event;
+        // 普通响应所属的路由及提交时间，用于记录write阶段；其他数据为-1
+        private final int route;
+        private final long submitted;
+
+        Outbound(PooledByteBuffer pooledHead, ByteBuffer body) {
+            this(pooledHead, body, false, -1, 0);
+        }
+
+        Outbound(PooledByteBuffer pooledHead, ByteBuffer body, boolean event) {
+            this(pooledHead, body, event, -1, 0);
+        }
+
+        Outbound(PooledByteBuffer pooledHead, ByteBuffer body, int route, long submitted) {
+            this(pooledHead, body, false, route, submitted);
+        }
+
+        private Outbound(PooledByteBuffer pooledHead, ByteBuffer body, boolean event, int route, long submitted) {
+            this.pooledHead = pooledHead;
+            this.event = event;
+            this.route = route;
+            this.submitted = submitted;
+            this.buffers = pooledHead != null
+                    ? new ByteBuffer[] { pooledHead.getBuffer(), body }
+                    : new ByteBuffer[] { body };
+        }
+
+        boolean hasRemaining() {
+            for (ByteBuffer buffer : buffers) {
+                if (buffer.hasRemaining()) return true;
+            }
+            return false;
+        }
+
+        void release() {
+            if (pooledHead != null) {
+                PoolManager.getInstance().releaseByteBuffer(pooledHead);
+            }
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package httpserver.nio;
+
+import httpserver.AdmissionController;
+import httpserver.ServerConfig;
+import httpserver.TimingWheel;
+import httpserver.log.Logger;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * 基于ServerSocketChannel/Selector的非阻塞传输层
+ * 接收线程只负责accept，连接按轮询方式分配给各个事件循环
+ */
+public class NioServer implements Runnable {
+    private static final Logger LOG = Logger.getLogger(NioServer.class);
+    // 每个连接都会产生的日志按采样记录
+    private static final Logger CONNECTION_LOG = LOG.sampled(ServerConfig.LOG_CONNECTION_SAMPLING);
+    // accept失败后的退避时间
+    private static final long ACCEPT_BACKOFF_MS = 100;
+    private final ServerSocketChannel serverChannel;
+    private final EventLoop[] eventLoops;
+    private int nextLoop;
+
+    public NioServer(int port, int loopCount, AdmissionController admissionController,
+                     TimingWheel timingWheel) throws IOException {
+        this.serverChannel = ServerSocketChannel.open();
+        this.serverChannel.bind(new InetSocketAddress(port), 1024);
+        this.eventLoops = new EventLoop[loopCount];
+        for (int i = 0; i < loopCount; i++) {
+            eventLoops[i] = new EventLoop("NioEventLoop-" + i, admissionController, timingWheel);
+            Thread thread = new Thread(eventLoops[i], eventLoops[i].getName());
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (serverChannel.isOpen()) {
+                SocketChannel channel;
+                try {
+                    channel = serverChannel.accept();
+                } catch (IOException e) {
+                    if (!serverChannel.isOpen()) break;
+                    // 文件描述符耗尽、连接在accept之前被客户端重置等都是暂时的，退避后继续监听
+                    LOG.warn("接收客户端连接失败：{}", e.getMessage());
+                    if (!backOff()) break;
+                    continue;
+                }
+                CONNECTION_LOG.info("新的客户端连接：{}", channel.socket().getInetAddress());
+                eventLoops[nextLoop].register(channel);
+                nextLoop = (nextLoop + 1) % eventLoops.length;
+            }
+        } finally {
+            shutdown();
+        }
+    }
+
+    /**
+     * accept失败后暂停一段时间，避免在资源耗尽期间空转；线程被中断时返回false
+     */
+    private static boolean backOff() {
+        try {
+            Thread.sleep(ACCEPT_BACKOFF_MS);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    public void shutdown() {
+        try {
+            serverChannel.close();
+        } catch (IOException e) {
+            LOG.error("关闭监听通道失败", e);
+        }
+        for (EventLoop loop : eventLoops) {
+            loop.shutdown();
+        }
+    }
+}
@@ -1,139 +1,326 @@
 package httpserver.pool;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 /**
  * 可池化的HTTP响应构建器，用于高效构建HTTP响应
+ * 响应体只按UTF-8编码一次；状态行和常用响应头预先编码为字节数组，
+ * 响应头写入池化的ByteBuffer，与响应体一起通过聚集写（gathering write）发出
  */
 public class HttpResponseBuilder implements Poolable {
+    public static final String CONTENT_TYPE_JSON = "application/json; charset=UTF-8";
+    public static final String CONTENT_TYPE_HTML = "text/html; charset=UTF-8";
+    public static final String CONTENT_TYPE_EVENT_STREAM = "text/event-stream; charset=UTF-8";
+    public static final String CONTENT_TYPE_PROMETHEUS = "text/plain; version=0.0.4; charset=UTF-8";
+
+    private static final byte[] CRLF = { '\r', '\n' };
+    private static final byte[] HEADER_SEPARATOR = { ':', ' ' };
+    private static final byte[] CONTENT_LENGTH_PREFIX = ascii("Content-Length: ");
+    private static final byte[] EMPTY_BODY = new byte[0];
+    // 预编码的HTTP/1.1状态行，按状态码索引
+    private static final Map<Integer, byte[]> STATUS_LINES = new HashMap<>();
+    // 预编码的完整响应头行，按名称和值两级索引
+    private static final Map<String, Map<String, byte[]>> HEADER_LINES = new HashMap<>();
+
+    static {
+        int[] codes = { 101, 200, 204, 304, 400, 401, 404, 405, 409, 413, 426, 431, 500, 501, 503 };
+        for (int code : codes) {
+            STATUS_LINES.put(code, ascii("HTTP/1.1 " + code + " " + getStatusText(code) + "\r\n"));
+        }
+        preEncodeHeader("Server", "ChatServer/1.0");
+        preEncodeHeader("Connection", "close");
+        preEncodeHeader("Connection", "keep-alive");
+        preEncodeHeader("Content-Type", CONTENT_TYPE_JSON);
+        preEncodeHeader("Content-Type", CONTENT_TYPE_HTML);
+        preEncodeHeader("Content-Type", CONTENT_TYPE_EVENT_STREAM);
+        preEncodeHeader("Content-Type", CONTENT_TYPE_PROMETHEUS);
+        preEncodeHeader("Cache-Control", "no-cache");
+        preEncodeHeader("Content-Encoding", "gzip");
+        preEncodeHeader("Vary", "Accept-Encoding");
+        preEncodeHeader("Access-Control-Allow-Origin", "*");
+    }
+
     private String version;
     private int statusCode;
     private String statusText;
     private Map<String, String> headers;
     private StringBuilder body;
-    
+    // 已编码的响应体，设置后优先于body使用
+    private byte[] bodyBytes;
+    // 流式响应：不发送Content-Length，响应体持续写出直到连接关闭
+    private boolean streaming;
+
     public HttpResponseBuilder() {
-        this.headers = new HashMap<>();
+        this.headers = new LinkedHashMap<>();
         this.body = new StringBuilder(512);
         reset();
     }
-    
+
     public HttpResponseBuilder setVersion(String version) {
         this.version = version;
         return this;
     }
-    
+
     public HttpResponseBuilder setStatus(int code, String text) {
         this.statusCode = code;
         this.statusText = text;
         return this;
     }
-    
+
+    public HttpResponseBuilder setStatus(int code) {
+        return setStatus(code, getStatusText(code));
+    }
+
     public HttpResponseBuilder addHeader(String name, String value) {
         headers.put(name, value);
         return this;
     }
-    
+
     public HttpResponseBuilder setContentType(String contentType) {
         return addHeader("Content-Type", contentType);
     }
-    
+
     public HttpResponseBuilder setContentLength(int length) {
         return addHeader("Content-Length", String.valueOf(length));
     }
-    
+
+    /**
+     * 声明保持连接，并告知客户端空闲超时和剩余可用请求数
+     */
+    public HttpResponseBuilder setKeepAlive(int timeoutSeconds, int maxRequests) {
+        addHeader("Connection", "keep-alive");
+        return addHeader("Keep-Alive", "timeout=" + timeoutSeconds + ", max=" + maxRequests);
+    }
+
+    /**
+     * 声明为流式响应（如事件流），响应头中不含Content-Length，需配合Connection: close使用
+     */
+    public HttpResponseBuilder setStreaming(boolean streaming) {
+        this.streaming = streaming;
+        return this;
+    }
+
     public HttpResponseBuilder appendBody(String content) {
+        if (bodyBytes != null) {
+            body.append(new String(bodyBytes, StandardCharsets.UTF_8));
+            bodyBytes = null;
+        }
         body.append(content);
         return this;
     }
-    
+
     public HttpResponseBuilder setBody(String content) {
         body.setLength(0);
-        body.append(content);
+        bodyBytes = content.getBytes(StandardCharsets.UTF_8);
+        return this;
+    }
+
+    /**
+     * 设置已编码好的响应体（如预先编码的静态页面），不再复制
+     */
+    public HttpResponseBuilder setBody(byte[] content) {
+        body.setLength(0);
+        bodyBytes = content;
         return this;
     }
-    
+
     /**
      * 构建完整的HTTP响应字符串
      */
     public String build() {
-        PooledStringBuilder response = PoolManager.getInstance().getStringBuilder();
+        return new String(toBytes(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 构建完整的HTTP响应字节（用于需要长期保存的预构建响应）
+     */
+    public byte[] toBytes() {
+        byte[] content = encodedBody();
+        PooledByteBuffer head = encodeHead(content.length);
         try {
-            // 状态行
-            response.append(version).append(" ")
-                   .append(statusCode).append(" ")
-                   .append(statusText).append("\r\n");
-            
-            // 自动设置Content-Length
-            String bodyStr = body.toString();
-            if (!headers.containsKey("Content-Length")) {
-                headers.put("Content-Length", String.valueOf(bodyStr.getBytes().length));
-            }
-            
-            // 响应头
-            for (Map.Entry<String, String> header : headers.entrySet()) {
-                response.append(header.getKey()).append(": ")
-                       .append(header.getValue()).append("\r\n");
-            }
-            
-            // 空行分隔头和体
-            response.append("\r\n");
-            
-            // 响应体
-            response.append(bodyStr);
-            
-            return response.toString();
+            ByteBuffer headBuffer = head.getBuffer();
+            byte[] response = new byte[headBuffer.remaining() + content.length];
+            headBuffer.get(response, 0, headBuffer.remaining());
+            System.arraycopy(content, 0, response, response.length - content.length, content.length);
+            return response;
         } finally {
-            PoolManager.getInstance().releaseStringBuilder(response);
+            PoolManager.getInstance().releaseByteBuffer(head);
         }
     }
-    
+
+    /**
+     * 将响应写到目标：响应头在池化缓冲区中编码，响应体不做复制
+     * 池化缓冲区的所有权交给sink，由其在写出后归还
+     */
+    public void writeTo(ResponseSink sink) throws IOException {
+        byte[] content = encodedBody();
+        PooledByteBuffer head = encodeHead(content.length);
+        sink.write(head, ByteBuffer.wrap(content));
+    }
+
+    private byte[] encodedBody() {
+        if (bodyBytes == null) {
+            bodyBytes = body.length() == 0 ? EMPTY_BODY : body.toString().getBytes(StandardCharsets.UTF_8);
+        }
+        return bodyBytes;
+    }
+
+    /**
+     * 响应头编码后字节数的上界：状态行、各响应头及Content-Length行
+     */
+    private int estimateHeadSize() {
+        int size = version.length() + statusText.length() + 16;
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            size += header.getKey().length() + header.getValue().length() + 4;
+        }
+        return size + 48;
+    }
+
+    /**
+     * 编码状态行和响应头，返回处于读模式的池化缓冲区
+     */
+    private PooledByteBuffer encodeHead(int contentLength) {
+        // 按响应头的实际大小申请缓冲区，小响应只占用小规格的切片
+        PooledByteBuffer head = PoolManager.getInstance().getByteBuffer(estimateHeadSize());
+        ByteBuffer buffer = head.getBuffer();
+        buffer.clear();
+
+        // 状态行
+        byte[] statusLine = "HTTP/1.1".equals(version) && getStatusText(statusCode).equals(statusText)
+                ? STATUS_LINES.get(statusCode) : null;
+        if (statusLine != null) {
+            buffer.put(statusLine);
+        } else {
+            putAscii(buffer, version);
+            buffer.put((byte) ' ');
+            putInt(buffer, statusCode);
+            buffer.put((byte) ' ');
+            putAscii(buffer, statusText);
+            buffer.put(CRLF);
+        }
+
+        // 响应头
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            if ("Content-Length".equals(header.getKey())) continue;
+            Map<String, byte[]> lines = HEADER_LINES.get(header.getKey());
+            byte[] line = lines != null ? lines.get(header.getValue()) : null;
+            if (line != null) {
+                buffer.put(line);
+            } else {
+                putAscii(buffer, header.getKey());
+                buffer.put(HEADER_SEPARATOR);
+                putAscii(buffer, header.getValue());
+                buffer.put(CRLF);
+            }
+        }
+
+        // Content-Length按实际发送的UTF-8字节数计算；204和304响应没有响应体，不发送
+        if (!streaming && statusCode != 204 && statusCode != 304) {
+            buffer.put(CONTENT_LENGTH_PREFIX);
+            putInt(buffer, contentLength);
+            buffer.put(CRLF);
+        }
+
+        // 空行分隔头和体
+        buffer.put(CRLF);
+        buffer.flip();
+        return head;
+    }
+
+    private static void putAscii(ByteBuffer buffer, String value) {
+        for (int i = 0, n = value.length(); i < n; i++) {
+            char c = value.charAt(i);
+            buffer.put(c < 0x100 ? (byte) c : (byte) '?');
+        }
+    }
+
+    private static void putInt(ByteBuffer buffer, int value) {
+        if (value < 0) {
+            buffer.put((byte) '-');
+            value = -value;
+        }
+        int divisor = 1;
+        while (value / divisor >= 10) {
+            divisor *= 10;
+        }
+        while (divisor > 0) {
+            buffer.put((byte) ('0' + value / divisor % 10));
+            divisor /= 10;
+        }
+    }
+
+    private static byte[] ascii(String value) {
+        return value.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    private static void preEncodeHeader(String name, String value) {
+        HEADER_LINES.computeIfAbsent(name, k -> new HashMap<>())
+                    .put(value, ascii(name + ": " + value + "\r\n"));
+    }
+
     /**
      * 构建JSON响应
      */
-    public String buildJsonResponse(String jsonContent) {
-        return setContentType("application/json; charset=UTF-8")
+    public HttpResponseBuilder buildJsonResponse(String jsonContent) {
+        return setContentType(CONTENT_TYPE_JSON)
+               .addHeader("Access-Control-Allow-Origin", "*")
+               .setBody(jsonContent);
+    }
+
+    /**
+     * 构建JSON响应，响应体为已编码的UTF-8字节
+     */
+    public HttpResponseBuilder buildJsonResponse(byte[] jsonContent) {
+        return setContentType(CONTENT_TYPE_JSON)
                .addHeader("Access-Control-Allow-Origin", "*")
-               .setBody(jsonContent)
-               .build();
+               .setBody(jsonContent);
     }
-    
+
     /**
      * 构建HTML响应
      */
-    public String buildHtmlResponse(String htmlContent) {
-        return setContentType("text/html; charset=UTF-8")
-               .setBody(htmlContent)
-               .build();
+    public HttpResponseBuilder buildHtmlResponse(String htmlContent) {
+        return setContentType(CONTENT_TYPE_HTML)
+               .setBody(htmlContent);
     }
-    
+
     /**
      * 构建错误响应
      */
-    public String buildErrorResponse(int statusCode, String message) {
-        String statusText = getStatusText(statusCode);
+    public HttpResponseBuilder buildErrorResponse(int statusCode, String message) {
         String errorJson = "{\"error\": \"" + message + "\"}";
-        
-        return setStatus(statusCode, statusText)
-               .setContentType("application/json; charset=UTF-8")
-               .setBody(errorJson)
-               .build();
-    }
-    
-    private String getStatusText(int statusCode) {
+
+        return setStatus(statusCode)
+               .setContentType(CONTENT_TYPE_JSON)
+               .setBody(errorJson);
+    }
+
+    public static String getStatusText(int statusCode) {
         switch (statusCode) {
+            case 101: return "Switching Protocols";
             case 200: return "OK";
+            case 204: return "No Content";
+            case 304: return "Not Modified";
             case 400: return "Bad Request";
             case 401: return "Unauthorized";
             case 404: return "Not Found";
             case 405: return "Method Not Allowed";
             case 409: return "Conflict";
+            case 413: return "Payload Too Large";
+            case 426: return "Upgrade Required";
+            case 431: return "Request Header Fields Too Large";
             case 500: return "Internal Server Error";
+            case 501: return "Not Implemented";
+            case 503: return "Service Unavailable";
             default: return "Unknown";
         }
     }
-    
+
     @Override
     public void reset() {
         this.version = "HTTP/1.1";
@@ -141,9 +328,17 @@ public class HttpResponseBuilder implements Poolable {
         this.statusText = "OK";
         this.headers.clear();
         this.body.setLength(0);
-        
+        this.bodyBytes = null;
+        this.streaming = false;
+
         // 设置默认头
         addHeader("Server", "ChatServer/1.0");
         addHeader("Connection", "close");
     }
-}
\ No newline at end of file
+
+    @Override
+    public boolean isReset() {
+        return statusCode == 200 && body.length() == 0 && bodyBytes == null && !streaming
+                && headers.size() == 2 && "close".equals(headers.get("Connection"));
+    }
+}
@@ -0,0 +1,189 @@
+package httpserver.pool;
+
+import httpserver.log.Logger;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 池化对象的泄漏检测与所有权跟踪，按采样开启
+ * 被采样的对象借出时记录获取位置，并以弱引用登记，之后：
+ * - 未归还就被GC回收：报告泄漏及其获取位置
+ * - 已归还又再次归还：报告重复归还，本次归还不入池，避免同一对象同时交给两个使用者
+ * - 下次借出时不处于reset()后的状态：说明归还后仍被使用，报告上次的归还位置
+ * 每次借出重新采样，未被采样的对象不再跟踪；同一位置的同类问题只打印一次调用栈。
+ */
+public class LeakDetector {
+    private static final Logger LOG = Logger.getLogger(LeakDetector.class);
+    private static final String LEAK = "泄漏（未归还即被回收）";
+    private static final String DOUBLE_RELEASE = "重复归还";
+    private static final String USE_AFTER_RELEASE = "归还后仍被使用";
+    
+    // 每N次借出跟踪一次
+    private final int samplingInterval;
+    private final ReferenceQueue<Object> collected = new ReferenceQueue<>();
+    private final ConcurrentHashMap<Lease, Lease> leases = new ConcurrentHashMap<>();
+    private final Set<String> reportedSites = ConcurrentHashMap.newKeySet();
+    private final LongAdder leaks = new LongAdder();
+    private final LongAdder doubleReleases = new LongAdder();
+    private final LongAdder usesAfterRelease = new LongAdder();
+    
+    public LeakDetector(int samplingInterval) {
+        this.samplingInterval = Math.max(1, samplingInterval);
+    }
+    
+    /**
+     * 对象从池中借出时调用
+     */
+    void onAcquire(String poolName, Object object) {
+        expunge();
+        Lease lease = leases.get(new Lease(object));
+        if (lease != null) {
+            if (object instanceof Poolable && !((Poolable) object).isReset()) {
+                report(USE_AFTER_RELEASE, poolName, lease.releasedAt);
+            }
+            if (!sampled()) {
+                leases.remove(lease);
+                return;
+            }
+        } else {
+            if (!sampled()) return;
+            lease = new Lease(object, collected, poolName);
+            leases.put(lease, lease);
+        }
+        lease.acquire(new Throwable("获取位置"));
+    }
+    
+    /**
+     * 对象归还时调用，返回false表示重复归还，该对象不应再放回池中
+     */
+    boolean onRelease(String poolName, Object object) {
+        Lease lease = leases.get(new Lease(object));
+        if (lease == null) return true;
+        Throwable site = new Throwable("归还位置");
+        if (!lease.release(site)) {
+            report(DOUBLE_RELEASE, poolName, site);
+            return false;
+        }
+        return true;
+    }
+    
+    /**
+     * 处理已被GC回收的跟踪对象，未归还的报告为泄漏
+     */
+    public void expunge() {
+        Object reference;
+        while ((reference = collected.poll()) != null) {
+            Lease lease = (Lease) reference;
+            leases.remove(lease);
+            if (!lease.released.get()) {
+                report(LEAK, lease.poolName, lease.acquiredAt);
+            }
+        }
+    }
+    
+    private boolean sampled() {
+        return samplingInterval == 1 || ThreadLocalRandom.current().nextInt(samplingInterval) == 0;
+    }
+    
+    private void report(String kind, String poolName, Throwable site) {
+        if (kind == LEAK) {
+            leaks.increment();
+        } else if (kind == DOUBLE_RELEASE) {
+            doubleReleases.increment();
+        } else {
+            usesAfterRelease.increment();
+        }
+        String location = callerOf(site);
+        if (reportedSites.add(kind + '|' + poolName + '|' + location)) {
+            if (site != null) {
+                LOG.warn("内存池对象{}: 池={}, 位置={}", kind, poolName, location, site);
+            } else {
+                LOG.warn("内存池对象{}: 池={}, 位置={}", kind, poolName, location);
+            }
+        }
+    }
+    
+    /**
+     * 调用栈中第一个不属于池实现的栈帧
+     */
+    private static String callerOf(Throwable site) {
+        if (site == null) return "未知";
+        for (StackTraceElement frame : site.getStackTrace()) {
+            if (!frame.getClassName().startsWith("httpserver.pool.")
+                    || frame.getClassName().equals(HttpResponseBuilder.class.getName())) {
+                return frame.toString();
+            }
+        }
+        return "未知";
+    }
+    
+    public int getSamplingInterval() { return samplingInterval; }
+    public int getTrackedCount() { return leases.size(); }
+    public long getLeakCount() { return leaks.sum(); }
+    public long getDoubleReleaseCount() { return doubleReleases.sum(); }
+    public long getUseAfterReleaseCount() { return usesAfterRelease.sum(); }
+    
+    @Override
+    public String toString() {
+        return String.format(
+            "泄漏检测(1/%d): 跟踪中=%d, 泄漏=%d, 重复归还=%d, 归还后使用=%d",
+            samplingInterval, getTrackedCount(), getLeakCount(), getDoubleReleaseCount(), getUseAfterReleaseCount()
+        );
+    }
+    
+    /**
+     * 一个被跟踪对象的借用记录，按对象身份比较，弱引用不妨碍对象被回收
+     */
+    private static final class Lease extends WeakReference<Object> {
+        private final int hash;
+        private final String poolName;
+        private final AtomicBoolean released = new AtomicBoolean();
+        private volatile Throwable acquiredAt;
+        private volatile Throwable releasedAt;
+        
+        // 仅用于查找
+        Lease(Object object) {
+            super(object);
+            this.hash = System.identityHashCode(object);
+            this.poolName = null;
+        }
+        
+        Lease(Object object, ReferenceQueue<Object> queue, String poolName) {
+            super(object, queue);
+            this.hash = System.identityHashCode(object);
+            this.poolName = poolName;
+        }
+        
+        void acquire(Throwable site) {
+            acquiredAt = site;
+            released.set(false);
+        }
+        
+        boolean release(Throwable site) {
+            if (!released.compareAndSet(false, true)) {
+                return false;
+            }
+            releasedAt = site;
+            return true;
+        }
+        
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+        
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Lease)) return false;
+            Object referent = get();
+            return referent != null && referent == ((Lease) o).get();
+        }
+    }
+}
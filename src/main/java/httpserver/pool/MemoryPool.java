@@ -1,103 +1,372 @@
 package httpserver.pool;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Supplier;
 
 /**
  * 通用内存池实现，类似于TCMalloc的设计理念
  * 支持多线程并发访问，减少对象创建和GC压力
+ *
+ * 每个平台线程持有一个私有的对象弹匣（magazine），获取和归还通常只访问本线程的弹匣，无需任何同步；
+ * 弹匣空了从共享仓库整批取回一个满弹匣，满了整批交回仓库，共享结构上的竞争被摊薄到每批一次。
+ * 虚拟线程数量多且生命周期短，线程私有缓存无法复用，直接使用共享队列。
+ * 统计计数使用LongAdder分散到多个单元，避免所有线程争用同一缓存行。
+ * 保留的空闲对象数量由PoolPolicy决定，自适应策略下由adapt()按统计窗口调整并修剪空闲对象。
  */
 public class MemoryPool<T> {
-    private final ConcurrentLinkedQueue<T> pool;
+    private static final int DEFAULT_MAGAZINE_SIZE = 16;
+    // JDK 21+的Thread.isVirtual()，旧版本为null
+    private static final MethodHandle IS_VIRTUAL = findIsVirtual();
+    
+    // 满弹匣仓库，每个元素是一整批对象
+    private final ConcurrentLinkedQueue<Object[]> depot;
+    // 虚拟线程使用的共享队列
+    private final ConcurrentLinkedQueue<T> shared;
+    private final ThreadLocal<Magazine> magazines;
     private final Supplier<T> factory;
-    private final int maxSize;
-    private final AtomicInteger currentSize;
-    private final AtomicLong totalCreated;
-    private final AtomicLong totalReused;
+    private final int magazineSize;
+    private volatile PoolPolicy policy;
+    // 当前保留的空闲对象上限
+    private volatile int targetSize;
+    private final AtomicInteger depotMagazines;
+    private final AtomicInteger sharedSize;
+    private final LongAdder totalCreated;
+    private final LongAdder totalReused;
+    // 池满被丢弃的归还对象数
+    private final LongAdder totalDiscarded;
+    // 本窗口内空闲对象的低水位和高水位（近似值，由各线程无锁更新）
+    private volatile int lowWaterMagazines;
+    private volatile int lowWaterShared;
+    private volatile int highWaterMagazines;
+    private volatile int highWaterShared;
+    private long lastCreated;
+    private long lastDiscarded;
     private final String poolName;
+    // 泄漏检测，未开启时为null
+    private volatile LeakDetector leakDetector;
+    // clear()时递增，各线程发现代数变化后丢弃弹匣中的旧对象
+    private volatile int generation;
     
     public MemoryPool(String poolName, Supplier<T> factory, int maxSize) {
+        this(poolName, factory, PoolPolicy.fixed(maxSize));
+    }
+    
+    public MemoryPool(String poolName, Supplier<T> factory, PoolPolicy policy) {
+        this(poolName, factory, policy, DEFAULT_MAGAZINE_SIZE);
+    }
+    
+    public MemoryPool(String poolName, Supplier<T> factory, PoolPolicy policy, int magazineSize) {
         this.poolName = poolName;
-        this.pool = new ConcurrentLinkedQueue<>();
         this.factory = factory;
-        this.maxSize = maxSize;
-        this.currentSize = new AtomicInteger(0);
-        this.totalCreated = new AtomicLong(0);
-        this.totalReused = new AtomicLong(0);
+        this.policy = policy;
+        this.targetSize = policy.getInitialSize();
+        this.magazineSize = Math.max(1, Math.min(magazineSize, policy.getInitialSize()));
+        this.depot = new ConcurrentLinkedQueue<>();
+        this.shared = new ConcurrentLinkedQueue<>();
+        this.magazines = ThreadLocal.withInitial(Magazine::new);
+        this.depotMagazines = new AtomicInteger(0);
+        this.sharedSize = new AtomicInteger(0);
+        this.totalCreated = new LongAdder();
+        this.totalReused = new LongAdder();
+        this.totalDiscarded = new LongAdder();
         
         // 预热池，创建一些初始对象
         preWarmPool();
+        startWindow();
     }
     
     /**
      * 从池中获取对象
      */
     public T acquire() {
-        T object = pool.poll();
+        T object = isVirtualThread() ? acquireShared() : acquireLocal();
         if (object != null) {
-            currentSize.decrementAndGet();
-            totalReused.incrementAndGet();
-            return object;
+            totalReused.increment();
+        } else {
+            // 池中没有可用对象，创建新的
+            totalCreated.increment();
+            object = factory.get();
         }
         
-        // 池中没有可用对象，创建新的
-        totalCreated.incrementAndGet();
-        return factory.get();
+        LeakDetector detector = leakDetector;
+        if (detector != null) {
+            detector.onAcquire(poolName, object);
+        }
+        return object;
     }
     
     /**
-     * 将对象归还到池中
+     * 将对象归还到池中；池已满、对象被丢弃时返回false，由调用方决定是否另行保留
      */
-    public void release(T object) {
-        if (object == null) return;
+    public boolean release(T object) {
+        if (object == null) return true;
         
-        // 如果池未满，则归还对象
-        if (currentSize.get() < maxSize) {
-            // 如果对象实现了Poolable接口，调用reset方法
-            if (object instanceof Poolable) {
-                ((Poolable) object).reset();
-            }
-            
-            pool.offer(object);
-            currentSize.incrementAndGet();
+        // 重复归还的对象已在池中，不能再放入一次
+        LeakDetector detector = leakDetector;
+        if (detector != null && !detector.onRelease(poolName, object)) return true;
+        
+        // 如果对象实现了Poolable接口，调用reset方法
+        if (object instanceof Poolable) {
+            ((Poolable) object).reset();
         }
         // 如果池已满，让对象被GC回收
+        return isVirtualThread() ? releaseShared(object) : releaseLocal(object);
+    }
+    
+    @SuppressWarnings("unchecked")
+    private T acquireLocal() {
+        Magazine magazine = currentMagazine();
+        if (magazine.count == 0) {
+            // 本线程弹匣已空，整批换入仓库中的满弹匣
+            Object[] full = depot.poll();
+            if (full != null) {
+                int remaining = depotMagazines.decrementAndGet();
+                if (remaining < lowWaterMagazines) {
+                    lowWaterMagazines = remaining;
+                }
+                magazine.items = full;
+                magazine.count = full.length;
+            } else {
+                return pollShared();
+            }
+        }
+        Object object = magazine.items[--magazine.count];
+        magazine.items[magazine.count] = null;
+        return (T) object;
+    }
+    
+    private boolean releaseLocal(T object) {
+        Magazine magazine = currentMagazine();
+        if (magazine.count == magazine.items.length) {
+            // 弹匣已满，整批交回仓库；仓库也满时丢弃该对象
+            int stored = depotMagazines.incrementAndGet();
+            if (stored > Math.max(1, targetSize / magazineSize)) {
+                depotMagazines.decrementAndGet();
+                totalDiscarded.increment();
+                return false;
+            }
+            if (stored > highWaterMagazines) {
+                highWaterMagazines = stored;
+            }
+            depot.offer(magazine.items);
+            magazine.items = new Object[magazineSize];
+            magazine.count = 0;
+        }
+        magazine.items[magazine.count++] = object;
+        return true;
+    }
+    
+    @SuppressWarnings("unchecked")
+    private T acquireShared() {
+        T object = pollShared();
+        if (object != null) {
+            return object;
+        }
+        // 取出一整批，其余放回共享队列
+        Object[] full = depot.poll();
+        if (full == null) {
+            return null;
+        }
+        int remaining = depotMagazines.decrementAndGet();
+        if (remaining < lowWaterMagazines) {
+            lowWaterMagazines = remaining;
+        }
+        for (int i = 1; i < full.length; i++) {
+            shared.offer((T) full[i]);
+        }
+        sharedSize.addAndGet(full.length - 1);
+        return (T) full[0];
+    }
+    
+    private T pollShared() {
+        T object = shared.poll();
+        if (object != null) {
+            int remaining = sharedSize.decrementAndGet();
+            if (remaining < lowWaterShared) {
+                lowWaterShared = remaining;
+            }
+        }
+        return object;
+    }
+    
+    private boolean releaseShared(T object) {
+        int stored = sharedSize.incrementAndGet();
+        if (stored > targetSize) {
+            sharedSize.decrementAndGet();
+            totalDiscarded.increment();
+            return false;
+        }
+        if (stored > highWaterShared) {
+            highWaterShared = stored;
+        }
+        shared.offer(object);
+        return true;
+    }
+    
+    private Magazine currentMagazine() {
+        Magazine magazine = magazines.get();
+        int current = generation;
+        if (magazine.generation != current) {
+            // 池已被清空，弹匣中的旧对象交给GC
+            magazine.items = new Object[magazineSize];
+            magazine.count = 0;
+            magazine.generation = current;
+        }
+        return magazine;
     }
     
     /**
      * 预热池，创建初始对象
      */
     private void preWarmPool() {
-        int preWarmSize = Math.min(maxSize / 4, 10); // 预热25%或最多10个对象
-        for (int i = 0; i < preWarmSize; i++) {
+        for (int i = 0; i < policy.getMinSize(); i++) {
             T object = factory.get();
-            pool.offer(object);
-            currentSize.incrementAndGet();
-            totalCreated.incrementAndGet();
+            shared.offer(object);
+            sharedSize.incrementAndGet();
+            totalCreated.increment();
+        }
+    }
+    
+    /**
+     * 按上一个统计窗口的需求调整目标容量并修剪多余的空闲对象，由PoolManager定期调用
+     * 只有自适应策略生效；应由单个线程调用
+     */
+    public void adapt() {
+        long created = totalCreated.sum();
+        long discarded = totalDiscarded.sum();
+        long misses = created - lastCreated;
+        long drops = discarded - lastDiscarded;
+        lastCreated = created;
+        lastDiscarded = discarded;
+        
+        int idleMagazines = Math.min(lowWaterMagazines, depotMagazines.get());
+        int idleShared = Math.min(lowWaterShared, sharedSize.get());
+        
+        PoolPolicy current = policy;
+        if (current.isAdaptive()) {
+            int target = targetSize;
+            if (misses > 0 && drops > 0) {
+                // 既有新建又有丢弃：容量限制了复用，按缺口增长
+                target = (int) Math.min(current.getMaxSize(), target + Math.max(magazineSize, Math.min(misses, drops)));
+            } else if (idleMagazines + idleShared > 0) {
+                // 整个窗口都没被用到的空闲对象，释放其中一半；
+                // 目标容量收缩到本窗口空闲对象的峰值减去释放的部分
+                // 不修剪到minSize以下
+                int allowed = depotMagazines.get() * magazineSize + sharedSize.get() - current.getMinSize();
+                int trimmed = trimMagazines(Math.min((idleMagazines + 1) / 2, Math.max(0, allowed) / magazineSize)) * magazineSize;
+                trimmed += trimShared(Math.min((idleShared + 1) / 2, Math.max(0, allowed - trimmed)));
+                int peak = Math.max(highWaterMagazines, depotMagazines.get()) * magazineSize
+                        + Math.max(highWaterShared, sharedSize.get());
+                target = Math.max(current.getMinSize(), Math.min(target, peak - trimmed));
+            }
+            targetSize = target;
+        }
+        
+        startWindow();
+    }
+    
+    private void startWindow() {
+        lowWaterMagazines = highWaterMagazines = depotMagazines.get();
+        lowWaterShared = highWaterShared = sharedSize.get();
+    }
+    
+    private int trimMagazines(int count) {
+        int trimmed = 0;
+        while (trimmed < count && depot.poll() != null) {
+            depotMagazines.decrementAndGet();
+            trimmed++;
+        }
+        return trimmed;
+    }
+    
+    private int trimShared(int count) {
+        int trimmed = 0;
+        while (trimmed < count && shared.poll() != null) {
+            sharedSize.decrementAndGet();
+            trimmed++;
+        }
+        return trimmed;
+    }
+    
+    public PoolPolicy getPolicy() {
+        return policy;
+    }
+    
+    /**
+     * 更换容量策略，目标容量限制到新策略的范围内
+     */
+    public void setPolicy(PoolPolicy policy) {
+        this.policy = policy;
+        this.targetSize = policy.isAdaptive()
+            ? Math.max(policy.getMinSize(), Math.min(targetSize, policy.getMaxSize()))
+            : policy.getMaxSize();
+    }
+    
+    /**
+     * 开启或关闭（传入null）泄漏检测
+     */
+    public void setLeakDetector(LeakDetector leakDetector) {
+        this.leakDetector = leakDetector;
+    }
+    
+    private static boolean isVirtualThread() {
+        if (IS_VIRTUAL == null) return false;
+        try {
+            return (boolean) IS_VIRTUAL.invokeExact(Thread.currentThread());
+        } catch (Throwable e) {
+            return false;
+        }
+    }
+    
+    private static MethodHandle findIsVirtual() {
+        try {
+            return MethodHandles.publicLookup()
+                .findVirtual(Thread.class, "isVirtual", MethodType.methodType(boolean.class));
+        } catch (ReflectiveOperationException e) {
+            return null;
         }
     }
     
     /**
      * 获取池统计信息
+     * 当前大小只统计仓库和共享队列中可被任意线程取用的对象，不含各线程弹匣中的缓存
      */
     public PoolStats getStats() {
         return new PoolStats(
             poolName,
-            currentSize.get(),
-            maxSize,
-            totalCreated.get(),
-            totalReused.get()
+            depotMagazines.get() * magazineSize + sharedSize.get(),
+            targetSize,
+            policy.getMaxSize(),
+            totalCreated.sum(),
+            totalReused.sum()
         );
     }
     
     /**
-     * 清空池
+     * 清空池；各线程弹匣中的对象在该线程下次访问时丢弃
      */
     public void clear() {
-        pool.clear();
-        currentSize.set(0);
+        generation++;
+        while (depot.poll() != null) {
+            depotMagazines.decrementAndGet();
+        }
+        while (pollShared() != null) {
+            // 逐个取出以保持计数一致
+        }
+    }
+    
+    /**
+     * 线程私有的对象弹匣，只由所属线程访问；线程结束后其中的对象随之被GC回收
+     */
+    private final class Magazine {
+        private Object[] items = new Object[magazineSize];
+        private int count;
+        private int generation = MemoryPool.this.generation;
     }
     
     /**
@@ -106,14 +375,16 @@ public class MemoryPool<T> {
     public static class PoolStats {
         private final String poolName;
         private final int currentSize;
+        private final int targetSize;
         private final int maxSize;
         private final long totalCreated;
         private final long totalReused;
         
-        public PoolStats(String poolName, int currentSize, int maxSize, 
+        public PoolStats(String poolName, int currentSize, int targetSize, int maxSize,
                         long totalCreated, long totalReused) {
             this.poolName = poolName;
             this.currentSize = currentSize;
+            this.targetSize = targetSize;
             this.maxSize = maxSize;
             this.totalCreated = totalCreated;
             this.totalReused = totalReused;
@@ -127,16 +398,17 @@ public class MemoryPool<T> {
         @Override
         public String toString() {
             return String.format(
-                "Pool[%s]: 当前大小=%d/%d, 总创建=%d, 总复用=%d, 复用率=%.2f%%",
-                poolName, currentSize, maxSize, totalCreated, totalReused, getReuseRate()
+                "Pool[%s]: 当前大小=%d/%d(上限%d), 总创建=%d, 总复用=%d, 复用率=%.2f%%",
+                poolName, currentSize, targetSize, maxSize, totalCreated, totalReused, getReuseRate()
             );
         }
         
         // Getters
         public String getPoolName() { return poolName; }
         public int getCurrentSize() { return currentSize; }
+        public int getTargetSize() { return targetSize; }
         public int getMaxSize() { return maxSize; }
         public long getTotalCreated() { return totalCreated; }
         public long getTotalReused() { return totalReused; }
     }
-}
\ No newline at end of file
+}
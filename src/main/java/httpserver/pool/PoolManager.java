@@ -1,5 +1,11 @@
 package httpserver.pool;
 
+import httpserver.ServerConfig;
+import httpserver.log.Logger;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
@@ -11,17 +17,26 @@ import java.util.Map;
  * 提供池的创建、获取、监控和清理功能
  */
 public class PoolManager {
+    private static final Logger LOG = Logger.getLogger(PoolManager.class);
     private static final PoolManager INSTANCE = new PoolManager();
     private final Map<String, MemoryPool<?>> pools;
     private final ScheduledExecutorService scheduler;
+    // 堆外缓冲区分配器，用于通道I/O和响应头编码
+    private final SlabAllocator slabAllocator;
+    // 泄漏检测，未开启时为null
+    private final LeakDetector leakDetector;
     
     // 预定义的常用池
     public static final String STRING_BUILDER_POOL = "StringBuilder";
     public static final String BYTE_BUFFER_POOL = "ByteBuffer";
+    public static final String HEAP_BYTE_BUFFER_POOL = "HeapByteBuffer";
     public static final String HTTP_RESPONSE_POOL = "HttpResponse";
     
     private PoolManager() {
         this.pools = new ConcurrentHashMap<>();
+        this.slabAllocator = new SlabAllocator(BYTE_BUFFER_POOL, ServerConfig.POOL_DIRECT_BUDGET);
+        this.leakDetector = ServerConfig.POOL_LEAK_SAMPLING > 0
+                ? new LeakDetector(ServerConfig.POOL_LEAK_SAMPLING) : null;
         this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
             Thread t = new Thread(r, "PoolManager-Monitor");
             t.setDaemon(true);
@@ -42,23 +57,47 @@ public class PoolManager {
     private void initializePools() {
         // StringBuilder池 - 用于字符串拼接
         registerPool(STRING_BUILDER_POOL, 
-                    new MemoryPool<>(STRING_BUILDER_POOL, PooledStringBuilder::new, 100));
+                    new MemoryPool<>(STRING_BUILDER_POOL, PooledStringBuilder::new, 
+                                    policyFor(STRING_BUILDER_POOL, 10, 100, 1000)));
+        
+        // ByteBuffer池 - 用于网络I/O，按规格分级的堆外切片（固定容量，切片不修剪）
+        for (MemoryPool<PooledByteBuffer> pool : slabAllocator.getPools()) {
+            registerPool(pool.getStats().getPoolName(), pool);
+        }
         
-        // ByteBuffer池 - 用于网络I/O
-        registerPool(BYTE_BUFFER_POOL, 
-                    new MemoryPool<>(BYTE_BUFFER_POOL, PooledByteBuffer::new, 50));
+        // 堆ByteBuffer池 - 用于基于InputStream的阻塞读取（需要底层数组）
+        registerPool(HEAP_BYTE_BUFFER_POOL, 
+                    new MemoryPool<>(HEAP_BYTE_BUFFER_POOL, 
+                                    () -> new PooledByteBuffer(ByteBuffer.allocate(8192), this::releaseHeapByteBuffer), 
+                                    policyFor(HEAP_BYTE_BUFFER_POOL, 4, 50, 500)));
         
         // HTTP响应池 - 用于HTTP响应构建
         registerPool(HTTP_RESPONSE_POOL, 
-                    new MemoryPool<>(HTTP_RESPONSE_POOL, HttpResponseBuilder::new, 200));
+                    new MemoryPool<>(HTTP_RESPONSE_POOL, HttpResponseBuilder::new, 
+                                    policyFor(HTTP_RESPONSE_POOL, 10, 200, 2000)));
+    }
+    
+    /**
+     * 池的容量策略，可用-Dchat.pool.<池名>.minSize/.initialSize/.maxSize覆盖默认值，
+     * -Dchat.pool.<池名>.adaptive=false改为固定容量maxSize
+     */
+    private static PoolPolicy policyFor(String name, int minSize, int initialSize, int maxSize) {
+        String prefix = "chat.pool." + name + ".";
+        int max = ServerConfig.intProperty(prefix + "maxSize", maxSize);
+        if (!ServerConfig.booleanProperty(prefix + "adaptive", true)) {
+            return PoolPolicy.fixed(max);
+        }
+        return PoolPolicy.adaptive(ServerConfig.intProperty(prefix + "minSize", minSize),
+                                   ServerConfig.intProperty(prefix + "initialSize", initialSize), max);
     }
     
     /**
      * 注册内存池
      */
     public <T> void registerPool(String name, MemoryPool<T> pool) {
+        pool.setLeakDetector(leakDetector);
         pools.put(name, pool);
-        System.out.println("内存池已注册: " + name);
+        LOG.info("内存池已注册: {} ({})", name, pool.getPolicy());
     }
     
     /**
@@ -88,23 +127,54 @@ public class PoolManager {
     }
     
     /**
-     * 获取ByteBuffer池中的对象
+     * 获取默认大小（8KB）的堆外ByteBuffer
      */
     public PooledByteBuffer getByteBuffer() {
-        MemoryPool<PooledByteBuffer> pool = getPool(BYTE_BUFFER_POOL);
-        return pool != null ? pool.acquire() : new PooledByteBuffer();
+        return slabAllocator.acquire(8192);
+    }
+    
+    /**
+     * 获取容量不小于minCapacity的堆外ByteBuffer，超过最大规格时返回不入池的堆缓冲区
+     */
+    public PooledByteBuffer getByteBuffer(int minCapacity) {
+        return slabAllocator.acquire(minCapacity);
     }
     
     /**
-     * 归还ByteBuffer到池中
+     * 获取带底层数组的堆ByteBuffer，用于InputStream读取
+     */
+    public PooledByteBuffer getHeapByteBuffer() {
+        MemoryPool<PooledByteBuffer> pool = getPool(HEAP_BYTE_BUFFER_POOL);
+        PooledByteBuffer buffer = pool != null ? pool.acquire() : new PooledByteBuffer();
+        buffer.clear();
+        return buffer;
+    }
+    
+    /**
+     * 归还ByteBuffer，交回其来源（堆外规格池或堆缓冲区池）
      */
     public void releaseByteBuffer(PooledByteBuffer buffer) {
-        MemoryPool<PooledByteBuffer> pool = getPool(BYTE_BUFFER_POOL);
+        slabAllocator.release(buffer);
+    }
+    
+    private void releaseHeapByteBuffer(PooledByteBuffer buffer) {
+        MemoryPool<PooledByteBuffer> pool = getPool(HEAP_BYTE_BUFFER_POOL);
         if (pool != null) {
             pool.release(buffer);
         }
     }
     
+    /**
+     * 泄漏检测器，未开启时返回null
+     */
+    public LeakDetector getLeakDetector() {
+        return leakDetector;
+    }
+    
+    public SlabAllocator getSlabAllocator() {
+        return slabAllocator;
+    }
+    
     /**
      * 获取HTTP响应构建器
      */
@@ -131,20 +201,52 @@ public class PoolManager {
             try {
                 printPoolStats();
             } catch (Exception e) {
-                System.err.println("池监控异常: " + e.getMessage());
+                LOG.warn("池监控异常: {}", e.getMessage());
             }
         }, 60, 60, TimeUnit.SECONDS); // 每分钟打印一次统计信息
+        
+        // 按统计窗口调整各池的目标容量并修剪空闲对象
+        long interval = Math.max(100, ServerConfig.POOL_ADAPT_INTERVAL_MS);
+        scheduler.scheduleAtFixedRate(() -> {
+            try {
+                pools.values().forEach(MemoryPool::adapt);
+            } catch (Exception e) {
+                LOG.warn("池容量调整异常: {}", e.getMessage());
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+        
+        if (leakDetector != null) {
+            // 及时处理被回收的跟踪对象，泄漏报告不必等到下次借出
+            scheduler.scheduleWithFixedDelay(leakDetector::expunge, 5, 5, TimeUnit.SECONDS);
+            LOG.info("内存池泄漏检测已开启，采样间隔: 1/{}", leakDetector.getSamplingInterval());
+        }
     }
     
     /**
      * 打印所有池的统计信息
      */
     public void printPoolStats() {
-        System.out.println("\n=== 内存池统计信息 ===");
+        // 拼成一条日志，避免与其他线程的日志交错
+        StringBuilder stats = new StringBuilder("\n=== 内存池统计信息 ===\n");
         pools.forEach((name, pool) -> {
-            System.out.println(pool.getStats());
+            stats.append(pool.getStats()).append('\n');
         });
-        System.out.println("=====================\n");
+        stats.append(slabAllocator).append('\n');
+        if (leakDetector != null) {
+            leakDetector.expunge();
+            stats.append(leakDetector).append('\n');
+        }
+        stats.append("=====================");
+        LOG.info("{}", stats);
+    }
+    
+    /**
+     * 所有池的统计信息快照
+     */
+    public List<MemoryPool.PoolStats> getPoolStats() {
+        List<MemoryPool.PoolStats> stats = new ArrayList<>(pools.size());
+        pools.values().forEach(pool -> stats.add(pool.getStats()));
+        return stats;
     }
     
     /**
@@ -152,7 +254,7 @@ public class PoolManager {
      */
     public void clearAllPools() {
         pools.values().forEach(MemoryPool::clear);
-        System.out.println("所有内存池已清空");
+        LOG.info("所有内存池已清空");
     }
     
     /**
@@ -161,6 +263,6 @@ public class PoolManager {
     public void shutdown() {
         scheduler.shutdown();
         clearAllPools();
-        System.out.println("内存池管理器已关闭");
+        LOG.info("内存池管理器已关闭");
     }
 }
\ No newline at end of file
@@ -0,0 +1,48 @@
+package httpserver.pool;
+
+/**
+ * 内存池的容量策略
+ * 固定策略始终保留最多maxSize个空闲对象；自适应策略的保留容量（目标容量）从initialSize开始，
+ * 在[minSize, maxSize]范围内随每个统计窗口观察到的需求调整：
+ * 池满丢弃与新建同时发生说明容量限制了复用，目标容量增长；
+ * 整个窗口内始终空闲的对象是多余的，每个窗口修剪其中一半，内存随负载回落。
+ */
+public class PoolPolicy {
+    private final int minSize;
+    private final int initialSize;
+    private final int maxSize;
+    private final boolean adaptive;
+    
+    private PoolPolicy(int minSize, int initialSize, int maxSize, boolean adaptive) {
+        this.maxSize = Math.max(1, maxSize);
+        this.minSize = Math.max(0, Math.min(minSize, this.maxSize));
+        this.initialSize = Math.max(this.minSize, Math.min(initialSize, this.maxSize));
+        this.adaptive = adaptive;
+    }
+    
+    /**
+     * 固定容量，预热25%或最多10个对象
+     */
+    public static PoolPolicy fixed(int maxSize) {
+        return new PoolPolicy(Math.min(maxSize / 4, 10), maxSize, maxSize, false);
+    }
+    
+    /**
+     * 自适应容量，预热minSize个对象
+     */
+    public static PoolPolicy adaptive(int minSize, int initialSize, int maxSize) {
+        return new PoolPolicy(minSize, initialSize, maxSize, true);
+    }
+    
+    public int getMinSize() { return minSize; }
+    public int getInitialSize() { return initialSize; }
+    public int getMaxSize() { return maxSize; }
+    public boolean isAdaptive() { return adaptive; }
+    
+    @Override
+    public String toString() {
+        return adaptive
+            ? String.format("自适应[%d..%d], 初始=%d", minSize, maxSize, initialSize)
+            : String.format("固定[%d]", maxSize);
+    }
+}
@@ -9,4 +9,11 @@ public interface Poolable {
      * 重置对象状态，准备被重新使用
      */
     void reset();
-}
\ No newline at end of file
+    
+    /**
+     * 对象是否处于reset()后的状态；泄漏检测据此发现归还后仍被使用的对象
+     */
+    default boolean isReset() {
+        return true;
+    }
+}
@@ -4,18 +4,33 @@ import java.nio.ByteBuffer;
 
 /**
  * 可池化的ByteBuffer，用于网络I/O操作
+ * 由SlabAllocator分配的是堆外slab中的固定大小切片；归还时交回来源，不会扩容或缩容
  */
 public class PooledByteBuffer implements Poolable {
-    private ByteBuffer buffer;
     private static final int DEFAULT_SIZE = 8192; // 8KB
-    private static final int MAX_SIZE = 65536;    // 64KB
+    
+    /**
+     * 缓冲区的来源，负责回收归还的缓冲区
+     */
+    interface Recycler {
+        void recycle(PooledByteBuffer buffer);
+    }
+    
+    private final ByteBuffer buffer;
+    // 为null表示不入池，归还时直接交给GC
+    private final Recycler recycler;
     
     public PooledByteBuffer() {
-        this.buffer = ByteBuffer.allocate(DEFAULT_SIZE);
+        this(DEFAULT_SIZE);
     }
     
     public PooledByteBuffer(int size) {
-        this.buffer = ByteBuffer.allocate(Math.min(size, MAX_SIZE));
+        this(ByteBuffer.allocate(size), null);
+    }
+    
+    PooledByteBuffer(ByteBuffer buffer, Recycler recycler) {
+        this.buffer = buffer;
+        this.recycler = recycler;
     }
     
     public ByteBuffer getBuffer() {
@@ -38,6 +53,13 @@ public class PooledByteBuffer implements Poolable {
         buffer.put(b);
     }
     
+    public boolean isDirect() {
+        return buffer.isDirect();
+    }
+    
+    /**
+     * 底层数组，仅堆缓冲区可用
+     */
     public byte[] array() {
         return buffer.array();
     }
@@ -50,13 +72,20 @@ public class PooledByteBuffer implements Poolable {
         buffer.clear();
     }
     
+    void recycle() {
+        if (recycler != null) {
+            recycler.recycle(this);
+        }
+    }
+    
     @Override
     public void reset() {
-        // 如果buffer太大，重新创建一个默认大小的
-        if (buffer.capacity() > MAX_SIZE) {
-            buffer = ByteBuffer.allocate(DEFAULT_SIZE);
-        } else {
-            buffer.clear(); // 重置position和limit
-        }
+        // 容量在创建时固定，超过最大规格的缓冲区不入池，这里只需重置position和limit
+        buffer.clear();
+    }
+    
+    @Override
+    public boolean isReset() {
+        return buffer.position() == 0 && buffer.limit() == buffer.capacity();
     }
-}
\ No newline at end of file
+}
@@ -50,6 +50,11 @@ public class PooledStringBuilder implements Poolable {
         }
     }
     
+    @Override
+    public boolean isReset() {
+        return sb.length() == 0;
+    }
+    
     public StringBuilder getStringBuilder() {
         return sb;
     }
@@ -0,0 +1,17 @@
+package httpserver.pool;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * 响应输出目标，接收编码好的响应头和响应体
+ * 实现方负责在写出完成后将响应头缓冲区归还到池中
+ */
+public interface ResponseSink {
+    /**
+     * 写出一个完整响应
+     * @param head 池化的响应头缓冲区（读模式）
+     * @param body 响应体
+     */
+    void write(PooledByteBuffer head, ByteBuffer body) throws IOException;
+}
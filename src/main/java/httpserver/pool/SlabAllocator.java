@@ -0,0 +1,152 @@
+package httpserver.pool;
+
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 按2的幂分级的堆外缓冲区分配器
+ * 每个规格从整块的直接内存（slab）中切出固定大小的切片，切片归还后进入该规格的内存池循环使用。
+ * 所有slab占用的直接内存总量受全局预算限制，超出预算后该规格改用同样大小的堆缓冲区补充（同样入池循环）；
+ * 超过最大规格的请求返回不入池的堆缓冲区，用完即交给GC，不会长期占住大数组。
+ * 内存池满时被丢弃的切片进入该规格的空闲列表，切新切片前优先复用；切片因线程退出（留在其弹匣中）或池被清空而不可达时，
+ * slab连同全部切片不可达后由GC释放，其预算随之归还，预算始终对应实际占用的直接内存。
+ */
+public class SlabAllocator {
+    // slab被GC回收时归还预算
+    private static final Cleaner CLEANER = Cleaner.create();
+    private static final int MIN_CLASS_SHIFT = 9;   // 512B
+    private static final int MAX_CLASS_SHIFT = 16;  // 64KB
+    private static final int SLAB_SIZE = 256 * 1024;
+    
+    private final SizeClass[] classes = new SizeClass[MAX_CLASS_SHIFT - MIN_CLASS_SHIFT + 1];
+    private final long budget;
+    // 已向操作系统申请的直接内存字节数
+    private final AtomicLong reserved = new AtomicLong();
+    private final LongAdder budgetFallbacks = new LongAdder();
+    private final LongAdder oversized = new LongAdder();
+    // 由GC回收后归还的预算字节数
+    private final LongAdder reclaimed = new LongAdder();
+    
+    public SlabAllocator(String namePrefix, long budget) {
+        this.budget = budget;
+        for (int i = 0; i < classes.length; i++) {
+            classes[i] = new SizeClass(namePrefix, 1 << (MIN_CLASS_SHIFT + i));
+        }
+    }
+    
+    /**
+     * 获取容量不小于minCapacity的缓冲区，处于写模式（position=0, limit=capacity）
+     */
+    public PooledByteBuffer acquire(int minCapacity) {
+        if (minCapacity > maxClassSize()) {
+            oversized.increment();
+            return new PooledByteBuffer(ByteBuffer.allocate(minCapacity), null);
+        }
+        PooledByteBuffer buffer = classFor(minCapacity).pool.acquire();
+        buffer.clear();
+        return buffer;
+    }
+    
+    /**
+     * 归还缓冲区：池化的切片回到所属规格的内存池，其余交给GC
+     */
+    public void release(PooledByteBuffer buffer) {
+        if (buffer != null) {
+            buffer.recycle();
+        }
+    }
+    
+    public List<MemoryPool<PooledByteBuffer>> getPools() {
+        List<MemoryPool<PooledByteBuffer>> pools = new ArrayList<>(classes.length);
+        for (SizeClass sizeClass : classes) {
+            pools.add(sizeClass.pool);
+        }
+        return pools;
+    }
+    
+    public static int maxClassSize() {
+        return 1 << MAX_CLASS_SHIFT;
+    }
+    
+    public long getReservedBytes() { return reserved.get(); }
+    public long getBudget() { return budget; }
+    public long getBudgetFallbackCount() { return budgetFallbacks.sum(); }
+    public long getOversizedCount() { return oversized.sum(); }
+    public long getReclaimedBytes() { return reclaimed.sum(); }
+    
+    @Override
+    public String toString() {
+        return String.format(
+            "Slab: 直接内存=%dKB/%dKB, 已回收=%dKB, 超出预算退化=%d, 超过最大规格=%d",
+            reserved.get() / 1024, budget / 1024, getReclaimedBytes() / 1024, getBudgetFallbackCount(), getOversizedCount()
+        );
+    }
+    
+    private SizeClass classFor(int minCapacity) {
+        int shift = 32 - Integer.numberOfLeadingZeros(Math.max(minCapacity, 1) - 1);
+        return classes[Math.max(shift, MIN_CLASS_SHIFT) - MIN_CLASS_SHIFT];
+    }
+    
+    /**
+     * 单个规格：当前正在切分的slab和空闲切片池
+     */
+    private final class SizeClass implements PooledByteBuffer.Recycler {
+        private final int size;
+        private final MemoryPool<PooledByteBuffer> pool;
+        // 当前正在切分的slab，由this保护
+        private ByteBuffer slab;
+        // 内存池满时被丢弃的切片，切新切片前优先取用
+        private final ConcurrentLinkedQueue<PooledByteBuffer> spare = new ConcurrentLinkedQueue<>();
+        
+        SizeClass(String namePrefix, int size) {
+            this.size = size;
+            // 切片只在池中循环，池容量按预算可容纳的切片数固定设置，保证归还时不会被丢弃；
+            // 丢弃的切片无法还给操作系统，因此规格池不使用自适应修剪
+            int maxSlices = (int) Math.min(Integer.MAX_VALUE, Math.max(1, budget / size));
+            this.pool = new MemoryPool<>(namePrefix + "-" + size, this::carve, maxSlices);
+        }
+        
+        /**
+         * 内存池为空时先复用被丢弃的切片，再切出新切片；当前slab用完时在预算内申请新的slab
+         */
+        private synchronized PooledByteBuffer carve() {
+            PooledByteBuffer spared = spare.poll();
+            if (spared != null) {
+                return spared;
+            }
+            if (slab == null || slab.remaining() < size) {
+                int slabSize = Math.max(SLAB_SIZE, size);
+                if (reserved.addAndGet(slabSize) > budget) {
+                    reserved.addAndGet(-slabSize);
+                    budgetFallbacks.increment();
+                    return new PooledByteBuffer(ByteBuffer.allocate(size), this);
+                }
+                slab = ByteBuffer.allocateDirect(slabSize);
+                // 切片持有所属slab的引用，slab只有在全部切片都不可达后才会被回收
+                CLEANER.register(slab, () -> {
+                    reserved.addAndGet(-slabSize);
+                    reclaimed.add(slabSize);
+                });
+            }
+            int start = slab.position();
+            slab.limit(start + size);
+            ByteBuffer slice = slab.slice();
+            slab.position(start + size);
+            slab.limit(slab.capacity());
+            return new PooledByteBuffer(slice, this);
+        }
+        
+        @Override
+        public void recycle(PooledByteBuffer buffer) {
+            // 直接内存切片不能交给GC了事，否则其预算要等整个slab不可达才能归还
+            if (!pool.release(buffer) && buffer.getBuffer().isDirect()) {
+                spare.offer(buffer);
+            }
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package httpserver.store;
+
+import httpserver.model.ChatMessage;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 已解码日志块的LRU缓存，由同一JournalManager打开的所有日志共享，总块数有上限
+ * 键为日志段及块内第一条消息的序号；只缓存不再变化的完整块：当前段最后一块仍在追加，每次都重新读取。
+ * 翻页查询集中在最近的块上，命中时不需要读映射内存和解析JSON。
+ * 段被删除或所属日志被关闭时由MessageJournal撤销该段的全部块，缓存不会留住已失效段的映射内存。
+ */
+final class BlockCache {
+    private final Map<Key, List<ChatMessage>> blocks;
+
+    BlockCache(int capacity) {
+        int maxBlocks = Math.max(0, capacity);
+        this.blocks = new LinkedHashMap<Key, List<ChatMessage>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, List<ChatMessage>> eldest) {
+                return size() > maxBlocks;
+            }
+        };
+    }
+
+    synchronized List<ChatMessage> get(JournalSegment segment, long firstSeq) {
+        return blocks.get(new Key(segment, firstSeq));
+    }
+
+    synchronized void put(JournalSegment segment, long firstSeq, List<ChatMessage> block) {
+        blocks.put(new Key(segment, firstSeq), block);
+    }
+
+    /**
+     * 移除属于该段的全部块；缓存块数有上限，逐项检查的开销可以忽略
+     */
+    synchronized void invalidate(JournalSegment segment) {
+        blocks.keySet().removeIf(key -> key.segment == segment);
+    }
+
+    private static final class Key {
+        private final JournalSegment segment;
+        private final long firstSeq;
+
+        Key(JournalSegment segment, long firstSeq) {
+            this.segment = segment;
+            this.firstSeq = firstSeq;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            return segment == other.segment && firstSeq == other.firstSeq;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(segment) * 31 + Long.hashCode(firstSeq);
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package httpserver.store;
+
+import httpserver.log.Logger;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * 消息日志管理器，每个聊天室一个独立的MessageJournal（独立的目录、序号和追加锁），
+ * 不同房间的写入互不竞争；刷盘线程和已解码块的缓存由所有日志共享，开销不随房间数增长。
+ * 默认房间使用根目录（与单房间时的布局相同），其他房间位于 根目录/rooms/房间ID。
+ * 磁盘上已有日志的房间列表在启动时读取一次，之后随打开和删除维护，查询不存在的房间不访问文件系统。
+ */
+public class JournalManager {
+    private static final Logger LOG = Logger.getLogger(JournalManager.class);
+
+    private final Path root;
+    private final String defaultName;
+    private final int segmentSize;
+    private final int roomSegmentSize;
+    private final int maxSegments;
+    private final int indexInterval;
+    private final boolean syncEveryAppend;
+    private final BlockCache blockCache;
+    private final Map<String, MessageJournal> journals = new ConcurrentHashMap<>();
+    // 磁盘上有日志目录的房间（不含默认房间）
+    private final Set<String> persisted = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService syncer;
+
+    public JournalManager(Path root, String defaultName, int segmentSize, int roomSegmentSize, int maxSegments,
+                          long syncIntervalMs, int indexInterval, int blockCacheSize) throws IOException {
+        this.root = root;
+        this.defaultName = defaultName;
+        this.segmentSize = segmentSize;
+        this.roomSegmentSize = roomSegmentSize;
+        this.maxSegments = maxSegments;
+        this.indexInterval = indexInterval;
+        this.blockCache = new BlockCache(blockCacheSize);
+        Files.createDirectories(root);
+        loadPersistedRooms();
+        this.syncEveryAppend = syncIntervalMs <= 0;
+        if (syncEveryAppend) {
+            this.syncer = null;
+        } else {
+            this.syncer = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "Journal-Sync");
+                t.setDaemon(true);
+                return t;
+            });
+            syncer.scheduleWithFixedDelay(() -> journals.values().forEach(MessageJournal::sync),
+                syncIntervalMs, syncIntervalMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void loadPersistedRooms() throws IOException {
+        Path rooms = root.resolve("rooms");
+        if (!Files.isDirectory(rooms)) return;
+        try (DirectoryStream<Path> dirs = Files.newDirectoryStream(rooms, Files::isDirectory)) {
+            for (Path dir : dirs) {
+                persisted.add(dir.getFileName().toString());
+            }
+        }
+        LOG.info("磁盘上已有 {} 个房间的消息日志", persisted.size());
+    }
+
+    /**
+     * 房间的日志是否已存在于磁盘上（服务器重启前有过消息）
+     */
+    public boolean exists(String name) {
+        return defaultName.equals(name) || persisted.contains(name);
+    }
+
+    /**
+     * 打开房间的日志，返回前尚未恢复；同一房间只能打开一次，由调用方保证
+     */
+    public MessageJournal open(String name) throws IOException {
+        boolean isDefault = defaultName.equals(name);
+        MessageJournal journal = new MessageJournal(directoryOf(name), isDefault ? segmentSize : roomSegmentSize,
+            maxSegments, syncEveryAppend, indexInterval, blockCache);
+        journals.put(name, journal);
+        if (!isDefault) {
+            persisted.add(name);
+        }
+        return journal;
+    }
+
+    /**
+     * 关闭房间的日志，之后可以重新打开；delete为true时同时删除其日志目录（默认房间除外）
+     */
+    public void close(String name, boolean delete) {
+        MessageJournal journal = journals.remove(name);
+        if (journal != null) {
+            journal.close();
+        }
+        if (!delete || defaultName.equals(name)) return;
+        persisted.remove(name);
+        try (Stream<Path> files = Files.walk(directoryOf(name))) {
+            // 先删文件再删目录
+            files.sorted(Comparator.reverseOrder()).forEach(path -> {
+                try {
+                    Files.deleteIfExists(path);
+                } catch (IOException e) {
+                    LOG.warn("删除房间 {} 的日志文件失败：{}", name, e.getMessage());
+                }
+            });
+        } catch (IOException e) {
+            LOG.warn("删除房间 {} 的日志目录失败：{}", name, e.getMessage());
+        }
+    }
+
+    private Path directoryOf(String name) {
+        return defaultName.equals(name) ? root : root.resolve("rooms").resolve(name);
+    }
+
+    public int getOpenCount() {
+        return journals.size();
+    }
+
+    public void close() {
+        if (syncer != null) {
+            syncer.shutdown();
+        }
+        journals.values().forEach(MessageJournal::close);
+        LOG.info("消息日志已关闭：{} 个房间", journals.size());
+    }
+}
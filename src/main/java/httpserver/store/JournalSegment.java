@@ -0,0 +1,267 @@
+package httpserver.store;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.CRC32;
+
+/**
+ * 日志段：一个整体映射到内存的定长文件，顺序追加长度前缀的二进制记录
+ * 记录格式（大端）：
+ *   int  payloadLength  负载字节数，0表示段内数据到此结束
+ *   int  crc            负载的CRC32
+ *   long seq            消息序号
+ *   long timestamp      消息时间戳
+ *   byte[payloadLength] 负载（消息JSON）
+ * 文件创建时按段大小预留（稀疏文件，全零），长度字段最后写入；
+ * 崩溃后从头扫描，遇到长度为0、越界、CRC不符或序号不递增的记录即视为数据结束。
+ * 每写入约indexInterval字节在稀疏索引（SegmentIndex）中登记一项，恢复时随扫描重建。
+ */
+final class JournalSegment {
+    static final int HEADER_SIZE = 24;
+    static final String SUFFIX = ".seg";
+
+    private final Path path;
+    // 段内第一条消息的序号，也是文件名
+    private final long baseSeq;
+    private final MappedByteBuffer buffer;
+    private final SegmentIndex index;
+    private final int indexInterval;
+    // 最近一个索引项对应的记录偏移量，只由写入者访问
+    private int lastIndexedOffset = -1;
+    // 是否已扫描确定写入位置并使索引与段内数据一致；启动时未扫描的旧段在第一次查询时处理
+    private volatile boolean indexed;
+    // 已写入并对读取方可见的字节数
+    private volatile int writePosition;
+    // 已强制刷盘的字节数
+    private volatile int syncedPosition;
+    // 段内最后一条记录的序号，空段为baseSeq-1
+    private volatile long lastSeq;
+
+    private JournalSegment(Path path, long baseSeq, MappedByteBuffer buffer, SegmentIndex index, int indexInterval) {
+        this.path = path;
+        this.baseSeq = baseSeq;
+        this.buffer = buffer;
+        this.index = index;
+        this.indexInterval = indexInterval;
+        this.lastSeq = baseSeq - 1;
+    }
+
+    static Path pathFor(Path directory, long baseSeq) {
+        return directory.resolve(String.format("%020d%s", baseSeq, SUFFIX));
+    }
+
+    /**
+     * 文件名中的起始序号，不是日志段文件时返回-1
+     */
+    static long baseSeqOf(Path file) {
+        String name = file.getFileName().toString();
+        if (!name.endsWith(SUFFIX)) return -1;
+        try {
+            return Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    static JournalSegment create(Path directory, long baseSeq, int size, int indexInterval) throws IOException {
+        JournalSegment segment = map(pathFor(directory, baseSeq), baseSeq, size, indexInterval);
+        segment.index.clear();
+        segment.indexed = true;
+        return segment;
+    }
+
+    static JournalSegment open(Path file, int indexInterval) throws IOException {
+        long size = Files.size(file);
+        return map(file, baseSeqOf(file), (int) Math.min(size, Integer.MAX_VALUE), indexInterval);
+    }
+
+    private static JournalSegment map(Path file, long baseSeq, int size, int indexInterval) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            if (raf.length() < size) {
+                raf.setLength(size);
+            }
+            // 映射在通道关闭后仍然有效
+            MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            return new JournalSegment(file, baseSeq, buffer, SegmentIndex.open(file, size, indexInterval), indexInterval);
+        }
+    }
+
+    /**
+     * 从头扫描有效记录，确定写入位置；visitor依次收到每条记录的偏移量和序号
+     * 末尾未写完的记录被清零，之后的追加不会把残留字节误认为记录
+     */
+    synchronized void recover(RecordVisitor visitor) {
+        index.clear();
+        lastIndexedOffset = -1;
+        scan(0, baseSeq - 1, visitor);
+    }
+
+    /**
+     * 从position开始扫描有效记录直到数据结束，previousSeq为position之前最后一条记录的序号
+     */
+    private void scan(int position, long previousSeq, RecordVisitor visitor) {
+        ByteBuffer view = buffer.duplicate();
+        int limit = view.capacity();
+        while (position + HEADER_SIZE <= limit) {
+            int length = view.getInt(position);
+            if (length <= 0 || length > limit - position - HEADER_SIZE) break;
+            long seq = view.getLong(position + 8);
+            if (seq <= previousSeq || view.getInt(position + 4) != crc(view, position + HEADER_SIZE, length)) break;
+            visitor.visit(this, position, seq);
+            indexRecord(seq, view.getLong(position + 16), position);
+            previousSeq = seq;
+            position += HEADER_SIZE + length;
+        }
+        if (position + HEADER_SIZE <= limit && view.getInt(position) != 0) {
+            int tornLength = Math.max(0, Math.min(view.getInt(position), limit - position - HEADER_SIZE));
+            for (int i = position, end = position + HEADER_SIZE + tornLength; i < end; i++) {
+                view.put(i, (byte) 0);
+            }
+        }
+        writePosition = position;
+        syncedPosition = position;
+        lastSeq = previousSeq;
+        indexed = true;
+    }
+
+    /**
+     * 保证索引和写入位置可用：启动时未扫描的旧段在第一次查询时处理
+     * 索引文件中最后一项指向有效记录时只需从该处扫描到段尾，否则整段扫描重建
+     */
+    void ensureIndexed() {
+        if (!indexed) {
+            synchronized (this) {
+                if (!indexed) {
+                    int last = index.size() - 1;
+                    if (last >= 0 && isValidRecord(index.offsetAt(last), index.seqAt(last))) {
+                        lastIndexedOffset = index.offsetAt(last);
+                        scan(lastIndexedOffset, index.seqAt(last) - 1, (segment, offset, seq) -> { });
+                    } else {
+                        recover((segment, offset, seq) -> { });
+                    }
+                }
+            }
+        }
+    }
+
+    private boolean isValidRecord(int offset, long seq) {
+        if (offset < 0 || !hasRecordAt(offset, buffer.capacity()) || readSeq(offset) != seq) return false;
+        return buffer.getInt(offset + 4) == crc(buffer, offset + HEADER_SIZE, buffer.getInt(offset));
+    }
+
+    private void indexRecord(long seq, long timestamp, int offset) {
+        if (lastIndexedOffset < 0 || offset - lastIndexedOffset >= indexInterval) {
+            index.add(seq, timestamp, offset);
+            lastIndexedOffset = offset;
+        }
+    }
+
+    /**
+     * 追加一条记录，剩余空间不足时返回false；调用方保证同一时刻只有一个写入者
+     */
+    boolean append(long seq, long timestamp, int crc, byte[] payload) {
+        int position = writePosition;
+        int end = position + HEADER_SIZE + payload.length;
+        if (end > buffer.capacity()) {
+            return false;
+        }
+        ByteBuffer view = buffer.duplicate();
+        view.position(position + 4);
+        view.putInt(crc).putLong(seq).putLong(timestamp).put(payload);
+        // 结束标记之外的部分写完后才写长度，读取方不会看到写了一半的记录
+        if (end + 4 <= buffer.capacity()) {
+            view.putInt(end, 0);
+        }
+        view.putInt(position, payload.length);
+        lastSeq = seq;
+        writePosition = end;
+        // 写入位置发布之后才登记索引，读取方看到的索引项总是指向已写完的记录
+        indexRecord(seq, timestamp, position);
+        return true;
+    }
+
+    /**
+     * 读取指定偏移量处记录的负载
+     */
+    byte[] readPayload(int offset) {
+        ByteBuffer view = buffer.duplicate();
+        byte[] payload = new byte[view.getInt(offset)];
+        view.position(offset + HEADER_SIZE);
+        view.get(payload);
+        return payload;
+    }
+
+    long readSeq(int offset) {
+        return buffer.getLong(offset + 8);
+    }
+
+    long readTimestamp(int offset) {
+        return buffer.getLong(offset + 16);
+    }
+
+    /**
+     * 下一条记录的偏移量
+     */
+    int nextOffset(int offset) {
+        return offset + HEADER_SIZE + buffer.getInt(offset);
+    }
+
+    /**
+     * offset处是否有完整的记录（end为已知的数据结束位置）
+     */
+    boolean hasRecordAt(int offset, int end) {
+        if (offset + HEADER_SIZE > Math.min(end, buffer.capacity())) return false;
+        int length = buffer.getInt(offset);
+        return length > 0 && length <= end - offset - HEADER_SIZE;
+    }
+
+    /**
+     * 把已写入但未刷盘的数据强制写回磁盘
+     */
+    void force() {
+        int position = writePosition;
+        if (position != syncedPosition) {
+            buffer.force();
+            index.force();
+            syncedPosition = position;
+        }
+    }
+
+    boolean hasUnsyncedWrites() {
+        return writePosition != syncedPosition;
+    }
+
+    static int crc(byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+        return (int) crc.getValue();
+    }
+
+    private static int crc(ByteBuffer view, int offset, int length) {
+        ByteBuffer slice = view.duplicate();
+        slice.position(offset).limit(offset + length);
+        CRC32 crc = new CRC32();
+        crc.update(slice);
+        return (int) crc.getValue();
+    }
+
+    SegmentIndex getIndex() { return index; }
+    Path getPath() { return path; }
+    long getBaseSeq() { return baseSeq; }
+    long getLastSeq() { return lastSeq; }
+    int getWritePosition() { return writePosition; }
+    int getCapacity() { return buffer.capacity(); }
+
+    boolean isEmpty() {
+        return writePosition == 0;
+    }
+
+    interface RecordVisitor {
+        void visit(JournalSegment segment, int offset, long seq);
+    }
+}
@@ -0,0 +1,303 @@
+package httpserver.store;
+
+import httpserver.log.Logger;
+import httpserver.model.ChatMessage;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.ToLongFunction;
+import java.util.stream.Stream;
+
+/**
+ * 追加写的消息日志，保存在内存映射的日志段文件中
+ * - 消息在锁外编码为JSON，锁内只分配序号并复制到映射内存，不发生系统调用
+ * - JournalManager的后台线程按固定间隔把新写入的数据刷盘（组提交），间隔为0时每条消息都刷盘
+ * - 当前段写满后换到以下一条序号命名的新段，超过保留段数时删除最旧的段
+ * - 启动时扫描最后的段恢复写入位置和最近的消息，耗时与总消息数无关
+ * - 按序号或时间范围翻页查询时，用各段的稀疏索引定位到块，只读取页面涉及的块，已解码的块放入LRU缓存
+ */
+public class MessageJournal {
+    private static final Logger LOG = Logger.getLogger(MessageJournal.class);
+
+    private final Path directory;
+    private final int segmentSize;
+    private final int maxSegments;
+    private final int indexInterval;
+    private final BlockCache blockCache;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    // 全部日志段，按起始序号排序
+    private final ConcurrentSkipListMap<Long, JournalSegment> segments = new ConcurrentSkipListMap<>();
+    private final ReentrantLock appendLock = new ReentrantLock();
+    private final boolean syncEveryAppend;
+    private volatile JournalSegment active;
+    // 日志已关闭，之后读取的块不再放入缓存
+    private volatile boolean closed;
+
+    MessageJournal(Path directory, int segmentSize, int maxSegments, boolean syncEveryAppend,
+                   int indexInterval, BlockCache blockCache) throws IOException {
+        this.directory = directory;
+        this.segmentSize = Math.max(1024 * 1024, segmentSize);
+        this.maxSegments = Math.max(2, maxSegments);
+        this.indexInterval = Math.max(JournalSegment.HEADER_SIZE, indexInterval);
+        this.blockCache = blockCache;
+        this.syncEveryAppend = syncEveryAppend;
+        Files.createDirectories(directory);
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                if (JournalSegment.baseSeqOf(file) > 0) {
+                    JournalSegment segment = JournalSegment.open(file, this.indexInterval);
+                    segments.put(segment.getBaseSeq(), segment);
+                }
+            }
+        }
+    }
+
+    /**
+     * 恢复写入位置，返回最近的limit条消息（按序号升序）；必须在第一次追加之前调用
+     * 只扫描最后一个段，不足limit条时再向前扫描，直到凑够或没有更早的段
+     */
+    public List<ChatMessage> recover(int limit) throws IOException {
+        long started = System.nanoTime();
+        if (segments.isEmpty()) {
+            active = JournalSegment.create(directory, 1, segmentSize, indexInterval);
+            segments.put(active.getBaseSeq(), active);
+            LOG.info("消息日志已创建：{}", directory.toAbsolutePath());
+            return new ArrayList<>();
+        }
+
+        // 环形记录最近limit条记录的位置
+        JournalSegment[] recentSegments = new JournalSegment[Math.max(1, limit)];
+        int[] recentOffsets = new int[recentSegments.length];
+        List<ChatMessage> recovered = new ArrayList<>();
+        boolean first = true;
+        for (JournalSegment segment : segments.descendingMap().values()) {
+            int[] count = { 0 };
+            segment.recover((s, offset, seq) -> {
+                int slot = count[0]++ % recentSegments.length;
+                recentSegments[slot] = s;
+                recentOffsets[slot] = offset;
+            });
+            if (first) {
+                active = segment;
+                first = false;
+            }
+            // 本段的最后若干条排在已恢复的消息之前
+            int take = Math.min(count[0], limit - recovered.size());
+            List<ChatMessage> fromSegment = new ArrayList<>(take);
+            for (int i = count[0] - take; i < count[0]; i++) {
+                int slot = i % recentSegments.length;
+                fromSegment.add(decode(recentSegments[slot], recentOffsets[slot]));
+            }
+            fromSegment.addAll(recovered);
+            recovered = fromSegment;
+            if (recovered.size() >= limit) break;
+        }
+        LOG.info("消息日志恢复完成：{} 个段，最后序号 {}", segments.size(), getLastSequence());
+        LOG.info("载入最近 {} 条消息，耗时 {} 毫秒", recovered.size(), (System.nanoTime() - started) / 1_000_000);
+        return recovered;
+    }
+
+    private ChatMessage decode(JournalSegment segment, int offset) throws IOException {
+        ChatMessage message = objectMapper.readValue(segment.readPayload(offset), ChatMessage.class);
+        message.setSeq(segment.readSeq(offset));
+        return message;
+    }
+
+    /**
+     * 序号小于beforeSeq的最近limit条消息（按序号升序），用于向前翻页
+     * 从beforeSeq所在的块开始逐块向前读取，涉及的块数不超过 limit/每块条数 + 2
+     */
+    public List<ChatMessage> readBefore(long beforeSeq, int limit) throws IOException {
+        List<ChatMessage> page = new ArrayList<>(Math.min(limit, 1024));
+        long cursor = beforeSeq - 1;
+        Map.Entry<Long, JournalSegment> entry = segments.floorEntry(cursor);
+        while (entry != null && page.size() < limit) {
+            JournalSegment segment = entry.getValue();
+            segment.ensureIndexed();
+            for (int block = segment.getIndex().floorBySeq(cursor); block >= 0 && page.size() < limit; block--) {
+                List<ChatMessage> messages = readBlock(segment, block);
+                for (int i = messages.size() - 1; i >= 0 && page.size() < limit; i--) {
+                    if (messages.get(i).getSeq() <= cursor) {
+                        page.add(messages.get(i));
+                    }
+                }
+            }
+            entry = segments.lowerEntry(entry.getKey());
+        }
+        Collections.reverse(page);
+        return page;
+    }
+
+    /**
+     * 时间戳在[from, to)内的最早limit条消息（按序号升序）
+     * 时间戳在分配序号之前取得，只是近似递增：从首条时间戳早于from的块的前一块开始读取，
+     * 按实际时间戳过滤，遇到首条时间戳不早于to的块即停止
+     */
+    public List<ChatMessage> readBetween(long from, long to, int limit) throws IOException {
+        List<ChatMessage> page = new ArrayList<>(Math.min(limit, 1024));
+        // 从新到旧找到第一个首条时间戳早于from的段，最多检查全部保留的段
+        Long startKey = segments.isEmpty() ? null : segments.firstKey();
+        for (JournalSegment segment : segments.descendingMap().values()) {
+            segment.ensureIndexed();
+            SegmentIndex index = segment.getIndex();
+            if (index.size() > 0 && index.timestampAt(0) < from) {
+                startKey = segment.getBaseSeq();
+                break;
+            }
+        }
+        if (startKey == null) return page;
+        boolean first = true;
+        for (JournalSegment segment : segments.tailMap(startKey, true).values()) {
+            segment.ensureIndexed();
+            SegmentIndex index = segment.getIndex();
+            int block = first ? Math.max(0, index.lowerByTimestamp(from) - 1) : 0;
+            first = false;
+            for (; block < index.size(); block++) {
+                if (index.timestampAt(block) >= to) return page;
+                for (ChatMessage message : readBlock(segment, block)) {
+                    long timestamp = message.getTimestamp();
+                    if (timestamp >= from && timestamp < to) {
+                        page.add(message);
+                        if (page.size() >= limit) return page;
+                    }
+                }
+            }
+        }
+        return page;
+    }
+
+    /**
+     * 读取段内第block块的全部消息：从该索引项的偏移量到下一项（最后一块到写入位置）
+     */
+    private List<ChatMessage> readBlock(JournalSegment segment, int block) throws IOException {
+        SegmentIndex index = segment.getIndex();
+        long firstSeq = index.seqAt(block);
+        List<ChatMessage> cached = blockCache.get(segment, firstSeq);
+        if (cached != null) return cached;
+
+        boolean complete = block + 1 < index.size() || segment != active;
+        int end = block + 1 < index.size() ? index.offsetAt(block + 1) : segment.getWritePosition();
+        List<ChatMessage> messages = new ArrayList<>();
+        for (int offset = index.offsetAt(block); segment.hasRecordAt(offset, end); offset = segment.nextOffset(offset)) {
+            messages.add(decode(segment, offset));
+        }
+        messages = Collections.unmodifiableList(messages);
+        if (complete) {
+            blockCache.put(segment, firstSeq, messages);
+            // 读取期间该段被删除或日志被关闭时撤销刚放入的块，与删除一方的顺序相反，两者并发时至少一方能撤销
+            if (closed || segments.get(segment.getBaseSeq()) != segment) {
+                blockCache.invalidate(segment);
+            }
+        }
+        return messages;
+    }
+
+    /**
+     * 最后写入的序号，没有消息时为0
+     */
+    public long getLastSequence() {
+        JournalSegment segment = active;
+        if (segment == null) return 0;
+        if (!segment.isEmpty()) return segment.getLastSeq();
+        Map.Entry<Long, JournalSegment> previous = segments.lowerEntry(segment.getBaseSeq());
+        return previous != null ? previous.getValue().getLastSeq() : segment.getBaseSeq() - 1;
+    }
+
+    /**
+     * 分配序号并追加消息，sequencer在锁内调用，保证日志中的记录按序号排列
+     * 写入失败时只记录日志，消息仍通过sequencer进入内存历史
+     */
+    public void append(ChatMessage message, ToLongFunction<ChatMessage> sequencer) {
+        byte[] payload;
+        try {
+            payload = objectMapper.writeValueAsBytes(message);
+        } catch (JsonProcessingException e) {
+            LOG.warn("消息编码失败，未写入日志：{}", e.getMessage());
+            sequencer.applyAsLong(message);
+            return;
+        }
+        int crc = JournalSegment.crc(payload);
+        appendLock.lock();
+        try {
+            long seq = sequencer.applyAsLong(message);
+            JournalSegment segment = active;
+            if (!segment.append(seq, message.getTimestamp(), crc, payload)) {
+                if (JournalSegment.HEADER_SIZE + payload.length > segmentSize) {
+                    LOG.warn("消息 {} 超过日志段大小，未写入日志", seq);
+                    return;
+                }
+                segment = roll(seq);
+                segment.append(seq, message.getTimestamp(), crc, payload);
+            }
+            if (syncEveryAppend) {
+                segment.force();
+            }
+        } catch (IOException e) {
+            LOG.error("写入消息日志失败：{}", e.getMessage());
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * 封存当前段并创建以seq命名的新段，超过保留段数时删除最旧的段
+     */
+    private JournalSegment roll(long seq) throws IOException {
+        JournalSegment sealed = active;
+        sealed.force();
+        JournalSegment next = JournalSegment.create(directory, seq, segmentSize, indexInterval);
+        segments.put(seq, next);
+        active = next;
+        while (segments.size() > maxSegments) {
+            Map.Entry<Long, JournalSegment> oldest = segments.pollFirstEntry();
+            blockCache.invalidate(oldest.getValue());
+            try {
+                Files.deleteIfExists(oldest.getValue().getPath());
+                Files.deleteIfExists(oldest.getValue().getIndex().getPath());
+                LOG.info("删除过期的日志段：{}", oldest.getValue().getPath().getFileName());
+            } catch (IOException e) {
+                LOG.warn("删除日志段 {} 失败：{}", oldest.getValue().getPath().getFileName(), e.getMessage());
+            }
+        }
+        return next;
+    }
+
+    /**
+     * 把当前段新写入的数据刷盘；上一个段在换段时已刷盘
+     */
+    public void sync() {
+        JournalSegment segment = active;
+        if (segment != null && segment.hasUnsyncedWrites()) {
+            try {
+                segment.force();
+            } catch (RuntimeException e) {
+                LOG.error("消息日志刷盘失败：{}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 刷盘并撤销本日志在共享块缓存中的全部块，关闭后的日志不再被缓存引用
+     */
+    public void close() {
+        appendLock.lock();
+        try {
+            sync();
+        } finally {
+            appendLock.unlock();
+        }
+        closed = true;
+        for (JournalSegment segment : segments.values()) {
+            blockCache.invalidate(segment);
+        }
+    }
+}
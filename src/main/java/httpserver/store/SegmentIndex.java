@@ -0,0 +1,128 @@
+package httpserver.store;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+
+/**
+ * 日志段的稀疏索引，与段文件同名、后缀为.idx，同样整体映射到内存
+ * 段内每写入约interval字节登记一项（序号、时间戳、记录偏移量），相邻两项之间的记录构成一个块；
+ * 查询先在索引中二分查找到块，再只读取该块，每次读取的字节数有上界。
+ * 项格式（大端）：long seq, long timestamp, int offset；seq最后写入，为0表示索引到此结束。
+ */
+final class SegmentIndex {
+    static final int ENTRY_SIZE = 20;
+    static final String SUFFIX = ".idx";
+
+    private final Path path;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private volatile int size;
+
+    private SegmentIndex(Path path, MappedByteBuffer buffer) {
+        this.path = path;
+        this.buffer = buffer;
+        this.capacity = buffer.capacity() / ENTRY_SIZE;
+        int count = 0;
+        while (count < capacity && buffer.getLong(count * ENTRY_SIZE) != 0) {
+            count++;
+        }
+        this.size = count;
+    }
+
+    static Path pathFor(Path segmentPath) {
+        String name = segmentPath.getFileName().toString();
+        return segmentPath.resolveSibling(name.substring(0, name.length() - JournalSegment.SUFFIX.length()) + SUFFIX);
+    }
+
+    /**
+     * 打开或创建段对应的索引文件，容量按段大小和登记间隔计算
+     */
+    static SegmentIndex open(Path segmentPath, int segmentSize, int interval) throws IOException {
+        Path file = pathFor(segmentPath);
+        int entries = segmentSize / Math.max(1, interval) + 2;
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            long size = (long) entries * ENTRY_SIZE;
+            if (raf.length() < size) {
+                raf.setLength(size);
+            }
+            return new SegmentIndex(file, raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, raf.length()));
+        }
+    }
+
+    /**
+     * 清空索引，用于重建
+     */
+    void clear() {
+        if (capacity > 0) {
+            buffer.putLong(0, 0);
+        }
+        size = 0;
+    }
+
+    /**
+     * 追加一项，由段的唯一写入者调用；索引已满时忽略（块变大但查询仍然正确）
+     */
+    void add(long seq, long timestamp, int offset) {
+        int count = size;
+        if (count >= capacity) return;
+        int position = count * ENTRY_SIZE;
+        buffer.putLong(position + 8, timestamp);
+        buffer.putInt(position + 16, offset);
+        if (count + 1 < capacity) {
+            buffer.putLong(position + ENTRY_SIZE, 0);
+        }
+        buffer.putLong(position, seq);
+        size = count + 1;
+    }
+
+    int size() { return size; }
+    long seqAt(int i) { return buffer.getLong(i * ENTRY_SIZE); }
+    long timestampAt(int i) { return buffer.getLong(i * ENTRY_SIZE + 8); }
+    int offsetAt(int i) { return buffer.getInt(i * ENTRY_SIZE + 16); }
+
+    /**
+     * 最后一个首条序号不大于seq的块，没有时返回-1
+     */
+    int floorBySeq(long seq) {
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (seqAt(mid) <= seq) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return high;
+    }
+
+    /**
+     * 最后一个首条时间戳小于timestamp的块，没有时返回-1
+     * 时间戳由请求线程在分配序号前取得，只是近似递增，调用方需按实际时间戳过滤
+     */
+    int lowerByTimestamp(long timestamp) {
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (timestampAt(mid) < timestamp) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return high;
+    }
+
+    void force() {
+        buffer.force();
+    }
+
+    Path getPath() {
+        return path;
+    }
+}
@@ -0,0 +1,166 @@
+package httpserver.websocket;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * 增量式WebSocket帧解码器，每个连接持有一个实例
+ * 帧头不完整时保留在缓冲区中等待后续数据；负载边读取边去掉掩码。
+ * 分片的数据帧在解码器内组装为完整消息，控制帧可以穿插在分片之间单独返回。
+ */
+public class WebSocketDecoder {
+    private enum State { HEADER, PAYLOAD }
+
+    private final int maxMessageSize;
+
+    private State state = State.HEADER;
+    private boolean fin;
+    private int opcode;
+    private final byte[] mask = new byte[4];
+    private byte[] payload;
+    private int payloadOffset;
+    // 正在组装的分片消息
+    private int messageOpcode = -1;
+    private byte[] message;
+    private int messageLength;
+
+    public WebSocketDecoder(int maxMessageSize) {
+        this.maxMessageSize = maxMessageSize;
+    }
+
+    /**
+     * 解码buffer中position到limit之间的字节
+     * 得到控制帧或完整的数据消息时返回，position指向其后的第一个字节；否则返回null
+     */
+    public Frame decode(ByteBuffer buffer) throws WebSocketException {
+        while (true) {
+            if (state == State.HEADER) {
+                if (!readHeader(buffer)) {
+                    return null;
+                }
+                state = State.PAYLOAD;
+            }
+            int n = Math.min(buffer.remaining(), payload.length - payloadOffset);
+            for (int i = 0; i < n; i++) {
+                payload[payloadOffset] = (byte) (buffer.get() ^ mask[payloadOffset & 3]);
+                payloadOffset++;
+            }
+            if (payloadOffset < payload.length) {
+                return null;
+            }
+            state = State.HEADER;
+            Frame frame = completeFrame();
+            if (frame != null) {
+                return frame;
+            }
+        }
+    }
+
+    private boolean readHeader(ByteBuffer buffer) throws WebSocketException {
+        if (buffer.remaining() < 2) {
+            return false;
+        }
+        int start = buffer.position();
+        int b0 = buffer.get(start) & 0xFF;
+        int b1 = buffer.get(start + 1) & 0xFF;
+        int lengthBytes = (b1 & 0x7F) == 126 ? 2 : (b1 & 0x7F) == 127 ? 8 : 0;
+        if (buffer.remaining() < 2 + lengthBytes + 4) {
+            return false;
+        }
+
+        fin = (b0 & 0x80) != 0;
+        opcode = b0 & 0x0F;
+        if ((b0 & 0x70) != 0) {
+            throw new WebSocketException(WebSocketFrames.CLOSE_PROTOCOL_ERROR, "不支持的扩展位");
+        }
+        if ((b1 & 0x80) == 0) {
+            throw new WebSocketException(WebSocketFrames.CLOSE_PROTOCOL_ERROR, "客户端帧必须使用掩码");
+        }
+        boolean control = opcode >= WebSocketFrames.OPCODE_CLOSE;
+        if (control ? opcode > WebSocketFrames.OPCODE_PONG : opcode > WebSocketFrames.OPCODE_BINARY) {
+            throw new WebSocketException(WebSocketFrames.CLOSE_PROTOCOL_ERROR, "未知的操作码：" + opcode);
+        }
+
+        long length = b1 & 0x7F;
+        if (lengthBytes > 0) {
+            length = 0;
+            for (int i = 0; i < lengthBytes; i++) {
+                length = (length << 8) | (buffer.get(start + 2 + i) & 0xFF);
+            }
+        }
+        if (control && (!fin || length > 125)) {
+            throw new WebSocketException(WebSocketFrames.CLOSE_PROTOCOL_ERROR, "控制帧不能分片且负载不能超过125字节");
+        }
+        if (length < 0 || length + (control ? 0 : messageLength) > maxMessageSize) {
+            throw new WebSocketException(WebSocketFrames.CLOSE_MESSAGE_TOO_BIG, "消息过大");
+        }
+        if (!control) {
+            if (opcode == WebSocketFrames.OPCODE_CONTINUATION && messageOpcode < 0) {
+                throw new WebSocketException(WebSocketFrames.CLOSE_PROTOCOL_ERROR, "没有可继续的分片消息");
+            }
+            if (opcode != WebSocketFrames.OPCODE_CONTINUATION && messageOpcode >= 0) {
+                throw new WebSocketException(WebSocketFrames.CLOSE_PROTOCOL_ERROR, "上一条分片消息尚未结束");
+            }
+        }
+
+        int maskStart = start + 2 + lengthBytes;
+        for (int i = 0; i < 4; i++) {
+            mask[i] = buffer.get(maskStart + i);
+        }
+        buffer.position(maskStart + 4);
+        payload = new byte[(int) length];
+        payloadOffset = 0;
+        return true;
+    }
+
+    /**
+     * 一帧读取完毕：控制帧和未分片的数据帧直接返回，分片则累积到消息缓冲区
+     */
+    private Frame completeFrame() {
+        if (opcode >= WebSocketFrames.OPCODE_CLOSE) {
+            return new Frame(opcode, payload);
+        }
+        if (fin && messageOpcode < 0) {
+            return new Frame(opcode, payload);
+        }
+        if (messageOpcode < 0) {
+            messageOpcode = opcode;
+            message = new byte[Math.max(256, payload.length * 2)];
+            messageLength = 0;
+        }
+        if (messageLength + payload.length > message.length) {
+            message = Arrays.copyOf(message, Math.max(message.length * 2, messageLength + payload.length));
+        }
+        System.arraycopy(payload, 0, message, messageLength, payload.length);
+        messageLength += payload.length;
+        if (!fin) {
+            return null;
+        }
+        Frame frame = new Frame(messageOpcode, Arrays.copyOf(message, messageLength));
+        messageOpcode = -1;
+        message = null;
+        messageLength = 0;
+        return frame;
+    }
+
+    /**
+     * 解码得到的帧：控制帧，或组装完整的文本/二进制消息
+     */
+    public static final class Frame {
+        private final int opcode;
+        private final byte[] payload;
+
+        Frame(int opcode, byte[] payload) {
+            this.opcode = opcode;
+            this.payload = payload;
+        }
+
+        public int getOpcode() {
+            return opcode;
+        }
+
+        public byte[] getPayload() {
+            return payload;
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package httpserver.websocket;
+
+import java.io.IOException;
+
+/**
+ * WebSocket协议错误，携带应发送给对端的关闭状态码
+ */
+public class WebSocketException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    private final int closeCode;
+
+    public WebSocketException(int closeCode, String message) {
+        super(message);
+        this.closeCode = closeCode;
+    }
+
+    public int getCloseCode() {
+        return closeCode;
+    }
+}
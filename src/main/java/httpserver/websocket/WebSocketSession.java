@@ -0,0 +1,172 @@
+package httpserver.websocket;
+
+import httpserver.ChatRoom;
+import httpserver.model.ChatMessage;
+import httpserver.model.ChatUser;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 一个已加入房间的用户的WebSocket会话，与传输方式（阻塞Socket或NIO事件循环）无关
+ * 控制帧在解码时就地处理；文本消息返回给调用方，由调用方在合适的线程中执行onText。
+ * 客户端发送的文本消息格式：{"type":"send","content":"消息内容"}
+ */
+public class WebSocketSession {
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    /**
+     * 会话所在连接的写出方式
+     */
+    public interface Transport {
+        /**
+         * 发送仅属于本连接的帧（控制帧），不受事件积压上限限制
+         */
+        void sendFrame(byte[] frame);
+
+        /**
+         * 写完已排队的帧后关闭连接
+         */
+        void closeAfterFlush();
+    }
+
+    private final ChatRoom room;
+    private final String userId;
+    private final WebSocketDecoder decoder;
+    private Transport transport;
+    // 已发送关闭帧，之后不再处理任何消息
+    private volatile boolean closing;
+
+    public WebSocketSession(ChatRoom room, String userId, int maxMessageSize) {
+        this.room = room;
+        this.userId = userId;
+        this.decoder = new WebSocketDecoder(maxMessageSize);
+    }
+
+    public void attach(Transport transport) {
+        this.transport = transport;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public boolean isClosing() {
+        return closing;
+    }
+
+    /**
+     * 解码缓冲区中的帧，直到得到一条完整的文本消息或数据不足
+     * 返回文本消息；数据不足、会话已关闭或发生协议错误时返回null
+     */
+    public String poll(ByteBuffer buffer) {
+        try {
+            while (!closing) {
+                WebSocketDecoder.Frame frame = decoder.decode(buffer);
+                if (frame == null) {
+                    return null;
+                }
+                switch (frame.getOpcode()) {
+                    case WebSocketFrames.OPCODE_TEXT:
+                        return decodeUtf8(frame.getPayload());
+                    case WebSocketFrames.OPCODE_BINARY:
+                        close(WebSocketFrames.CLOSE_UNSUPPORTED_DATA, "不支持二进制消息");
+                        return null;
+                    case WebSocketFrames.OPCODE_PING:
+                        transport.sendFrame(WebSocketFrames.pong(frame.getPayload()));
+                        room.touchUser(userId);
+                        break;
+                    case WebSocketFrames.OPCODE_PONG:
+                        // 浏览器自动回复服务器的心跳ping，连接存活即视为用户在线
+                        room.touchUser(userId);
+                        break;
+                    case WebSocketFrames.OPCODE_CLOSE:
+                        onClose(frame.getPayload());
+                        return null;
+                    default:
+                        throw new WebSocketException(WebSocketFrames.CLOSE_PROTOCOL_ERROR, "未知的操作码");
+                }
+            }
+        } catch (WebSocketException e) {
+            close(e.getCloseCode(), e.getMessage());
+        }
+        return null;
+    }
+
+    /**
+     * 处理一条客户端文本消息
+     */
+    public void onText(String text) {
+        if (closing) return;
+        ChatMessage request;
+        try {
+            request = objectMapper.readValue(text, ChatMessage.class);
+        } catch (Exception e) {
+            close(WebSocketFrames.CLOSE_INVALID_PAYLOAD, "无效的消息格式");
+            return;
+        }
+        if (!"send".equals(request.getType())) {
+            close(WebSocketFrames.CLOSE_UNSUPPORTED_DATA, "不支持的消息类型");
+            return;
+        }
+        ChatUser user = room.getUser(userId);
+        if (user == null) {
+            close(WebSocketFrames.CLOSE_POLICY_VIOLATION, "用户不存在或已离线");
+            return;
+        }
+        String content = request.getContent();
+        if (content == null || content.trim().isEmpty()) {
+            return;
+        }
+        user.updateActivity();
+
+        ChatMessage message = new ChatMessage();
+        message.setType("user");
+        message.setUserId(userId);
+        message.setUsername(user.getUsername());
+        message.setContent(content);
+        message.setTimestamp(System.currentTimeMillis());
+        room.broadcastMessage(message);
+    }
+
+    /**
+     * 服务器主动关闭：发送关闭帧，写完后断开
+     */
+    public void close(int code, String reason) {
+        if (closing) return;
+        closing = true;
+        transport.sendFrame(WebSocketFrames.close(code, reason));
+        transport.closeAfterFlush();
+    }
+
+    /**
+     * 客户端发起关闭：回送相同的状态码后断开
+     */
+    private void onClose(byte[] payload) throws WebSocketException {
+        if (payload.length == 1) {
+            throw new WebSocketException(WebSocketFrames.CLOSE_PROTOCOL_ERROR, "无效的关闭帧");
+        }
+        int code = payload.length >= 2 ? ((payload[0] & 0xFF) << 8) | (payload[1] & 0xFF) : WebSocketFrames.CLOSE_NO_STATUS;
+        closing = true;
+        transport.sendFrame(code == WebSocketFrames.CLOSE_NO_STATUS
+                ? WebSocketFrames.encode(WebSocketFrames.OPCODE_CLOSE, new byte[0])
+                : WebSocketFrames.close(code, ""));
+        transport.closeAfterFlush();
+    }
+
+    private static String decodeUtf8(byte[] payload) throws WebSocketException {
+        try {
+            CharBuffer chars = StandardCharsets.UTF_8.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPORT)
+                    .onUnmappableCharacter(CodingErrorAction.REPORT)
+                    .decode(ByteBuffer.wrap(payload));
+            return chars.toString();
+        } catch (CharacterCodingException e) {
+            throw new WebSocketException(WebSocketFrames.CLOSE_INVALID_PAYLOAD, "消息不是有效的UTF-8");
+        }
+    }
+}